@@ -0,0 +1,126 @@
+package com.graphitact.chatai;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Server;
+import org.bukkit.World;
+import org.bukkit.configuration.file.FileConfiguration;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitScheduler;
+
+import java.io.File;
+import java.lang.reflect.Field;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.function.BooleanSupplier;
+import java.util.logging.Logger;
+
+/**
+ * Just enough of a Bukkit server for the benchmarks and the load test to
+ * run offline.
+ *
+ * Server, World, Player and Plugin are dynamic proxies: the few methods the
+ * code under test calls are answered from here, everything else returns a
+ * zero value. The server is put into {@code Bukkit.server} directly, because
+ * {@code Bukkit.setServer} wants a real build and logs a banner.
+ */
+final class BukkitStubs {
+    private BukkitStubs() {}
+
+    /** Install a server with one world at {@code worldTime} and {@code online} players. */
+    static synchronized void install(long worldTime, boolean storm, int online) {
+        World world = proxy(World.class, (name, args) -> switch (name) {
+            case "getTime"        -> worldTime;
+            case "hasStorm"       -> storm;
+            case "getName"        -> "world";
+            case "getPlayerCount" -> online;
+            default               -> null;
+        });
+        List<Player> players = new ArrayList<>(online);
+        for (int i = 0; i < online; i++) {
+            UUID id = new UUID(7L, i);
+            players.add(proxy(Player.class, (name, args) -> name.equals("getUniqueId") ? id : null));
+        }
+        Logger log = Logger.getLogger("ChatAI-bench");
+        Server server = proxy(Server.class, (name, args) -> switch (name) {
+            case "getWorlds"        -> List.of(world);
+            case "getOnlinePlayers" -> players;
+            case "getLogger"        -> log;
+            default                 -> null;
+        });
+        try {
+            Field f = Bukkit.class.getDeclaredField("server");
+            f.setAccessible(true);
+            f.set(null, server);
+        } catch (ReflectiveOperationException ex) {
+            throw new IllegalStateException("cannot install stub server", ex);
+        }
+    }
+
+    /**
+     * A plugin for AIClient: its config and logger, the working directory as
+     * data folder, and a scheduler whose {@code runTask} hands the task to
+     * {@code mainThread}.
+     */
+    static Plugin plugin(FileConfiguration config, Logger log, Executor mainThread, BooleanSupplier enabled) {
+        BukkitScheduler scheduler = proxy(BukkitScheduler.class, (name, args) -> {
+            if (name.equals("runTask") && args[1] instanceof Runnable task) mainThread.execute(task);
+            return null;
+        });
+        Server server = proxy(Server.class, (name, args) -> switch (name) {
+            case "getScheduler" -> scheduler;
+            case "getLogger"    -> log;
+            default             -> null;
+        });
+        return proxy(Plugin.class, (name, args) -> switch (name) {
+            case "getConfig"     -> config;
+            case "getLogger"     -> log;
+            case "getServer"     -> server;
+            case "getName"       -> "ChatAI";
+            case "getDataFolder" -> new File(".");
+            case "isEnabled"     -> enabled.getAsBoolean();
+            default              -> null;
+        });
+    }
+
+    private interface Answer {
+        /** Value for the call, or null to fall back to a zero value. */
+        Object call(String method, Object[] args);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, Answer answer) {
+        return (T) Proxy.newProxyInstance(BukkitStubs.class.getClassLoader(), new Class<?>[] { type },
+            (self, method, args) -> {
+                switch (method.getName()) {
+                    case "hashCode" -> { return System.identityHashCode(self); }
+                    case "equals"   -> { return self == args[0]; }
+                    case "toString" -> { return type.getSimpleName() + "Stub"; }
+                    default -> { }
+                }
+                Object v = answer.call(method.getName(), args);
+                return v != null ? v : zero(method.getReturnType());
+            });
+    }
+
+    private static Object zero(Class<?> t) {
+        if (t == boolean.class) return false;
+        if (t == long.class)    return 0L;
+        if (t == int.class)     return 0;
+        if (t == double.class)  return 0.0;
+        if (t == float.class)   return 0f;
+        if (t == short.class)   return (short) 0;
+        if (t == byte.class)    return (byte) 0;
+        if (t == char.class)    return '\0';
+        if (t == List.class || t == Collection.class) return List.of();
+        if (t == Set.class)     return Set.of();
+        if (t == Map.class)     return Map.of();
+        return null;
+    }
+}
@@ -0,0 +1,314 @@
+package com.graphitact.chatai;
+
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.plugin.Plugin;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * End-to-end load test of the chat pipeline against {@link MockProxy}.
+ *
+ * Simulated players talk to villagers (HIGH) or in server chat (NORMAL) with
+ * random think times, and server events arrive as ambient chatter (LOW),
+ * each making the same AIClient call as VillagerChatListener and
+ * ServerChatListener. At the end it prints throughput, latency from call to
+ * reply, and how many requests were turned away or came back empty.
+ *
+ * <pre>
+ * java -cp target/benchmarks.jar com.graphitact.chatai.LoadTest --players=60 --duration-s=120 \
+ *      --latency=lognormal:1200,0.5 --error-rate=0.02 --max-concurrent-requests=6
+ * </pre>
+ *
+ * Options not listed in {@link #HARNESS} are config.yml keys and override
+ * the shipped defaults (or {@code --config=path/to/config.yml}).
+ */
+public final class LoadTest {
+    private static final List<String> HARNESS = List.of(
+        "players", "villager-share", "think-ms", "duration-s", "ambient-per-min",
+        "latency", "shape", "token-ms", "error-rate", "error-body-rate", "hang-rate",
+        "backends", "proxy-url", "config", "verbose");
+
+    // same as VillagerChatListener / ServerChatListener
+    private static final int VILLAGER_HISTORY = 20;
+    private static final int PLAYER_HISTORY   = 6;
+    private static final int SERVER_HISTORY   = 20;
+    private static final UUID SERVER_ID = new UUID(0L, 0L);
+
+    private LoadTest() {}
+
+    /** Outcome counters for one request class. */
+    private static final class Stats {
+        final String name;
+        final LongAdder sent     = new LongAdder();
+        final LongAdder rejected = new LongAdder();
+        final LongAdder ok       = new LongAdder();
+        final LongAdder empty    = new LongAdder();
+        final ConcurrentLinkedQueue<Long> total      = new ConcurrentLinkedQueue<>();
+        final ConcurrentLinkedQueue<Long> firstChunk = new ConcurrentLinkedQueue<>();
+
+        Stats(String name) {
+            this.name = name;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> opts = parse(args);
+        int players         = Integer.parseInt(opts.getOrDefault("players", "20"));
+        double villagerShare = Double.parseDouble(opts.getOrDefault("villager-share", "0.5"));
+        long thinkMillis    = Long.parseLong(opts.getOrDefault("think-ms", "8000"));
+        long durationMillis = Long.parseLong(opts.getOrDefault("duration-s", "60")) * 1000L;
+        double ambientPerMin = Double.parseDouble(opts.getOrDefault("ambient-per-min", "6"));
+        boolean verbose     = Boolean.parseBoolean(opts.getOrDefault("verbose", "false"));
+
+        YamlConfiguration config = baseConfig(opts.get("config"));
+        List<MockProxy> mocks = new ArrayList<>();
+        if (opts.containsKey("proxy-url")) {
+            config.set("proxy-urls", List.of(opts.get("proxy-url")));
+        } else {
+            MockProxy.Options mo = new MockProxy.Options();
+            mo.shape         = MockProxy.Shape.parse(opts.getOrDefault("shape", "mixed"));
+            mo.latency       = MockProxy.Latency.parse(opts.getOrDefault("latency", "lognormal:800,0.4"));
+            mo.tokenMillis   = Long.parseLong(opts.getOrDefault("token-ms", "15"));
+            mo.errorRate     = Double.parseDouble(opts.getOrDefault("error-rate", "0"));
+            mo.errorBodyRate = Double.parseDouble(opts.getOrDefault("error-body-rate", "0"));
+            mo.hangRate      = Double.parseDouble(opts.getOrDefault("hang-rate", "0"));
+            List<String> urls = new ArrayList<>();
+            for (int i = Integer.parseInt(opts.getOrDefault("backends", "1")); i > 0; i--) {
+                MockProxy m = new MockProxy(0, mo);
+                mocks.add(m);
+                urls.add(m.uri().toString());
+            }
+            config.set("proxy-urls", urls);
+        }
+        // traces stay in memory unless asked for
+        config.set("trace-sample-rate", 0);
+        opts.forEach((k, v) -> {
+            if (!HARNESS.contains(k)) config.set(k, value(v));
+        });
+
+        Logger log = Logger.getLogger("ChatAI");
+        // AIClient logs every body at INFO
+        log.setLevel(verbose ? Level.INFO : Level.WARNING);
+        ScheduledExecutorService mainThread = Executors.newSingleThreadScheduledExecutor(r -> daemon(r, "Server thread"));
+        boolean[] enabled = { true };
+        Metrics metrics = new Metrics();
+        Plugin plugin = BukkitStubs.plugin(config, log, mainThread, () -> enabled[0]);
+        Tracer tracer = new Tracer(plugin);
+        // the plugin drains AI callbacks once per tick; so does this "server"
+        MainThreadQueue callbacks = new MainThreadQueue(plugin, metrics);
+        mainThread.scheduleAtFixedRate(callbacks::drain, 50, 50, TimeUnit.MILLISECONDS);
+        AIClient ai = new AIClient(plugin, metrics, tracer, callbacks);
+
+        Stats villager = new Stats("villager");
+        Stats chat     = new Stats("chat");
+        Stats ambient  = new Stats("ambient");
+        AtomicInteger outstanding = new AtomicInteger();
+        ScheduledExecutorService gen = Executors.newScheduledThreadPool(2, r -> daemon(r, "LoadGen"));
+        long start = System.currentTimeMillis();
+        long end   = start + durationMillis;
+
+        int villagers = (int) Math.round(players * villagerShare);
+        for (int i = 0; i < players; i++) {
+            SimPlayer p = i < villagers
+                ? new SimPlayer(new UUID(1L, i), villager, villagerSystem(i), new ConversationHistory(VILLAGER_HISTORY))
+                : new SimPlayer(new UUID(2L, i), chat, null, new ConversationHistory(PLAYER_HISTORY));
+            gen.schedule(() -> p.talk(ai, gen, end, thinkMillis, outstanding),
+                ThreadLocalRandom.current().nextLong(Math.max(1, thinkMillis)), TimeUnit.MILLISECONDS);
+        }
+        if (ambientPerMin > 0) {
+            ConversationHistory server = new ConversationHistory(SERVER_HISTORY);
+            AtomicInteger joins = new AtomicInteger();
+            long every = Math.max(1, Math.round(60_000 / ambientPerMin));
+            gen.scheduleAtFixedRate(() -> {
+                if (System.currentTimeMillis() >= end) return;
+                String name = "Player" + joins.incrementAndGet();
+                send(ambient, outstanding, (onChunk, callback) -> ai.askEvent("join", SERVER_ID, server,
+                    "Write a short, unique welcome for player {0}. Keep it under 25 words.",
+                    new String[] { name }, AIClient.Priority.LOW, onChunk, callback));
+            }, every, every, TimeUnit.MILLISECONDS);
+        }
+
+        System.out.printf(Locale.ROOT, "ChatAI load test: %d players (%d villager, %d chat), %d ambient/min, %ds against %s%n",
+            players, villagers, players - villagers, Math.round(ambientPerMin), durationMillis / 1000,
+            config.getStringList("proxy-urls"));
+        Thread.sleep(durationMillis);
+
+        // let accepted requests finish; anything still out after this counts as dropped
+        long drainUntil = System.currentTimeMillis() + config.getInt("request-timeout-seconds", 10) * 2000L + 5000L;
+        while (outstanding.get() > 0 && System.currentTimeMillis() < drainUntil) Thread.sleep(50);
+        long elapsed = System.currentTimeMillis() - start;
+        gen.shutdownNow();
+
+        System.out.printf(Locale.ROOT, "%-9s %6s %8s %6s %6s %8s %7s %7s %7s %7s %11s%n",
+            "class", "sent", "rejected", "ok", "failed", "ok/s", "p50", "p95", "p99", "max", "1st-chunk95");
+        for (Stats s : List.of(villager, chat, ambient)) report(s, elapsed);
+        long sent = villager.sent.sum() + chat.sent.sum() + ambient.sent.sum();
+        long dropped = villager.rejected.sum() + chat.rejected.sum() + ambient.rejected.sum()
+            + villager.empty.sum() + chat.empty.sum() + ambient.empty.sum() + outstanding.get();
+        System.out.printf(Locale.ROOT, "dropped %d of %d (%.1f%%), %d still outstanding%n",
+            dropped, sent, sent == 0 ? 0.0 : dropped * 100.0 / sent, outstanding.get());
+        for (MockProxy m : mocks) {
+            System.out.printf(Locale.ROOT, "mock %s: %d requests, %d batched, %d streamed, %d failures injected%n",
+                m.uri(), m.requests.sum(), m.batches.sum(), m.streamed.sum(), m.injected.sum());
+        }
+        System.out.println("plugin metrics:");
+        for (String line : metrics.summary()) System.out.println("  " + line);
+
+        enabled[0] = false;
+        ai.shutdown();
+        tracer.close();
+        for (MockProxy m : mocks) m.close();
+        mainThread.shutdownNow();
+    }
+
+    /** One simulated player, talking either to a villager or in server chat. */
+    private static final class SimPlayer {
+        final UUID id;
+        final Stats stats;
+        final String villagerSystem;   // null for server chat
+        final ConversationHistory history;
+        int line;
+
+        SimPlayer(UUID id, Stats stats, String villagerSystem, ConversationHistory history) {
+            this.id             = id;
+            this.stats          = stats;
+            this.villagerSystem = villagerSystem;
+            this.history        = history;
+        }
+
+        void talk(AIClient ai, ScheduledExecutorService gen, long end, long thinkMillis, AtomicInteger outstanding) {
+            if (System.currentTimeMillis() >= end) return;
+            String msg = Samples.playerLine(line++);
+            send(stats, outstanding, (onChunk, callback) -> villagerSystem != null
+                ? ai.askWithSystem(id, history, msg, villagerSystem, AIClient.Priority.HIGH, onChunk, callback)
+                : ai.ask(id, history, msg, AIClient.Priority.NORMAL, onChunk, callback));
+            // exponential think time: players don't wait for the reply before typing again
+            long next = Math.round(-Math.log(1 - ThreadLocalRandom.current().nextDouble()) * thinkMillis);
+            gen.schedule(() -> talk(ai, gen, end, thinkMillis, outstanding), Math.max(1, next), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private interface Call {
+        AIClient.Admission send(Consumer<String> onChunk, Consumer<String> callback);
+    }
+
+    private static void send(Stats stats, AtomicInteger outstanding, Call call) {
+        long t0 = System.nanoTime();
+        boolean[] first = { false };
+        stats.sent.increment();
+        outstanding.incrementAndGet();
+        AIClient.Admission a = call.send(
+            chunk -> {
+                // chunks and the callback both run on the one "main thread"
+                if (!first[0]) {
+                    first[0] = true;
+                    stats.firstChunk.add((System.nanoTime() - t0) / 1_000_000);
+                }
+            },
+            reply -> {
+                outstanding.decrementAndGet();
+                if (reply.isBlank()) {
+                    stats.empty.increment();
+                } else {
+                    stats.ok.increment();
+                    stats.total.add((System.nanoTime() - t0) / 1_000_000);
+                }
+            });
+        if (a == AIClient.Admission.REJECTED || a == AIClient.Admission.RATE_LIMITED) {
+            outstanding.decrementAndGet();
+            stats.rejected.increment();
+        }
+    }
+
+    private static void report(Stats s, long elapsedMillis) {
+        long[] total = sorted(s.total);
+        long[] first = sorted(s.firstChunk);
+        System.out.printf(Locale.ROOT, "%-9s %6d %8d %6d %6d %8.2f %7s %7s %7s %7s %11s%n",
+            s.name, s.sent.sum(), s.rejected.sum(), s.ok.sum(), s.empty.sum(),
+            s.ok.sum() * 1000.0 / Math.max(1, elapsedMillis),
+            pct(total, 0.50), pct(total, 0.95), pct(total, 0.99), pct(total, 1.0), pct(first, 0.95));
+    }
+
+    private static long[] sorted(ConcurrentLinkedQueue<Long> samples) {
+        long[] out = samples.stream().mapToLong(Long::longValue).toArray();
+        Arrays.sort(out);
+        return out;
+    }
+
+    private static String pct(long[] sorted, double q) {
+        if (sorted.length == 0) return "-";
+        return sorted[Math.max(0, (int) Math.ceil(sorted.length * q) - 1)] + "ms";
+    }
+
+    private static String villagerSystem(int i) {
+        return "You are villager #" + i + ", the " + (i % 2 == 0 ? "farmer" : "blacksmith")
+            + " of Silver Hollow. Answer in one or two short sentences and stay in character."
+            + "\nYou live in the village of Silver Hollow.";
+    }
+
+    /** The config.yml shipped in the plugin jar, or the given file. */
+    private static YamlConfiguration baseConfig(String path) throws IOException {
+        if (path != null) {
+            try (Reader r = Files.newBufferedReader(Path.of(path), StandardCharsets.UTF_8)) {
+                return YamlConfiguration.loadConfiguration(r);
+            }
+        }
+        try (InputStream in = AIClient.class.getClassLoader().getResourceAsStream("config.yml")) {
+            if (in == null) return new YamlConfiguration();
+            return YamlConfiguration.loadConfiguration(new InputStreamReader(in, StandardCharsets.UTF_8));
+        }
+    }
+
+    /** {@code --key=value} pairs; a bare {@code --flag} means true. */
+    private static Map<String, String> parse(String[] args) {
+        Map<String, String> out = new HashMap<>();
+        for (String a : args) {
+            if (!a.startsWith("--")) throw new IllegalArgumentException("expected --key=value: " + a);
+            int eq = a.indexOf('=');
+            if (eq < 0) out.put(a.substring(2), "true");
+            else out.put(a.substring(2, eq), a.substring(eq + 1));
+        }
+        return out;
+    }
+
+    /** Config override as the type YAML would have given it. */
+    private static Object value(String v) {
+        if (v.equalsIgnoreCase("true") || v.equalsIgnoreCase("false")) return Boolean.parseBoolean(v);
+        try {
+            return Integer.parseInt(v);
+        } catch (NumberFormatException ignored) { /* not an int */ }
+        try {
+            return Double.parseDouble(v);
+        } catch (NumberFormatException ignored) { /* not a number */ }
+        return v;
+    }
+
+    private static Thread daemon(Runnable r, String name) {
+        Thread t = new Thread(r, name);
+        t.setDaemon(true);
+        return t;
+    }
+}
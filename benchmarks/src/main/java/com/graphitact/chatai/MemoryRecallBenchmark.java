@@ -0,0 +1,63 @@
+package com.graphitact.chatai;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-message memory recall: BM25 search of one villager's memory for the
+ * player's line, with the recent window excluded, and the cost of indexing
+ * one new turn. Memory sizes go up to villager-memory-max-entries and well
+ * past it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MemoryRecallBenchmark {
+
+    @Param({ "40", "400", "4000" })
+    public int entries;
+
+    private MemoryIndex index;
+    private ConversationHistory.Entry[] stored;
+    private Set<ConversationHistory.Entry> recent;
+    private int next;
+
+    @Setup
+    public void setup() {
+        stored = Samples.history(entries + 1);
+        index = new MemoryIndex();
+        for (int i = 0; i < entries; i++) index.add(stored[i]);
+        recent = new HashSet<>(Arrays.asList(stored).subList(Math.max(0, entries - 20), entries));
+    }
+
+    @Benchmark
+    public List<ConversationHistory.Entry> recall() {
+        return index.search(Samples.playerLine(next++), 4, recent);
+    }
+
+    /** Index a new turn and forget it again, so the index stays the same size. */
+    @Benchmark
+    public int indexTurn() {
+        index.add(stored[entries]);
+        index.remove(stored[entries]);
+        return index.size();
+    }
+}
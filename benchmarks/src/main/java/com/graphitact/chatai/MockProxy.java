@@ -0,0 +1,327 @@
+package com.graphitact.chatai;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A stand-in for the LM Studio proxy that answers instantly from canned
+ * replies, after a configurable delay.
+ *
+ * It answers in every shape ResponseParser accepts (chosen per response, or
+ * rotated), streams SSE when the request asks for it, answers batched
+ * requests by id, and can inject failures: HTTP 500s, error bodies, and
+ * requests that hang past the client's timeout. HEAD requests (the backend
+ * health probe) always get a 200.
+ */
+final class MockProxy implements AutoCloseable {
+
+    /** Body shape of a successful reply. */
+    enum Shape {
+        /** chat.completions with the JSON-schema answer as message.content */
+        COMPLETION,
+        /** chat.completions with plain text as message.content */
+        CONTENT,
+        /** choices[0].data.answer */
+        DATA,
+        /** legacy choices[0].text */
+        TEXT,
+        /** top-level {"answer": …} */
+        ANSWER,
+        /** LM Studio legacy {"response": …} */
+        RESPONSE;
+
+        /** A shape name, or "mixed" (null) to rotate through all of them. */
+        static Shape parse(String s) {
+            return s.equalsIgnoreCase("mixed") ? null : valueOf(s.toUpperCase(Locale.ROOT));
+        }
+    }
+
+    /** How long the model "thinks" before the first byte. */
+    interface Latency {
+        long sampleMillis();
+
+        /** {@code fixed:300}, {@code uniform:200-900} or {@code lognormal:800,0.5} (median, sigma). */
+        static Latency parse(String spec) {
+            String[] kv = spec.split(":", 2);
+            String arg = kv.length > 1 ? kv[1] : "";
+            switch (kv[0].toLowerCase(Locale.ROOT)) {
+                case "fixed" -> {
+                    long ms = Long.parseLong(arg);
+                    return () -> ms;
+                }
+                case "uniform" -> {
+                    String[] r = arg.split("-");
+                    long lo = Long.parseLong(r[0]), hi = Long.parseLong(r[1]);
+                    return () -> ThreadLocalRandom.current().nextLong(lo, hi + 1);
+                }
+                case "lognormal" -> {
+                    String[] r = arg.split(",");
+                    double median = Double.parseDouble(r[0]), sigma = Double.parseDouble(r[1]);
+                    return () -> Math.round(median * Math.exp(sigma * ThreadLocalRandom.current().nextGaussian()));
+                }
+                default -> throw new IllegalArgumentException("latency: " + spec);
+            }
+        }
+    }
+
+    static final class Options {
+        Shape shape;                  // null = rotate
+        Latency latency = Latency.parse("lognormal:800,0.4");
+        long tokenMillis = 15;        // delay between streamed tokens
+        double errorRate;             // HTTP 500
+        double errorBodyRate;         // 200 with {"error": …}
+        double hangRate;              // no answer for hangMillis
+        long hangMillis = 60_000;
+    }
+
+    private static final String[] REPLIES = {
+        "Hmph. Welcome, traveller.",
+        "Iron? Dig under the mountain to the east, past the river. Mind the creepers.",
+        "Well done! The bakers will be pleased. Here, take these emeralds.",
+        "I've seen a zombie or two wander in at night. Keep a torch lit by the gate, friend.",
+        "Long ago this valley had twice the houses and a bell you could hear from the hills. Then the "
+      + "raids began, and only the stubborn ones stayed. Like me.",
+        "Good evening, everyone! The stars are out and the creepers are restless, stay safe out there.",
+    };
+
+    private final HttpServer server;
+    private final ExecutorService workers;
+    private final Options options;
+    private final AtomicInteger rotation = new AtomicInteger();
+    final LongAdder requests = new LongAdder();
+    final LongAdder batches  = new LongAdder();
+    final LongAdder streamed = new LongAdder();
+    final LongAdder injected = new LongAdder();
+
+    MockProxy(int port, Options options) throws IOException {
+        this.options = options;
+        this.server  = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 128);
+        // every request sleeps, so each gets its own thread
+        this.workers = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "MockProxy-worker");
+            t.setDaemon(true);
+            return t;
+        });
+        server.setExecutor(workers);
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    URI uri() {
+        return URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/ai");
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        workers.shutdownNow();
+    }
+
+    private void handle(HttpExchange ex) throws IOException {
+        try (ex) {
+            if (ex.getRequestMethod().equals("HEAD")) {
+                ex.sendResponseHeaders(200, -1);
+                return;
+            }
+            requests.increment();
+            JsonObject req;
+            try (InputStream in = ex.getRequestBody()) {
+                req = JsonParser.parseString(new String(in.readAllBytes(), StandardCharsets.UTF_8)).getAsJsonObject();
+            } catch (RuntimeException bad) {
+                send(ex, 400, "application/json", "{\"error\":\"bad request\"}");
+                return;
+            }
+
+            ThreadLocalRandom rnd = ThreadLocalRandom.current();
+            double roll = rnd.nextDouble();
+            if (roll < options.hangRate) {
+                injected.increment();
+                sleep(options.hangMillis);
+                return;
+            }
+            sleep(options.latency.sampleMillis());
+            roll -= options.hangRate;
+            if (roll < options.errorRate) {
+                injected.increment();
+                send(ex, 500, "text/plain", "model crashed");
+                return;
+            }
+            roll -= options.errorRate;
+            if (roll < options.errorBodyRate) {
+                injected.increment();
+                send(ex, 200, "application/json", "{\"error\":{\"message\":\"model overloaded\"}}");
+                return;
+            }
+
+            JsonArray batch = batchRequests(req);
+            if (batch != null) {
+                batches.increment();
+                send(ex, 200, "application/json", batchBody(batch));
+            } else if (req.has("stream") && req.get("stream").getAsBoolean()) {
+                streamed.increment();
+                stream(ex, reply());
+            } else {
+                send(ex, 200, "application/json", body(reply()));
+            }
+        }
+    }
+
+    /** The {@code requests} array if this is a batched call, else null. */
+    private static JsonArray batchRequests(JsonObject req) {
+        JsonArray messages = req.getAsJsonArray("messages");
+        if (messages == null || messages.isEmpty()) return null;
+        JsonElement content = messages.get(messages.size() - 1).getAsJsonObject().get("content");
+        if (content == null || !content.getAsString().startsWith("{\"requests\"")) return null;
+        try {
+            return JsonParser.parseString(content.getAsString()).getAsJsonObject().getAsJsonArray("requests");
+        } catch (RuntimeException ex) {
+            return null;
+        }
+    }
+
+    private String reply() {
+        return REPLIES[ThreadLocalRandom.current().nextInt(REPLIES.length)];
+    }
+
+    private Shape nextShape() {
+        if (options.shape != null) return options.shape;
+        Shape[] all = Shape.values();
+        return all[Math.floorMod(rotation.getAndIncrement(), all.length)];
+    }
+
+    private String body(String reply) {
+        JsonObject answer = new JsonObject();
+        answer.addProperty("answer", reply);
+        JsonObject body = new JsonObject();
+        switch (nextShape()) {
+            case COMPLETION -> body = completion(message(answer.toString()), reply);
+            case CONTENT    -> body = completion(message(reply), reply);
+            case DATA       -> {
+                JsonObject choice = new JsonObject();
+                choice.add("data", answer);
+                body = completion(choice, reply);
+            }
+            case TEXT       -> {
+                JsonObject choice = new JsonObject();
+                choice.addProperty("text", reply);
+                body = completion(choice, reply);
+            }
+            case ANSWER     -> body = answer;
+            case RESPONSE   -> body.addProperty("response", reply);
+        }
+        return body.toString();
+    }
+
+    private String batchBody(JsonArray requests) {
+        JsonArray items = new JsonArray();
+        for (JsonElement r : requests) {
+            JsonObject item = new JsonObject();
+            item.add("id", r.getAsJsonObject().get("id"));
+            item.addProperty("answer", reply());
+            items.add(item);
+        }
+        JsonObject answers = new JsonObject();
+        answers.add("answers", items);
+        // batches come back the way LM Studio sends them
+        return completion(message(answers.toString()), answers.toString()).toString();
+    }
+
+    private static JsonObject message(String content) {
+        JsonObject message = new JsonObject();
+        message.addProperty("role", "assistant");
+        message.addProperty("content", content);
+        JsonObject choice = new JsonObject();
+        choice.add("message", message);
+        return choice;
+    }
+
+    private static JsonObject completion(JsonObject choice, String reply) {
+        choice.addProperty("index", 0);
+        choice.addProperty("finish_reason", "stop");
+        JsonArray choices = new JsonArray();
+        choices.add(choice);
+        JsonObject body = new JsonObject();
+        body.addProperty("id", "chatcmpl-mock");
+        body.addProperty("object", "chat.completion");
+        body.addProperty("model", "mock");
+        body.add("choices", choices);
+        body.add("usage", usage(reply));
+        return body;
+    }
+
+    private static JsonObject usage(String reply) {
+        JsonObject usage = new JsonObject();
+        usage.addProperty("prompt_tokens", 400);
+        usage.addProperty("completion_tokens", (reply.length() + 3) / 4);
+        return usage;
+    }
+
+    /** The JSON-schema answer as SSE deltas of about four characters, then usage and [DONE]. */
+    private void stream(HttpExchange ex, String reply) throws IOException {
+        ex.getResponseHeaders().set("Content-Type", "text/event-stream");
+        ex.sendResponseHeaders(200, 0);
+        JsonObject answer = new JsonObject();
+        answer.addProperty("answer", reply);
+        String raw = answer.toString();
+        try (OutputStream out = ex.getResponseBody()) {
+            for (int i = 0; i < raw.length(); i += 4) {
+                JsonObject delta = new JsonObject();
+                delta.addProperty("content", raw.substring(i, Math.min(raw.length(), i + 4)));
+                JsonObject choice = new JsonObject();
+                choice.addProperty("index", 0);
+                choice.add("delta", delta);
+                JsonArray choices = new JsonArray();
+                choices.add(choice);
+                JsonObject evt = new JsonObject();
+                evt.add("choices", choices);
+                event(out, evt.toString());
+                sleep(options.tokenMillis);
+            }
+            JsonObject last = new JsonObject();
+            last.add("choices", new JsonArray());
+            last.add("usage", usage(reply));
+            event(out, last.toString());
+            event(out, "[DONE]");
+        }
+    }
+
+    private static void event(OutputStream out, String data) throws IOException {
+        out.write(("data: " + data + "\n\n").getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    private static void send(HttpExchange ex, int status, String type, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        ex.getResponseHeaders().set("Content-Type", type);
+        ex.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = ex.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static void sleep(long millis) {
+        if (millis <= 0) return;
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
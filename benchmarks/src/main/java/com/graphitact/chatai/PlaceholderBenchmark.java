@@ -0,0 +1,68 @@
+package com.graphitact.chatai;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Placeholder rendering of model replies, and the per-tick world snapshot
+ * it reads, against a stub server with one world and 20 players online.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PlaceholderBenchmark {
+
+    private static final String PLAIN =
+        "Hmph. Iron? Dig under the mountain to the east, past the river. Mind the creepers.";
+    private static final String SERVER =
+        "Good evening! It's {{current_time}} with {{current_weather_state}}, {{online_players}} "
+      + "adventurers are online and we've been up for {{uptime}}.";
+    private static final String VILLAGER =
+        "At {{current_time}}, in {{current_weather_state}}? Come back tomorrow, {{village_name}} sleeps.";
+
+    private PlaceholderEngine engine;
+    private final PlaceholderEngine.Context villager =
+        new PlaceholderEngine.Context(new UUID(1L, 2L), "Silver Hollow");
+
+    @Setup
+    public void setup() {
+        BukkitStubs.install(13_500L, true, 20);
+        engine = new PlaceholderEngine(System.currentTimeMillis() - 3_723_000L);
+        engine.refresh(WorldSnapshot.capture(player -> 2));
+    }
+
+    @Benchmark
+    public String noPlaceholders() {
+        return engine.render(PLAIN, PlaceholderEngine.Context.NONE);
+    }
+
+    @Benchmark
+    public String serverPlaceholders() {
+        return engine.render(SERVER, PlaceholderEngine.Context.NONE);
+    }
+
+    @Benchmark
+    public String villagerPlaceholders() {
+        return engine.render(VILLAGER, villager);
+    }
+
+    /** What every tick pays to take the snapshot. */
+    @Benchmark
+    public WorldSnapshot captureSnapshot() {
+        return WorldSnapshot.capture(player -> 2);
+    }
+}
@@ -0,0 +1,126 @@
+package com.graphitact.chatai;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building a request body: the envelope render AIClient does per call, with
+ * and without a per-villager system prompt and with the token budget applied,
+ * next to the per-call Gson tree it replaced ({@link #perCallTree}).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RequestBenchmark {
+
+    static final String SYSTEM =
+        "You are the friendly voice of a Minecraft survival server. Answer players in one or two short "
+      + "sentences, stay in character, never mention that you are an AI, and keep replies suitable for "
+      + "all ages. The current time is {{current_time}} and the weather is {{current_weather_state}}. "
+      + "If a player asks about rules, remind them: no griefing, no stealing, be kind in chat.";
+
+    static final String VILLAGER_SYSTEM =
+        "You are Mirela, the grumpy but kind-hearted blacksmith of Silver Hollow. You speak in short, "
+      + "gruff sentences and love talking about iron and horses. You may hand out quests: FETCH or KILL, "
+      + "with a target, an amount and a reward command. Memory: the player Steve promised to bring "
+      + "you twelve iron ingots and still owes you for a pickaxe you repaired last week.";
+
+    /** Turns in the history sent with the prompt. */
+    @Param({ "0", "10", "40" })
+    public int turns;
+
+    private RequestEnvelope envelope;
+    private ContextBudget budget;
+    private ConversationHistory.Entry[] history;
+    private final String prompt = "Hey, do you have any work for me? I could use a few emeralds.";
+
+    @Setup
+    public void setup() {
+        JsonObject format = JsonParser.parseString(
+            "{\"type\":\"json_schema\",\"json_schema\":{\"schema\":{\"type\":\"object\","
+          + "\"properties\":{\"answer\":{\"type\":\"string\",\"description\":\"The AI’s chat reply\"}},"
+          + "\"required\":[\"answer\"]}}}").getAsJsonObject();
+        envelope = new RequestEnvelope("llama-3.2-instruct", 0.7, 4000, false, format, SYSTEM);
+        budget   = new ContextBudget(1500);
+        history  = Samples.history(turns);
+    }
+
+    @Benchmark
+    public byte[] renderDefaultSystem() {
+        return envelope.render(SYSTEM, history, prompt);
+    }
+
+    @Benchmark
+    public byte[] renderVillagerSystem() {
+        return envelope.render(VILLAGER_SYSTEM, history, prompt);
+    }
+
+    @Benchmark
+    public byte[] fitAndRender() {
+        return envelope.render(VILLAGER_SYSTEM, budget.fit(VILLAGER_SYSTEM, history, prompt), prompt);
+    }
+
+    /**
+     * The body as AIClient built it before RequestEnvelope: a fresh JsonObject
+     * tree per call, schema included, turned into a String and then encoded
+     * by the body publisher.
+     */
+    @Benchmark
+    public byte[] perCallTree() {
+        JsonArray messages = new JsonArray();
+        for (ConversationHistory.Entry e : history) {
+            JsonObject m = new JsonObject();
+            m.addProperty("role",    e.role().apiRole());
+            m.addProperty("content", e.text());
+            messages.add(m);
+        }
+        JsonObject user = new JsonObject();
+        user.addProperty("role",    "user");
+        user.addProperty("content", prompt);
+        messages.add(user);
+
+        JsonObject body = new JsonObject();
+        body.addProperty("model",  "llama-3.2-instruct");
+        body.addProperty("system", VILLAGER_SYSTEM);
+        body.add("messages",      messages);
+        body.addProperty("temperature", 0.7);
+        body.addProperty("max_tokens",  4000);
+
+        JsonObject schema = new JsonObject();
+        schema.addProperty("type", "object");
+        JsonObject props = new JsonObject();
+        JsonObject def   = new JsonObject();
+        def.addProperty("type",        "string");
+        def.addProperty("description", "The AI’s chat reply");
+        props.add("answer", def);
+        schema.add("properties", props);
+        JsonArray req = new JsonArray(); req.add("answer");
+        schema.add("required", req);
+        JsonObject rf = new JsonObject();
+        rf.addProperty("type", "json_schema");
+        JsonObject js = new JsonObject();
+        js.add("schema", schema);
+        rf.add("json_schema", js);
+        body.add("response_format", rf);
+
+        return body.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
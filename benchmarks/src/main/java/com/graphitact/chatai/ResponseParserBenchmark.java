@@ -0,0 +1,107 @@
+package com.graphitact.chatai;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading proxy responses: a chat.completions body whose content is the
+ * JSON-schema answer wrapped in a string (the common case), the same with
+ * token counts read to the end, the bare {@code {"answer":…}} shape, and a
+ * batched reply for eight requests.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ResponseParserBenchmark {
+
+    private String completion;
+    private String bare;
+    private String batch;
+
+    @Setup
+    public void setup() {
+        JsonObject answer = new JsonObject();
+        answer.addProperty("answer", Samples.reply(4));
+        completion = chatCompletion(answer.toString());
+
+        bare = answer.toString();
+
+        JsonArray items = new JsonArray();
+        for (int i = 0; i < 8; i++) {
+            JsonObject item = new JsonObject();
+            item.addProperty("id", "req-" + i);
+            item.addProperty("answer", Samples.reply(i));
+            items.add(item);
+        }
+        JsonObject answers = new JsonObject();
+        answers.add("answers", items);
+        batch = chatCompletion(answers.toString());
+    }
+
+    /** An OpenAI-style response as LM Studio sends it, usage block last. */
+    private static String chatCompletion(String content) {
+        JsonObject message = new JsonObject();
+        message.addProperty("role", "assistant");
+        message.addProperty("content", content);
+        JsonObject choice = new JsonObject();
+        choice.addProperty("index", 0);
+        choice.add("message", message);
+        choice.add("logprobs", null);
+        choice.addProperty("finish_reason", "stop");
+        JsonArray choices = new JsonArray();
+        choices.add(choice);
+        JsonObject usage = new JsonObject();
+        usage.addProperty("prompt_tokens", 412);
+        usage.addProperty("completion_tokens", 57);
+        usage.addProperty("total_tokens", 469);
+        JsonObject body = new JsonObject();
+        body.addProperty("id", "chatcmpl-6h1x0k2m9q7c4v8b3n5z");
+        body.addProperty("object", "chat.completion");
+        body.addProperty("created", 1_760_000_000L);
+        body.addProperty("model", "llama-3.2-3b-instruct");
+        body.add("choices", choices);
+        body.add("usage", usage);
+        body.addProperty("system_fingerprint", "llama-3.2-3b-instruct");
+        return body.toString();
+    }
+
+    @Benchmark
+    public String answer() throws IOException {
+        return ResponseParser.answer(new StringReader(completion));
+    }
+
+    @Benchmark
+    public int answerWithUsage() throws IOException {
+        ResponseParser.Usage usage = new ResponseParser.Usage();
+        String a = ResponseParser.answer(new StringReader(completion), usage);
+        return a.length() + usage.completionTokens;
+    }
+
+    @Benchmark
+    public String answerBare() throws IOException {
+        return ResponseParser.answer(new StringReader(bare));
+    }
+
+    @Benchmark
+    public Map<String, String> batchAnswers() throws IOException {
+        return ResponseParser.answers(new StringReader(batch));
+    }
+}
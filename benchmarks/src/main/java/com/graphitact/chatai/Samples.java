@@ -0,0 +1,52 @@
+package com.graphitact.chatai;
+
+import java.util.Random;
+
+/** Deterministic sample data shared by the benchmarks. */
+final class Samples {
+    private Samples() {}
+
+    private static final String[] PLAYER_LINES = {
+        "Hi there!",
+        "Where can I find some iron around here?",
+        "I brought you the wheat you asked for, all 32 of it.",
+        "Do you know who keeps breaking the fences near the farm? It's the third time this week.",
+        "Can you tell me a story about the old village before the pillagers came?",
+        "ok thanks",
+    };
+
+    private static final String[] VILLAGER_LINES = {
+        "Hmph. Welcome, traveller.",
+        "Iron? Dig under the mountain to the east, past the river. Mind the creepers.",
+        "Well done! Thirty-two bundles — the bakers will be pleased. Here, take these emeralds.",
+        "Fences, you say? I've seen a zombie or two wander in at night. Keep a torch lit by the gate.",
+        "Long ago this valley had twice the houses and a bell you could hear from the hills. Then the "
+      + "raids began, and only the stubborn ones stayed. Like me.",
+        "Mm.",
+    };
+
+    /** {@code n} alternating user/assistant turns with realistic lengths. */
+    static ConversationHistory.Entry[] history(int n) {
+        Random rnd = new Random(42);
+        ConversationHistory.Entry[] out = new ConversationHistory.Entry[n];
+        long ts = 1_700_000_000_000L;
+        for (int i = 0; i < n; i++) {
+            boolean user = i % 2 == 0;
+            String[] pool = user ? PLAYER_LINES : VILLAGER_LINES;
+            out[i] = new ConversationHistory.Entry(
+                user ? ConversationHistory.Role.USER : ConversationHistory.Role.ASSISTANT,
+                pool[rnd.nextInt(pool.length)], ts + i * 15_000L);
+        }
+        return out;
+    }
+
+    /** Something a player might type. */
+    static String playerLine(int i) {
+        return PLAYER_LINES[Math.floorMod(i, PLAYER_LINES.length)];
+    }
+
+    /** A villager-sized reply, as the model would send it. */
+    static String reply(int i) {
+        return VILLAGER_LINES[i % VILLAGER_LINES.length];
+    }
+}
@@ -0,0 +1,87 @@
+package com.graphitact.chatai;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The clustering step of detectAndAssignVillages on synthetic villager
+ * layouts, with the plugin's 50-block village radius.
+ *
+ * <ul>
+ *   <li>villages  — groups of about 20 villagers, spread over a large map
+ *   <li>scattered — villagers uniformly over an 8000×8000 area
+ *   <li>crowded   — everyone inside a 200×200 farm, one giant village
+ * </ul>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class VillageClusterBenchmark {
+    private static final double RADIUS = 50.0;
+
+    @Param({ "100", "1000", "10000" })
+    public int villagers;
+
+    @Param({ "villages", "scattered", "crowded" })
+    public String layout;
+
+    private List<VillageClusterer.Point> points;
+
+    @Setup
+    public void setup() {
+        Random rnd = new Random(7);
+        UUID world = new UUID(0, 1);
+        points = new ArrayList<>(villagers);
+        switch (layout) {
+            case "villages" -> {
+                int villages = Math.max(1, villagers / 20);
+                double[][] centers = new double[villages][];
+                for (int v = 0; v < villages; v++) {
+                    centers[v] = new double[] { rnd.nextDouble() * 20_000 - 10_000, rnd.nextDouble() * 20_000 - 10_000 };
+                }
+                for (int i = 0; i < villagers; i++) {
+                    double[] c = centers[i % villages];
+                    points.add(point(rnd, world, c[0] + rnd.nextGaussian() * 15, c[1] + rnd.nextGaussian() * 15));
+                }
+            }
+            case "scattered" -> {
+                for (int i = 0; i < villagers; i++) {
+                    points.add(point(rnd, world, rnd.nextDouble() * 8000 - 4000, rnd.nextDouble() * 8000 - 4000));
+                }
+            }
+            case "crowded" -> {
+                for (int i = 0; i < villagers; i++) {
+                    points.add(point(rnd, world, rnd.nextDouble() * 200, rnd.nextDouble() * 200));
+                }
+            }
+            default -> throw new IllegalArgumentException(layout);
+        }
+    }
+
+    private static VillageClusterer.Point point(Random rnd, UUID world, double x, double z) {
+        return new VillageClusterer.Point(new UUID(rnd.nextLong(), rnd.nextLong()), world, x, 64 + rnd.nextInt(8), z);
+    }
+
+    @Benchmark
+    public List<List<UUID>> cluster() {
+        return VillageClusterer.cluster(points, RADIUS);
+    }
+}
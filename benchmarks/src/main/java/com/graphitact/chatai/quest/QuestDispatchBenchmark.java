@@ -0,0 +1,147 @@
+package com.graphitact.chatai.quest;
+
+import com.graphitact.chatai.quest.QuestSystem.Quest;
+import org.bukkit.Material;
+import org.bukkit.entity.EntityType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What QuestSystem does per kill and pickup event, with many open quests:
+ * the global "does any quest care" test and the per-player lookup, for
+ * event streams that mostly miss (as on a real server) and ones that all
+ * hit. Also the re-index that follows a quest changing state.
+ *
+ * The events themselves are not built: the listener only reads the entity
+ * or item type and the player's UUID from them before doing these lookups.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QuestDispatchBenchmark {
+    private static final EntityType[] QUEST_MOBS = {
+        EntityType.ZOMBIE, EntityType.SKELETON, EntityType.SPIDER, EntityType.CREEPER, EntityType.WITCH,
+    };
+    private static final Material[] QUEST_ITEMS = {
+        Material.WHEAT, Material.IRON_INGOT, Material.OAK_LOG, Material.COAL, Material.LEATHER, Material.BREAD,
+    };
+    // what actually dies / gets picked up most of the time
+    private static final EntityType[] OTHER_MOBS = {
+        EntityType.COW, EntityType.SHEEP, EntityType.CHICKEN, EntityType.PIG, EntityType.BAT, EntityType.SQUID,
+    };
+    private static final Material[] OTHER_ITEMS = {
+        Material.COBBLESTONE, Material.DIRT, Material.ROTTEN_FLESH, Material.BONE, Material.ARROW, Material.STRING,
+    };
+    private static final int EVENTS = 1024;
+
+    @Param({ "10", "100" })
+    public int players;
+
+    @Param({ "5", "50" })
+    public int questsPerPlayer;
+
+    private final QuestIndex index = new QuestIndex();
+    private final Map<UUID, Map<String, Quest>> quests = new LinkedHashMap<>();
+    private UUID[] eventPlayer;
+    private EntityType[] mixedKills, hitKills;
+    private Material[] mixedPickups;
+    private int next;
+
+    @Setup
+    public void setup() {
+        Random rnd = new Random(3);
+        List<UUID> ids = new ArrayList<>();
+        for (int p = 0; p < players; p++) {
+            UUID pid = new UUID(rnd.nextLong(), rnd.nextLong());
+            ids.add(pid);
+            Map<String, Quest> map = new LinkedHashMap<>();
+            for (int i = 0; i < questsPerPlayer; i++) {
+                Quest q = new Quest();
+                q.id     = "q" + p + "-" + i;
+                q.player = pid;
+                q.giver  = new UUID(0, i);
+                q.amount = 1 + rnd.nextInt(20);
+                if (rnd.nextBoolean()) {
+                    q.type   = Quest.Type.KILL;
+                    q.target = QUEST_MOBS[rnd.nextInt(QUEST_MOBS.length)].name().toLowerCase(Locale.ROOT);
+                } else {
+                    q.type   = Quest.Type.FETCH;
+                    q.target = QUEST_ITEMS[rnd.nextInt(QUEST_ITEMS.length)].name().toLowerCase(Locale.ROOT);
+                }
+                map.put(q.id, q);
+            }
+            quests.put(pid, map);
+            index.reindex(pid, map.values());
+        }
+
+        eventPlayer  = new UUID[EVENTS];
+        mixedKills   = new EntityType[EVENTS];
+        hitKills     = new EntityType[EVENTS];
+        mixedPickups = new Material[EVENTS];
+        for (int i = 0; i < EVENTS; i++) {
+            eventPlayer[i] = ids.get(rnd.nextInt(ids.size()));
+            // about one event in ten is something a quest might count
+            boolean quest = rnd.nextInt(10) == 0;
+            mixedKills[i]   = quest ? QUEST_MOBS[rnd.nextInt(QUEST_MOBS.length)] : OTHER_MOBS[rnd.nextInt(OTHER_MOBS.length)];
+            hitKills[i]     = QUEST_MOBS[rnd.nextInt(QUEST_MOBS.length)];
+            mixedPickups[i] = quest ? QUEST_ITEMS[rnd.nextInt(QUEST_ITEMS.length)] : OTHER_ITEMS[rnd.nextInt(OTHER_ITEMS.length)];
+        }
+    }
+
+    private int nextEvent() {
+        return next = (next + 1) & (EVENTS - 1);
+    }
+
+    private Quest kill(UUID player, EntityType type) {
+        if (!index.tracksKill(type)) return null;
+        return index.killQuest(player, type);
+    }
+
+    @Benchmark
+    public Quest killMostlyUntracked() {
+        int i = nextEvent();
+        return kill(eventPlayer[i], mixedKills[i]);
+    }
+
+    @Benchmark
+    public Quest killQuestMobs() {
+        int i = nextEvent();
+        return kill(eventPlayer[i], hitKills[i]);
+    }
+
+    @Benchmark
+    public Quest pickupMostlyUntracked() {
+        int i = nextEvent();
+        Material type = mixedPickups[i];
+        if (!index.tracksFetch(type)) return null;
+        return index.fetchQuest(eventPlayer[i], type);
+    }
+
+    /** A quest became ready to turn in or was completed: that player is re-indexed. */
+    @Benchmark
+    public void reindexOnePlayer() {
+        UUID pid = eventPlayer[nextEvent()];
+        index.reindex(pid, quests.get(pid).values());
+    }
+}
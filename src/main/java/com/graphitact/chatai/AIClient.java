@@ -2,30 +2,153 @@ package com.graphitact.chatai;
 
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
-import org.bukkit.plugin.java.JavaPlugin;
-
+import com.google.gson.stream.JsonWriter;
+import org.bukkit.plugin.Plugin;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.net.URI;
 import java.nio.charset.StandardCharsets;
 import java.time.Duration;
-import java.util.Deque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 public class AIClient {
-    private final JavaPlugin plugin;
+    /**
+     * Request class, served in strict priority order: HIGH is served first
+     * and shed last.
+     * HIGH: interactive villager conversation; NORMAL: interactive server
+     * chat; LOW: ambient event commentary and background work, dropped first
+     * when the queue gets slow, and not rate-limited per player.
+     */
+    public enum Priority { HIGH, NORMAL, LOW }
+
+    /**
+     * Whether {@link #ask} took the request or turned it away: REJECTED when
+     * the queue is full, RATE_LIMITED when the player is sending too fast.
+     * CACHED: taken, and the reply is already on its way to the main thread
+     * without asking the model.
+     */
+    public enum Admission { ACCEPTED, CACHED, REJECTED, RATE_LIMITED }
+
+    private final Plugin plugin;
+    private final Tracer tracer;
+    private final Metrics metrics;
+    private final MainThreadQueue mainThread;
     private final HttpClient http;
-    private final String proxyUrl, systemPrompt, modelName;
+    private final ExecutorService httpExecutor;
+    private final RequestEngine engine;
+    private final RateLimiter limiter;
+    private final BackendPool pool;
+    private final String systemPrompt, modelName;
+    private final RequestEnvelope envelope, batchEnvelope;
     private final double temperature;
     private final int maxTokens;
-
-    public AIClient(JavaPlugin plugin) {
+    private final Duration timeout;
+    private final boolean streamReplies;
+    private final boolean hedgeRequests;
+    private final long hedgeMinDelayMillis;
+    private final ScheduledExecutorService batchTimer;
+    private final RequestBatcher batcher;
+    private final ResponseCache cache;
+    private final ContextBudget budget;
+    private final ConversationExecutor conversations;
+    private final Map<String, ResponseCache.Mode> cacheModes = new HashMap<>();
+
+    private static final ConversationHistory.Entry[] NO_TURNS = new ConversationHistory.Entry[0];
+
+    private static final String BATCH_INSTRUCTIONS =
+        "You will receive several independent chat requests from different players as JSON. "
+      + "Each has an id, the earlier conversation with that player, and their new message. "
+      + "Reply to each one separately, as you would if it were the only request, and return "
+      + "one entry per id in \"answers\".";
+
+    public AIClient(Plugin plugin, Metrics metrics, Tracer tracer, MainThreadQueue mainThread) {
         this.plugin       = plugin;
-        this.http         = HttpClient.newHttpClient();
-        this.proxyUrl     = plugin.getConfig().getString("proxy-url", "http://localhost:3004/ai");
+        this.tracer       = tracer;
+        this.metrics      = metrics;
+        this.mainThread   = mainThread;
+        // own small pool for HTTP completions so LLM traffic never sits on Bukkit's async workers
+        AtomicInteger n   = new AtomicInteger();
+        this.httpExecutor = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "ChatAI-HTTP-" + n.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        this.http         = HttpClient.newBuilder().executor(httpExecutor).build();
+        this.engine       = new RequestEngine(
+            plugin.getConfig().getInt("max-concurrent-requests", 4),
+            plugin.getConfig().getInt("request-queue-size", 32),
+            plugin.getConfig().getLong("ambient-max-wait-ms", 5000)
+        );
+        this.limiter      = new RateLimiter(
+            plugin.getConfig().getInt("player-request-burst", 3),
+            plugin.getConfig().getDouble("player-requests-per-minute", 10)
+        );
+        this.timeout      = Duration.ofSeconds(plugin.getConfig().getInt("request-timeout-seconds", 10));
+        this.streamReplies = plugin.getConfig().getBoolean("stream-replies", false);
+        // micro-batching: 0 disables it; streamed replies are never batched
+        long batchWindow  = plugin.getConfig().getLong("batch-window-ms", 0);
+        if (batchWindow > 0 && !streamReplies) {
+            this.batchTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "ChatAI-Batch");
+                t.setDaemon(true);
+                return t;
+            });
+            this.batcher = new RequestBatcher(batchWindow,
+                plugin.getConfig().getInt("batch-max-size", 8), batchTimer, this::flushBatch);
+        } else {
+            this.batchTimer = null;
+            this.batcher    = null;
+        }
+        this.cache        = new ResponseCache(
+            plugin.getConfig().getInt("response-cache-size", 256),
+            plugin.getConfig().getLong("response-cache-ttl-seconds", 1800) * 1000L,
+            plugin.getConfig().getInt("response-cache-variants", 4)
+        );
+        this.conversations = new ConversationExecutor(plugin.getConfig().getInt("conversation-queue-size", 4));
+        this.budget       = new ContextBudget(plugin.getConfig().getInt("context-token-budget", 1500));
+        var modes = plugin.getConfig().getConfigurationSection("cached-events");
+        if (modes != null) {
+            for (String event : modes.getKeys(false)) {
+                cacheModes.put(event.toLowerCase(), ResponseCache.Mode.parse(modes.getString(event, "off")));
+            }
+        }
+        // proxy-urls lists every backend; a lone proxy-url still works
+        List<URI> urls = new ArrayList<>();
+        for (String u : plugin.getConfig().getStringList("proxy-urls")) urls.add(URI.create(u.strip()));
+        if (urls.isEmpty()) {
+            urls.add(URI.create(plugin.getConfig().getString("proxy-url", "http://localhost:3004/ai")));
+        }
+        this.pool         = new BackendPool(urls,
+            BackendPool.Routing.parse(plugin.getConfig().getString("backend-routing", "least-outstanding")),
+            plugin.getConfig().getInt("backend-failure-threshold", 3),
+            plugin.getConfig().getLong("backend-cooldown-seconds", 30) * 1000L,
+            plugin.getConfig().getLong("backend-probe-seconds", 10) * 1000L,
+            http);
+        this.hedgeRequests       = plugin.getConfig().getBoolean("hedge-requests", false) && urls.size() > 1;
+        this.hedgeMinDelayMillis = plugin.getConfig().getLong("hedge-min-delay-ms", 1000);
         this.systemPrompt = plugin.getConfig()
                               .getString("system-prompt", "")
                               .strip();
@@ -41,249 +164,653 @@ public class AIClient {
         if (this.systemPrompt.isEmpty()) {
             plugin.getLogger().warning("system-prompt is blank — LM proxy will reject!");
         }
+        // static parts of every request body, serialized once
+        this.envelope      = new RequestEnvelope(modelName, temperature, maxTokens,
+            streamReplies, responseFormat(answerSchema()), systemPrompt);
+        this.batchEnvelope = new RequestEnvelope(modelName, temperature, maxTokens,
+            false, responseFormat(batchSchema()), systemPrompt);
+
+        metrics.gauge("chatai_requests_in_flight", "Requests currently at the model", engine::inFlight);
+        metrics.gauge("chatai_requests_queued", "Requests waiting for a slot", engine::queued);
+        metrics.gauge("chatai_queue_latency_ms", "Wait of the longest-queued request", engine::queueLatencyMillis);
+        metrics.gauge("chatai_conversations_active", "Conversations with a step in progress", conversations::active);
+        metrics.gauge("chatai_cache_hits_total", "Event replies served from the cache", cache::hits);
+        metrics.gauge("chatai_cache_misses_total", "Event replies that went to the model", cache::misses);
+        metrics.gauge("chatai_cache_entries", "Cached event templates", cache::size);
     }
 
     /**
      * Send a chat request to LM studio
      * @param playerId   who to store history under (or null for one-shots)
-     * @param history    last N messages, may be empty
+     * @param history    earlier turns, may be empty; the prompt (as a user turn) and
+     *                   the reply are appended to it
      * @param prompt     what the “user” says
-     * @param callback   runs on the main thread with the AI’s clean reply
+     * @param priority   queue position while waiting for a free slot
+     * @param onChunk    runs on the main thread with the reply text to show, in order:
+     *                   one piece normally, sentence by sentence with stream-replies on
+     * @param callback   runs on the main thread once with the AI’s complete clean reply
+     *                   ("" on failure, or if the request was shed from the queue)
+     * @return REJECTED if the queue was full, RATE_LIMITED if the player is
+     *         sending too fast; neither consumer will run then
      */
-    public void ask(UUID playerId,
-                    Deque<String> history,
-                    String prompt,
-                    Consumer<String> callback)
+    public Admission ask(UUID playerId,
+                         ConversationHistory history,
+                         String prompt,
+                         Priority priority,
+                         Consumer<String> onChunk,
+                         Consumer<String> callback)
     {
-        plugin.getServer().getScheduler().runTaskAsynchronously(plugin, () -> {
-            try {
-                // 1) build messages array
-                JsonArray messages = new JsonArray();
-                for (String e : history) {
-                    JsonObject m = new JsonObject();
-                    boolean asst = e.startsWith("Assistant:");
-                    m.addProperty("role",    asst ? "assistant" : "user");
-                    m.addProperty("content", e.substring(e.indexOf(':') + 2));
-                    messages.add(m);
-                }
-                JsonObject user = new JsonObject();
-                user.addProperty("role",    "user");
-                user.addProperty("content", prompt);
-                messages.add(user);
-
-                // 2) envelope for LM Studio
-                JsonObject body = new JsonObject();
-                body.addProperty("model",  modelName);
-                body.addProperty("system", systemPrompt);
-                body.add("messages",      messages);
-                body.addProperty("temperature", temperature);
-                body.addProperty("max_tokens",   maxTokens);
-
-                // 3) JSON-schema → { answer: string }
-                JsonObject schema = new JsonObject();
-                schema.addProperty("type", "object");
-                JsonObject props = new JsonObject();
-                JsonObject def   = new JsonObject();
-                def.addProperty("type",        "string");
-                def.addProperty("description", "The AI’s chat reply");
-                props.add("answer", def);
-                schema.add("properties", props);
-                JsonArray req = new JsonArray(); req.add("answer");
-                schema.add("required", req);
-
-                JsonObject rf = new JsonObject();
-                rf.addProperty("type", "json_schema");
-                JsonObject js = new JsonObject();
-                js.add("schema", schema);
-                rf.add("json_schema", js);
-                body.add("response_format", rf);
-
-                String out = body.toString();
-                plugin.getLogger().info("[ChatAI] ▶ " + out);
-
-                // 4) HTTP POST
-                HttpRequest request = HttpRequest.newBuilder()
-                    .uri(URI.create(proxyUrl))
-                    .timeout(Duration.ofSeconds(10))
-                    .header("Content-Type", "application/json")
-                    .POST(HttpRequest.BodyPublishers.ofString(out, StandardCharsets.UTF_8))
-                    .build();
-                HttpResponse<String> resp = http.send(request, HttpResponse.BodyHandlers.ofString());
-                String raw = resp.body();
-                plugin.getLogger().info("[ChatAI] ◀ " + raw);
-
-                // 5) parse
-                String answer = parse(raw);
-
-                // 6) record history
+        return askWithSystem(playerId, history, prompt, systemPrompt, priority, onChunk, callback);
+    }
+
+ /**
+   * Like ask(...), but override the system prompt per request.
+   */
+  public Admission askWithSystem(UUID playerId,
+                                 ConversationHistory history,
+                                 String prompt,
+                                 String overrideSystem,
+                                 Priority priority,
+                                 Consumer<String> onChunk,
+                                 Consumer<String> callback)
+  {
+      if (overLimit(playerId, priority)) return counted(priority, Admission.RATE_LIMITED);
+      return greet(playerId, history, prompt, overrideSystem, priority, onChunk, callback);
+  }
+
+ /**
+   * Like askWithSystem(...), for the greeting when a villager conversation
+   * opens: the player didn't type it, so it doesn't count against their rate
+   * limit.
+   */
+  public Admission greet(UUID playerId,
+                         ConversationHistory history,
+                         String prompt,
+                         String overrideSystem,
+                         Priority priority,
+                         Consumer<String> onChunk,
+                         Consumer<String> callback)
+  {
+      return counted(priority, converse(playerId, history, ConversationHistory.Role.USER, prompt, callback,
+          (turns, cb) -> submit(new RequestBatcher.Pending(
+              playerId, history, turns, prompt, overrideSystem, priority, onChunk, cb))));
+  }
+
+    /**
+     * Like ask(...), for templated server events; the filled-in prompt is
+     * recorded as a system turn. Depending on the event's cached-events mode
+     * a cached reply (with {0}, {1}… re-filled from {@code slots}) may be
+     * served without touching the model. Event comments share one history
+     * but not one conversation: each is sent at once rather than waiting for
+     * the previous one's reply, so only the request queue bounds them.
+     * @param event     event type, as named under cached-events in config.yml
+     * @param template  prompt with {0}, {1}… where the slot values go
+     * @return as for ask(...), or CACHED if the reply came from the cache
+     */
+    public Admission askEvent(String event,
+                              UUID playerId,
+                              ConversationHistory history,
+                              String template,
+                              String[] slots,
+                              Priority priority,
+                              Consumer<String> onChunk,
+                              Consumer<String> callback)
+    {
+        if (overLimit(playerId, priority)) return counted(priority, Admission.RATE_LIMITED);
+        String prompt = ResponseCache.fill(template, slots);
+        ResponseCache.Mode mode = cacheModes.getOrDefault(event, ResponseCache.Mode.OFF);
+        if (mode == ResponseCache.Mode.OFF) {
+            return counted(priority, remark(playerId, history, prompt, callback,
+                (turns, cb) -> submit(new RequestBatcher.Pending(
+                    playerId, history, turns, prompt, systemPrompt, priority, onChunk, cb))));
+        }
+
+        long key = ResponseCache.key(systemPrompt, template);
+        boolean reuse = mode == ResponseCache.Mode.ALWAYS ? cache.isFull(key) : isBusy();
+        String cached = reuse ? cache.pick(key, slots) : null;
+        if (cached != null) {
+            return counted(priority, remark(playerId, history, prompt, callback, (turns, cb) -> {
                 if (playerId != null) {
-                    history.addLast("Assistant: " + answer);
-                    if (history.size() > 6) history.removeFirst();
+                    history.add(ConversationHistory.Role.ASSISTANT, cached);
                 }
+                mainThread.post(() -> {
+                    onChunk.accept(cached);
+                    cb.accept(cached);
+                });
+                return Admission.CACHED;
+            }));
+        }
+        if (!reuse) cache.miss();
+        return counted(priority, remark(playerId, history, prompt, callback,
+            (turns, cb) -> submit(new RequestBatcher.Pending(
+                playerId, history, turns, prompt, systemPrompt, priority, onChunk, reply -> {
+                    if (!reply.isBlank()) cache.put(key, reply, slots);
+                    cb.accept(reply);
+                }))));
+    }
 
-                // 7) deliver on main thread
-                plugin.getServer().getScheduler().runTask(plugin, () ->
-                    callback.accept(answer)
-                );
+    private Admission counted(Priority priority, Admission a) {
+        if (a == Admission.REJECTED || a == Admission.RATE_LIMITED) metrics.rejected(priority);
+        return a;
+    }
 
-            } catch (Exception ex) {
-                plugin.getLogger().warning("AI proxy failed: " + ex.getMessage());
-                plugin.getServer().getScheduler().runTask(plugin, () ->
-                    callback.accept("")
-                );
+    /** Interactive requests count against the player's token bucket; ambient ones don't. */
+    private boolean overLimit(UUID playerId, Priority priority) {
+        return playerId != null && priority != Priority.LOW && !limiter.tryAcquire(playerId);
+    }
+
+    /** Sends one conversation step, given the turns before it and the callback to finish it with. */
+    private interface Sender {
+        Admission send(ConversationHistory.Entry[] turns, Consumer<String> callback);
+    }
+
+    /**
+     * Run one exchange as a step of the player's conversation: steps of one
+     * conversation go strictly one at a time, so the prompt turn, the reply
+     * and the next prompt land in history in order, and each request sees
+     * every earlier reply. One-shots ({@code playerId == null}) just send.
+     */
+    private Admission converse(UUID playerId,
+                               ConversationHistory history,
+                               ConversationHistory.Role role,
+                               String prompt,
+                               Consumer<String> callback,
+                               Sender sender)
+    {
+        if (playerId == null) return sender.send(history.toArray(), callback);
+        return conversations.submit(playerId, (done, deferred) -> {
+            ConversationHistory.Entry[] turns = history.toArray();
+            history.add(role, prompt);
+            Admission a = sender.send(turns, reply -> {
+                done.run();
+                callback.accept(reply);
+            });
+            if (a == Admission.REJECTED) {
+                done.run();
+                // the caller was told ACCEPTED when the step was queued
+                if (deferred) deliverEmpty(callback);
             }
+            return a;
         });
     }
 
- /**
-   * Like ask(...), but override the system prompt per request.
-   */
-  public void askWithSystem(UUID playerId,
-                            Deque<String> history,
-                            String prompt,
-                            String overrideSystem,
-                            Consumer<String> callback)
-  {
-      plugin.getServer().getScheduler().runTaskAsynchronously(plugin, () -> {
-          try {
-              // 1) build messages array (same as ask)
-              JsonArray messages = new JsonArray();
-              for (String e : history) {
-                  JsonObject m = new JsonObject();
-                  boolean asst = e.startsWith("Assistant:");
-                  m.addProperty("role",    asst ? "assistant" : "user");
-                  m.addProperty("content", e.substring(e.indexOf(':') + 2));
-                  messages.add(m);
-              }
-              JsonObject user = new JsonObject();
-              user.addProperty("role",    "user");
-              user.addProperty("content", prompt);
-              messages.add(user);
-
-              // 2) envelope, but use overrideSystem
-              JsonObject body = new JsonObject();
-              body.addProperty("model",       modelName);
-              body.addProperty("system",      overrideSystem);
-              body.add("messages",           messages);
-              body.addProperty("temperature", temperature);
-              body.addProperty("max_tokens",  maxTokens);
-
-              // 3) same JSON-schema block
-              JsonObject schema = new JsonObject();
-              schema.addProperty("type", "object");
-              JsonObject props = new JsonObject();
-              JsonObject def   = new JsonObject();
-              def.addProperty("type",        "string");
-              def.addProperty("description", "The AI’s chat reply");
-              props.add("answer", def);
-              schema.add("properties", props);
-              JsonArray req = new JsonArray(); req.add("answer");
-              schema.add("required", req);
-
-              JsonObject rf = new JsonObject();
-              rf.addProperty("type", "json_schema");
-              JsonObject js = new JsonObject();
-              js.add("schema", schema);
-              rf.add("json_schema", js);
-              body.add("response_format", rf);
-
-              String out = body.toString();
-              plugin.getLogger().info("[ChatAI] ▶ " + out);
-
-              // 4) HTTP call
-              HttpRequest request = HttpRequest.newBuilder()
-                  .uri(URI.create(proxyUrl))
-                  .timeout(Duration.ofSeconds(10))
-                  .header("Content-Type","application/json")
-                  .POST(HttpRequest.BodyPublishers.ofString(out, StandardCharsets.UTF_8))
-                  .build();
-              HttpResponse<String> resp = http.send(request, HttpResponse.BodyHandlers.ofString());
-              String raw = resp.body();
-              plugin.getLogger().info("[ChatAI] ◀ " + raw);
-
-              // 5) parse & record history if needed
-              String answer = parse(raw);
-              if (playerId != null) {
-                  history.addLast("Assistant: " + answer);
-                  if (history.size() > 6) history.removeFirst();
-              }
-
-              // 6) callback on main thread
-              plugin.getServer().getScheduler().runTask(plugin, () ->
-                  callback.accept(answer)
-              );
-
-          } catch (Exception ex) {
-              plugin.getLogger().warning("AI proxy failed: " + ex.getMessage());
-              plugin.getServer().getScheduler().runTask(plugin, () ->
-                  callback.accept("")
-              );
-          }
-      });
-  }
+    /**
+     * Send one event comment at once: its prompt goes into the shared
+     * history as a system turn, but it does not wait in that history's
+     * conversation for earlier comments to be answered.
+     */
+    private Admission remark(UUID playerId,
+                             ConversationHistory history,
+                             String prompt,
+                             Consumer<String> callback,
+                             Sender sender)
+    {
+        ConversationHistory.Entry[] turns = history.toArray();
+        if (playerId != null) history.add(ConversationHistory.Role.SYSTEM, prompt);
+        return sender.send(turns, callback);
+    }
 
-    private String parse(String body) {
-    JsonObject root = JsonParser.parseString(body).getAsJsonObject();
+    private Admission submit(RequestBatcher.Pending p) {
+        if (batcher != null) {
+            // admission happens when the batch is flushed; a full queue then
+            // reaches the caller as an empty reply
+            batcher.offer(p);
+            return Admission.ACCEPTED;
+        }
+        return submitSingle(p);
+    }
+
+    private Admission submitSingle(RequestBatcher.Pending p) {
+        return engine.submit(p.priority, job(p.priority, p.onChunk, p.callback,
+            () -> envelope.render(p.system, budget.fit(p.system, p.turns, p.prompt), p.prompt),
+            p.playerId, p.history, p.prompt));
+    }
+
+    /** {@code {"type":"json_schema","json_schema":{"schema": schema}}} */
+    private static JsonObject responseFormat(JsonObject schema) {
+        JsonObject rf = new JsonObject();
+        rf.addProperty("type", "json_schema");
+        JsonObject js = new JsonObject();
+        js.add("schema", schema);
+        rf.add("json_schema", js);
+        return rf;
+    }
+
+    /** JSON-schema → { answer: string } */
+    private static JsonObject answerSchema() {
+        JsonObject schema = new JsonObject();
+        schema.addProperty("type", "object");
+        JsonObject props = new JsonObject();
+        JsonObject def   = new JsonObject();
+        def.addProperty("type",        "string");
+        def.addProperty("description", "The AI’s chat reply");
+        props.add("answer", def);
+        schema.add("properties", props);
+        JsonArray req = new JsonArray(); req.add("answer");
+        schema.add("required", req);
+        return schema;
+    }
 
-    // 1) Top-level error
-    if (root.has("error")) {
-        return "";
+    /** JSON-schema → { answers: [ { id, answer } ] } */
+    private static JsonObject batchSchema() {
+        JsonObject item = new JsonObject();
+        item.addProperty("type", "object");
+        JsonObject itemProps = new JsonObject();
+        JsonObject idDef = new JsonObject();
+        idDef.addProperty("type", "string");
+        itemProps.add("id", idDef);
+        JsonObject ansDef = new JsonObject();
+        ansDef.addProperty("type",        "string");
+        ansDef.addProperty("description", "The AI’s chat reply to that request");
+        itemProps.add("answer", ansDef);
+        item.add("properties", itemProps);
+        JsonArray itemReq = new JsonArray(); itemReq.add("id"); itemReq.add("answer");
+        item.add("required", itemReq);
+
+        JsonObject answers = new JsonObject();
+        answers.addProperty("type", "array");
+        answers.add("items", item);
+        JsonObject props = new JsonObject();
+        props.add("answers", answers);
+        JsonObject schema = new JsonObject();
+        schema.addProperty("type", "object");
+        schema.add("properties", props);
+        JsonArray req = new JsonArray(); req.add("answers");
+        schema.add("required", req);
+        return schema;
     }
 
-    // 2) JSON-schema top-level: { "answer": "…" }
-    if (root.has("answer")) {
-        return root.get("answer").getAsString();
+    /**
+     * Batched body: the shared system prompt is sent once, followed by every
+     * caller's request (with its own short history) as one JSON user message.
+     * The schema asks for {@code {answers: [{id, answer}]}} so replies can be
+     * routed back by id.
+     */
+    private byte[] buildBatchBody(List<RequestBatcher.Pending> batch) {
+        String system = batch.get(0).system + "\n\n" + BATCH_INSTRUCTIONS;
+        // callers split what the shared system prompt leaves of the budget
+        int share = (budget.maxTokens() - ContextBudget.estimate(system)) / batch.size();
+        StringWriter requests = new StringWriter(512 * batch.size());
+        try {
+            JsonWriter w = new JsonWriter(requests);
+            w.beginObject();
+            w.name("requests").beginArray();
+            for (int i = 0; i < batch.size(); i++) {
+                RequestBatcher.Pending p = batch.get(i);
+                w.beginObject();
+                w.name("id").value(String.valueOf(i + 1));
+                w.name("conversation").beginArray();
+                for (ConversationHistory.Entry e : budget.fit(share, p.turns, p.prompt)) {
+                    w.beginObject();
+                    w.name("role").value(e.role().apiRole());
+                    w.name("content").value(e.text());
+                    w.endObject();
+                }
+                w.endArray();
+                w.name("message").value(p.prompt);
+                w.endObject();
+            }
+            w.endArray();
+            w.endObject();
+            w.flush();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        return batchEnvelope.render(
+            system,
+            NO_TURNS,
+            requests.toString()
+        );
     }
 
-    // 3) choices[].data.answer (new LM Studio style)
-    if (root.has("choices")) {
-        var arr = root.getAsJsonArray("choices");
-        if (!arr.isEmpty()) {
-            JsonObject first = arr.get(0).getAsJsonObject();
-
-            // new style: { choices:[{ data:{ answer } }] }
-            if (first.has("data")) {
-                JsonObject data = first.getAsJsonObject("data");
-                if (data.has("answer")) {
-                    return data.get("answer").getAsString();
+    /** Send a closed batch as one request (or as a plain one if it holds a single caller). */
+    private void flushBatch(List<RequestBatcher.Pending> batch) {
+        if (batch.size() == 1) {
+            RequestBatcher.Pending p = batch.get(0);
+            if (submitSingle(p) == Admission.REJECTED) deliverEmpty(p.callback);
+            return;
+        }
+        Priority top = Priority.LOW;
+        for (RequestBatcher.Pending p : batch) {
+            if (p.priority.ordinal() < top.ordinal()) top = p.priority;
+        }
+        Priority cls = top;
+        Admission a = engine.submit(top, new RequestEngine.Job() {
+            @Override
+            public void start(Runnable done) {
+                Metrics.Timer timer = metrics.start(cls);
+                byte[] out;
+                try {
+                    out = buildBatchBody(batch);
+                } catch (RuntimeException ex) {
+                    done.run();
+                    timer.failure(ex);
+                    batch.forEach(p -> fail(p.callback, ex));
+                    return;
+                }
+                List<UUID> players = new ArrayList<>(batch.size());
+                StringBuilder prompts = new StringBuilder();
+                for (RequestBatcher.Pending p : batch) {
+                    players.add(p.playerId);
+                    if (prompts.length() > 0) prompts.append(" | ");
+                    prompts.append(p.prompt);
                 }
+                Tracer.Trace trace = tracer.begin(cls, "batch of " + batch.size(), players, prompts.toString(), out);
+                ResponseParser.Usage usage = new ResponseParser.Usage();
+                exchange(out, timer, resp -> readAnswers(resp, usage))
+                    .whenComplete((answers, err) -> {
+                        done.run();
+                        if (err != null) {
+                            timer.failure(err);
+                            tracer.end(trace, null, err);
+                            batch.forEach(p -> fail(p.callback, err));
+                            return;
+                        }
+                        timer.success(usage);
+                        tracer.end(trace, answers.toString(), null);
+                        // fan the answers back out to each caller
+                        for (int i = 0; i < batch.size(); i++) {
+                            RequestBatcher.Pending p = batch.get(i);
+                            String answer = answers.getOrDefault(String.valueOf(i + 1), "");
+                            if (p.playerId != null && !answer.isEmpty()) {
+                                p.history.add(ConversationHistory.Role.ASSISTANT, answer);
+                            }
+                            mainThread.post(() -> {
+                                if (!answer.isBlank()) p.onChunk.accept(answer);
+                                p.callback.accept(answer);
+                            });
+                        }
+                    });
+            }
+
+            @Override
+            public void drop() {
+                metrics.shed(cls);
+                batch.forEach(p -> deliverEmpty(p.callback));
             }
+        });
+        if (a == Admission.REJECTED) batch.forEach(p -> deliverEmpty(p.callback));
+    }
 
-            // OpenAI-style chat.completions: choices[].message.content
-            if (first.has("message")) {
-                JsonObject msg = first.getAsJsonObject("message");
-                if (msg.has("content")) {
-                    String raw = msg.get("content").getAsString().trim();
+    private HttpRequest post(URI uri, byte[] body) {
+        return HttpRequest.newBuilder()
+            .uri(uri)
+            .timeout(timeout)
+            .header("Content-Type", "application/json")
+            .POST(HttpRequest.BodyPublishers.ofByteArray(body))
+            .build();
+    }
 
-                    // if the LLM actually wrapped our JSON-schema in a string, unwrap it:
-                    if (raw.startsWith("{") && raw.endsWith("}")) {
+    /**
+     * Wrap one proxy round trip as an engine job: the body is built when a
+     * slot frees up, sent with sendAsync, and the slot is released as soon as
+     * the response (or failure) arrives — no thread waits on the socket.
+     */
+    private RequestEngine.Job job(Priority priority,
+                                  Consumer<String> onChunk,
+                                  Consumer<String> callback,
+                                  Supplier<byte[]> bodySupplier,
+                                  UUID playerId,
+                                  ConversationHistory history,
+                                  String prompt)
+    {
+        return new RequestEngine.Job() {
+            @Override
+            public void start(Runnable done) {
+                Metrics.Timer timer = metrics.start(priority);
+                byte[] out;
+                try {
+                    out = bodySupplier.get();
+                } catch (RuntimeException ex) {
+                    done.run();
+                    timer.failure(ex);
+                    fail(callback, ex);
+                    return;
+                }
+                Tracer.Trace trace = tracer.begin(priority, streamReplies ? "streamed" : "single",
+                    Collections.singletonList(playerId), prompt, out);
+
+                // HTTP POST
+                if (streamReplies) {
+                    stream(out, done, timer, trace, playerId, history, onChunk, callback);
+                    return;
+                }
+                ResponseParser.Usage usage = new ResponseParser.Usage();
+                exchange(out, timer, resp -> readAnswer(resp, usage))
+                    .whenComplete((answer, err) -> {
+                        done.run();
+                        if (err != null) {
+                            timer.failure(err);
+                            tracer.end(trace, null, err);
+                            fail(callback, err);
+                            return;
+                        }
+                        timer.success(usage);
+                        tracer.end(trace, answer, null);
                         try {
-                            JsonObject inner = JsonParser.parseString(raw).getAsJsonObject();
-                            if (inner.has("answer")) {
-                                return inner.get("answer").getAsString();
+                            // record history if needed
+                            if (playerId != null) {
+                                history.add(ConversationHistory.Role.ASSISTANT, answer);
                             }
-                        } catch (Exception ignored) { /* fall through to return raw */ }
-                    }
 
-                    // otherwise just return the plain content
-                    return raw;
+                            // deliver on main thread
+                            mainThread.post(() -> {
+                                if (!answer.isBlank()) onChunk.accept(answer);
+                                callback.accept(answer);
+                            });
+                        } catch (Exception ex) {
+                            fail(callback, ex);
+                        }
+                    });
+            }
+
+            @Override
+            public void drop() {
+                metrics.shed(priority);
+                plugin.getLogger().fine("[ChatAI] request shed from full queue");
+                deliverEmpty(callback);
+            }
+        };
+    }
+
+    /**
+     * Streaming variant of the round trip: SSE lines are decoded as they
+     * arrive and each finished sentence group goes straight to the main
+     * thread, so the first words show up long before generation ends.
+     * History still gets exactly one entry with the complete reply.
+     */
+    private void stream(byte[] body,
+                        Runnable done,
+                        Metrics.Timer timer,
+                        Tracer.Trace trace,
+                        UUID playerId,
+                        ConversationHistory history,
+                        Consumer<String> onChunk,
+                        Consumer<String> callback)
+    {
+        ResponseParser.Usage usage = new ResponseParser.Usage();
+        SseReplySubscriber sse = new SseReplySubscriber(
+            chunk -> mainThread.post(() ->
+                onChunk.accept(chunk)
+            ),
+            timer::firstByte,
+            usage,
+            raw -> {
+                try {
+                    return ResponseParser.answer(new StringReader(raw), usage);
+                } catch (IOException | RuntimeException ex) {
+                    return "";
                 }
             }
+        );
+        BackendPool.Lease backend = pool.acquire(null);
+        if (backend == null) {
+            done.run();
+            IOException ex = new IOException("no AI backend available, all circuits open");
+            timer.failure(ex);
+            tracer.end(trace, null, ex);
+            fail(callback, ex);
+            return;
+        }
+        long start = System.nanoTime();
+        http.sendAsync(post(backend.backend().uri, body), HttpResponse.BodyHandlers.fromLineSubscriber(sse))
+            .whenComplete((resp, err) -> {
+                done.run();
+                if (err == null && resp.statusCode() >= 500) {
+                    err = new IOException("HTTP " + resp.statusCode() + " from " + backend.backend());
+                }
+                if (err != null) {
+                    pool.failure(backend);
+                    timer.failure(err);
+                    tracer.end(trace, sse.answer(), err);
+                    fail(callback, err);
+                    return;
+                }
+                pool.success(backend, (System.nanoTime() - start) / 1_000_000);
+                timer.success(usage);
+                String answer = sse.answer();
+                tracer.end(trace, answer, null);
+                if (playerId != null) {
+                    history.add(ConversationHistory.Role.ASSISTANT, answer);
+                }
+                mainThread.post(() ->
+                    callback.accept(answer)
+                );
+            });
+    }
 
-            // legacy OpenAI "text" field
-            if (first.has("text")) {
-                return first.get("text").getAsString();
+    /**
+     * POST {@code body} to the best backend and parse the response. With
+     * hedge-requests on, a request still running after the backend's p95
+     * latency is sent to a second backend as well; the first answer wins and
+     * the other exchange is cancelled. Fails only once every attempt failed.
+     */
+    private <T> CompletableFuture<T> exchange(byte[] body,
+                                              Metrics.Timer timer,
+                                              Function<HttpResponse<InputStream>, T> parse)
+    {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        BackendPool.Lease primary = pool.acquire(null);
+        if (primary == null) {
+            result.completeExceptionally(new IOException("no AI backend available, all circuits open"));
+            return result;
+        }
+        AtomicInteger live = new AtomicInteger(1);
+        CompletableFuture<?> first = attempt(primary, body, timer, parse, result, live);
+        if (!hedgeRequests) return result;
+
+        long delay = Math.max(hedgeMinDelayMillis, primary.backend().p95Millis());
+        CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS, httpExecutor).execute(() -> {
+            if (result.isDone()) return;
+            BackendPool.Lease second = pool.acquire(primary.backend());
+            if (second == null) return;
+            // join before sending, and never once live has hit 0: the result is failing then
+            if (live.getAndUpdate(n -> n == 0 ? 0 : n + 1) == 0) {
+                pool.abandoned(second);
+                return;
+            }
+            // the first attempt may have won in the meantime
+            if (result.isDone()) {
+                live.decrementAndGet();
+                pool.abandoned(second);
+                return;
             }
+            CompletableFuture<?> hedge = attempt(second, body, timer, parse, result, live);
+            result.whenComplete((v, err) -> {
+                first.cancel(true);
+                hedge.cancel(true);
+            });
+        });
+        return result;
+    }
+
+    /** One send to one backend; reports to the pool and completes {@code result} on success. */
+    private <T> CompletableFuture<?> attempt(BackendPool.Lease backend,
+                                             byte[] body,
+                                             Metrics.Timer timer,
+                                             Function<HttpResponse<InputStream>, T> parse,
+                                             CompletableFuture<T> result,
+                                             AtomicInteger live)
+    {
+        long start = System.nanoTime();
+        CompletableFuture<HttpResponse<InputStream>> sent =
+            http.sendAsync(post(backend.backend().uri, body), HttpResponse.BodyHandlers.ofInputStream());
+        // headers are in: the model has started answering
+        sent.thenRun(timer::firstByte);
+        sent.thenApplyAsync(resp -> parse.apply(checkStatus(resp, backend.backend())), httpExecutor)
+            .whenComplete((value, err) -> {
+                if (err == null) {
+                    pool.success(backend, (System.nanoTime() - start) / 1_000_000);
+                    result.complete(value);
+                    return;
+                }
+                // cancelled because the other attempt already won
+                if (result.isDone()) pool.abandoned(backend);
+                else pool.failure(backend);
+                if (live.decrementAndGet() == 0) result.completeExceptionally(err);
+            });
+        return sent;
+    }
+
+    /** Server errors count against the backend instead of being parsed as an empty reply. */
+    private static HttpResponse<InputStream> checkStatus(HttpResponse<InputStream> resp, BackendPool.Backend backend) {
+        if (resp.statusCode() < 500) return resp;
+        try {
+            resp.body().close();
+        } catch (IOException ignored) {
+            // failing anyway
         }
+        throw new UncheckedIOException(new IOException("HTTP " + resp.statusCode() + " from " + backend));
     }
 
-    // 4) LM Studio legacy
-    if (root.has("response")) {
-        return root.get("response").getAsString();
+    private void fail(Consumer<String> callback, Throwable ex) {
+        plugin.getLogger().warning("AI proxy failed: " + ex.getMessage());
+        deliverEmpty(callback);
     }
 
-    // nothing matched — avoid dumping JSON
-    return "";
-}
+    private void deliverEmpty(Consumer<String> callback) {
+        if (!plugin.isEnabled()) return;
+        mainThread.post(() ->
+            callback.accept("")
+        );
+    }
+
+    /** The prompt-token budget requests are fitted to. */
+    ContextBudget budget() {
+        return budget;
+    }
+
+    /** True when every slot is busy and new requests would have to queue. */
+    public boolean isBusy() {
+        return engine.saturated();
+    }
 
+    /** Drop queued requests and stop the HTTP pool; call from onDisable. */
+    public void shutdown() {
+        engine.close();
+        pool.close();
+        if (batcher != null) {
+            // closed engine rejects these, so nothing new goes out
+            batchTimer.shutdownNow();
+            batcher.flushAll();
+        }
+        httpExecutor.shutdownNow();
+    }
+
+    /** Parse the reply straight off the response stream (blocking; runs on the HTTP pool). */
+    private static String readAnswer(HttpResponse<InputStream> resp, ResponseParser.Usage usage) {
+        try (Reader body = new InputStreamReader(resp.body(), StandardCharsets.UTF_8)) {
+            return ResponseParser.answer(body, usage);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private static Map<String, String> readAnswers(HttpResponse<InputStream> resp, ResponseParser.Usage usage) {
+        try (Reader body = new InputStreamReader(resp.body(), StandardCharsets.UTF_8)) {
+            return ResponseParser.answers(body, usage);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
 }
@@ -0,0 +1,87 @@
+package com.graphitact.chatai;
+
+/**
+ * Incrementally pulls the reply text out of streamed model output.
+ *
+ * Under our JSON-schema the model streams {@code {"answer": "..."}} one token
+ * at a time, so the raw deltas must not reach chat as-is. This decoder skips
+ * to the {@code answer} string value and un-escapes it as it arrives. Output
+ * that does not start with '{' is passed through untouched.
+ */
+final class AnswerStreamDecoder {
+    private enum State { DETECT, PLAIN, SEEK_KEY, IN_VALUE, ESCAPE, UNICODE, DONE }
+
+    private State state = State.DETECT;
+    // raw JSON seen while looking for "answer": "
+    private final StringBuilder seek = new StringBuilder();
+    private final StringBuilder unicode = new StringBuilder(4);
+
+    /** Feed the next raw delta; returns any newly decoded reply text (maybe ""). */
+    String feed(String delta) {
+        StringBuilder out = new StringBuilder(delta.length());
+        for (int i = 0; i < delta.length(); i++) {
+            char c = delta.charAt(i);
+            switch (state) {
+                case DETECT -> {
+                    if (Character.isWhitespace(c)) continue;
+                    if (c == '{') {
+                        state = State.SEEK_KEY;
+                        seek.append(c);
+                    } else {
+                        state = State.PLAIN;
+                        out.append(c);
+                    }
+                }
+                case PLAIN -> out.append(c);
+                case SEEK_KEY -> {
+                    seek.append(c);
+                    if (c == '"' && valueStarts()) {
+                        state = State.IN_VALUE;
+                        seek.setLength(0);
+                    }
+                }
+                case IN_VALUE -> {
+                    if (c == '\\') state = State.ESCAPE;
+                    else if (c == '"') state = State.DONE;
+                    else out.append(c);
+                }
+                case ESCAPE -> {
+                    state = State.IN_VALUE;
+                    switch (c) {
+                        case 'n' -> out.append('\n');
+                        case 't' -> out.append('\t');
+                        case 'r' -> out.append('\r');
+                        case 'b' -> out.append('\b');
+                        case 'f' -> out.append('\f');
+                        case 'u' -> { state = State.UNICODE; unicode.setLength(0); }
+                        default  -> out.append(c); // \" \\ \/
+                    }
+                }
+                case UNICODE -> {
+                    unicode.append(c);
+                    if (unicode.length() == 4) {
+                        try {
+                            out.append((char) Integer.parseInt(unicode.toString(), 16));
+                        } catch (NumberFormatException ignored) { /* drop a broken escape */ }
+                        state = State.IN_VALUE;
+                    }
+                }
+                case DONE -> { return out.toString(); }
+            }
+        }
+        return out.toString();
+    }
+
+    /** True once the buffered JSON ends in {@code "answer" : "}. */
+    private boolean valueStarts() {
+        int end = seek.length() - 1;          // the opening quote we just added
+        int i = end - 1;
+        while (i >= 0 && Character.isWhitespace(seek.charAt(i))) i--;
+        if (i < 0 || seek.charAt(i) != ':') return false;
+        i--;
+        while (i >= 0 && Character.isWhitespace(seek.charAt(i))) i--;
+        String key = "\"answer\"";
+        return i + 1 >= key.length()
+            && seek.substring(i + 1 - key.length(), i + 1).equals(key);
+    }
+}
@@ -0,0 +1,234 @@
+package com.graphitact.chatai;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The set of proxy backends AIClient can send to, with routing and health.
+ *
+ * Each request goes to the healthy backend with the fewest requests in
+ * flight (ties broken by lower average latency), or, in EWMA mode, to the
+ * one whose latency average weighted by its load is lowest. A backend that
+ * fails {@code failureThreshold} times in a row is taken out of rotation
+ * (circuit open) for a cooldown; after that a single trial request, or a
+ * health probe answered without a server error, puts it back. Per-backend latencies also give the
+ * p95 used to decide when to hedge a slow request onto a second backend.
+ */
+final class BackendPool {
+
+    enum Routing {
+        LEAST_OUTSTANDING, EWMA;
+
+        static Routing parse(String s) {
+            return "ewma".equalsIgnoreCase(s.trim()) ? EWMA : LEAST_OUTSTANDING;
+        }
+    }
+
+    /** One proxy endpoint and what we know about its health. */
+    static final class Backend {
+        private static final int SAMPLES = 64;
+        private static final double ALPHA = 0.2;
+
+        final URI uri;
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private final AtomicBoolean trialRunning = new AtomicBoolean();
+        // guarded by this
+        private double ewmaMillis;
+        private final long[] latencies = new long[SAMPLES];
+        private int samples, next;
+        private int failures;
+        private long openUntil;   // 0 = circuit closed
+
+        Backend(URI uri) {
+            this.uri = uri;
+        }
+
+        int outstanding() {
+            return outstanding.get();
+        }
+
+        synchronized double ewmaMillis() {
+            return ewmaMillis;
+        }
+
+        synchronized boolean isOpen() {
+            return openUntil != 0;
+        }
+
+        /** 95th percentile of recent latencies, or -1 with too few samples. */
+        synchronized long p95Millis() {
+            if (samples < 16) return -1;
+            long[] sorted = Arrays.copyOf(latencies, samples);
+            Arrays.sort(sorted);
+            return sorted[(int) Math.ceil(samples * 0.95) - 1];
+        }
+
+        @Override
+        public String toString() {
+            return uri.toString();
+        }
+    }
+
+    /**
+     * A backend reserved for one request. {@code trial} marks the single
+     * request let through to a cooled-down backend; only that one clears the
+     * trial when it finishes, not requests that started before the circuit
+     * opened.
+     */
+    record Lease(Backend backend, boolean trial) {
+    }
+
+    private final List<Backend> backends;
+    private final Routing routing;
+    private final int failureThreshold;
+    private final long cooldownMillis;
+    private final HttpClient http;
+    private final ScheduledExecutorService prober;
+
+    BackendPool(List<URI> uris,
+                Routing routing,
+                int failureThreshold,
+                long cooldownMillis,
+                long probeMillis,
+                HttpClient http)
+    {
+        List<Backend> list = new ArrayList<>(uris.size());
+        for (URI u : uris) list.add(new Backend(u));
+        this.backends         = List.copyOf(list);
+        this.routing          = routing;
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.cooldownMillis   = cooldownMillis;
+        this.http             = http;
+        this.prober = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "ChatAI-Probe");
+            t.setDaemon(true);
+            return t;
+        });
+        if (probeMillis > 0) {
+            prober.scheduleWithFixedDelay(this::probe, probeMillis, probeMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    List<Backend> backends() {
+        return backends;
+    }
+
+    /**
+     * Reserve the best available backend other than {@code except} (may be
+     * null), or null if every circuit is open. The caller must report the
+     * outcome with {@link #success}, {@link #failure} or {@link #abandoned}.
+     */
+    Lease acquire(Backend except) {
+        long now = System.currentTimeMillis();
+        Backend best = null;
+        double bestScore = Double.MAX_VALUE;
+        Backend trial = null;
+        for (Backend b : backends) {
+            if (b == except) continue;
+            long openUntil;
+            synchronized (b) { openUntil = b.openUntil; }
+            if (openUntil != 0) {
+                // cooled down: eligible for one trial request
+                if (now >= openUntil && trial == null && !b.trialRunning.get()) trial = b;
+                continue;
+            }
+            double score = score(b);
+            if (score < bestScore) {
+                best = b;
+                bestScore = score;
+            }
+        }
+        if (best != null) {
+            best.outstanding.incrementAndGet();
+            return new Lease(best, false);
+        }
+        if (trial != null && trial.trialRunning.compareAndSet(false, true)) {
+            trial.outstanding.incrementAndGet();
+            return new Lease(trial, true);
+        }
+        return null;
+    }
+
+    private double score(Backend b) {
+        int load = b.outstanding();
+        double ewma = b.ewmaMillis();
+        return switch (routing) {
+            // latency only breaks ties between equally loaded backends
+            case LEAST_OUTSTANDING -> load + Math.min(ewma, 1e6) / 1e7;
+            case EWMA              -> (ewma + 1) * (load + 1);
+        };
+    }
+
+    void success(Lease lease, long millis) {
+        Backend b = release(lease);
+        synchronized (b) {
+            b.ewmaMillis = b.samples == 0 ? millis : b.ewmaMillis + Backend.ALPHA * (millis - b.ewmaMillis);
+            b.latencies[b.next] = millis;
+            b.next = (b.next + 1) % Backend.SAMPLES;
+            if (b.samples < Backend.SAMPLES) b.samples++;
+            b.failures  = 0;
+            b.openUntil = 0;
+        }
+    }
+
+    void failure(Lease lease) {
+        Backend b = release(lease);
+        synchronized (b) {
+            if (++b.failures >= failureThreshold || b.openUntil != 0) {
+                b.openUntil = System.currentTimeMillis() + cooldownMillis;
+            }
+        }
+    }
+
+    /** A hedged request was cancelled because the other attempt won; not the backend's fault. */
+    void abandoned(Lease lease) {
+        release(lease);
+    }
+
+    private static Backend release(Lease lease) {
+        Backend b = lease.backend();
+        b.outstanding.decrementAndGet();
+        if (lease.trial()) b.trialRunning.set(false);
+        return b;
+    }
+
+    /**
+     * Ping every open backend. An answer below 500 closes its circuit again;
+     * a server error counts as down, the same as for real requests.
+     */
+    private void probe() {
+        for (Backend b : backends) {
+            if (!b.isOpen()) continue;
+            HttpRequest ping = HttpRequest.newBuilder(b.uri)
+                .timeout(Duration.ofSeconds(2))
+                .method("HEAD", HttpRequest.BodyPublishers.noBody())
+                .build();
+            http.sendAsync(ping, HttpResponse.BodyHandlers.discarding())
+                .whenComplete((resp, err) -> {
+                    synchronized (b) {
+                        if (err == null && resp.statusCode() < 500) {
+                            b.failures  = 0;
+                            b.openUntil = 0;
+                        } else {
+                            b.openUntil = System.currentTimeMillis() + cooldownMillis;
+                        }
+                    }
+                });
+        }
+    }
+
+    void close() {
+        prober.shutdownNow();
+    }
+}
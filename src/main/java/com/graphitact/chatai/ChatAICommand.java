@@ -0,0 +1,132 @@
+package com.graphitact.chatai;
+
+import org.bukkit.Bukkit;
+import org.bukkit.ChatColor;
+import org.bukkit.OfflinePlayer;
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandExecutor;
+import org.bukkit.command.CommandSender;
+import org.bukkit.command.TabCompleter;
+import org.bukkit.entity.Player;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+
+/** {@code /chatai reload | stats | trace <player> [count]} */
+public class ChatAICommand implements CommandExecutor, TabCompleter {
+    private static final List<String> SUBCOMMANDS = List.of("reload", "stats", "trace");
+    private static final DateTimeFormatter TIME = DateTimeFormatter.ofPattern("HH:mm:ss");
+
+    private final ChatAIPlugin plugin;
+    private final Metrics metrics;
+    private final Tracer tracer;
+
+    ChatAICommand(ChatAIPlugin plugin, Metrics metrics, Tracer tracer) {
+        this.plugin  = plugin;
+        this.metrics = metrics;
+        this.tracer  = tracer;
+    }
+
+    @Override
+    public boolean onCommand(CommandSender sender, Command command, String label, String[] args) {
+        if (args.length == 0) return false;
+        switch (args[0].toLowerCase(Locale.ROOT)) {
+            case "reload" -> {
+                if (!allowed(sender, "chatai.reload")) return true;
+                plugin.loadPersonalities();
+                sender.sendMessage(ChatColor.GREEN + "[ChatAI] Personalities reloaded.");
+            }
+            case "stats" -> {
+                if (!allowed(sender, "chatai.stats")) return true;
+                sender.sendMessage(ChatColor.GOLD + "[ChatAI] Stats");
+                for (String line : metrics.summary()) sender.sendMessage(ChatColor.GRAY + line);
+            }
+            case "trace" -> {
+                if (!allowed(sender, "chatai.trace")) return true;
+                if (args.length < 2) return false;
+                int count = 5;
+                if (args.length > 2) {
+                    try {
+                        count = Math.max(1, Integer.parseInt(args[2]));
+                    } catch (NumberFormatException ex) {
+                        return false;
+                    }
+                }
+                trace(sender, args[1], count);
+            }
+            default -> { return false; }
+        }
+        return true;
+    }
+
+    @Override
+    public List<String> onTabComplete(CommandSender sender, Command command, String alias, String[] args) {
+        List<String> out = new ArrayList<>();
+        if (args.length == 1) {
+            for (String s : SUBCOMMANDS) {
+                if (s.startsWith(args[0].toLowerCase(Locale.ROOT))) out.add(s);
+            }
+        } else if (args.length == 2 && args[0].equalsIgnoreCase("trace")) {
+            String prefix = args[1].toLowerCase(Locale.ROOT);
+            for (Player p : Bukkit.getOnlinePlayers()) {
+                if (p.getName().toLowerCase(Locale.ROOT).startsWith(prefix)) out.add(p.getName());
+            }
+        }
+        return out;
+    }
+
+    /** Recent exchanges of one player in chat, and their full bodies to a file. */
+    private void trace(CommandSender sender, String who, int count) {
+        UUID id;
+        String name;
+        Player online = Bukkit.getPlayerExact(who);
+        if (online != null) {
+            id   = online.getUniqueId();
+            name = online.getName();
+        } else {
+            OfflinePlayer offline = Bukkit.getOfflinePlayerIfCached(who);
+            if (offline == null) {
+                sender.sendMessage(ChatColor.RED + "[ChatAI] Unknown player " + who + ".");
+                return;
+            }
+            id   = offline.getUniqueId();
+            name = offline.getName() != null ? offline.getName() : who;
+        }
+        List<Tracer.Trace> recent = tracer.recent(id, count);
+        if (recent.isEmpty()) {
+            sender.sendMessage(ChatColor.GRAY + "[ChatAI] No recent AI requests for " + name + ".");
+            return;
+        }
+        sender.sendMessage(ChatColor.GOLD + "[ChatAI] Last " + recent.size() + " AI exchanges of " + name + ", newest first");
+        for (Tracer.Trace t : recent) {
+            String when = TIME.format(Instant.ofEpochMilli(t.startMillis).atZone(ZoneId.systemDefault()));
+            String head = ChatColor.GRAY + when + " " + t.cls + " " + t.kind + " " + t.millis + "ms ";
+            String result = t.error != null
+                ? ChatColor.RED + "failed: " + clip(t.error, 80)
+                : ChatColor.WHITE + clip(t.response, 120);
+            sender.sendMessage(head + ChatColor.AQUA + clip(t.prompt, 60) + ChatColor.GRAY + " → " + result);
+        }
+        String file = tracer.dump(name, recent);
+        if (file == null) {
+            sender.sendMessage(ChatColor.RED + "[ChatAI] The trace writer is busy, full requests were not written; try again shortly.");
+            return;
+        }
+        sender.sendMessage(ChatColor.GRAY + "Full requests written to " + file + " in the plugin folder.");
+    }
+
+    private static String clip(String s, int max) {
+        s = s.replace('\n', ' ');
+        return s.length() <= max ? s : s.substring(0, max - 1) + "…";
+    }
+
+    private static boolean allowed(CommandSender sender, String permission) {
+        if (sender.hasPermission(permission)) return true;
+        sender.sendMessage(ChatColor.RED + "You don't have permission to do that.");
+        return false;
+    }
+}
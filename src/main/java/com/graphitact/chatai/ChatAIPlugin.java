@@ -2,37 +2,48 @@ package com.graphitact.chatai;
 
 import com.graphitact.chatai.quest.QuestSystem;
 import org.bukkit.Bukkit;
+import org.bukkit.Location;
 import org.bukkit.World;
 import org.bukkit.configuration.file.YamlConfiguration;
 import org.bukkit.entity.Villager;
 import org.bukkit.plugin.java.JavaPlugin;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 public class ChatAIPlugin extends JavaPlugin {
     private static ChatAIPlugin instance;
     private AIClient ai;
+    private Metrics metrics;
+    private Tracer tracer;
+    private MainThreadQueue mainThread;
     private QuestSystem questSystem;
-    private long serverStart;
+    private PlaceholderEngine placeholders;
     private List<String> baseNames;
     private final Random rng = new Random();
 
     // configuration templates
     private final Map<String,String> personalityTemplates = new HashMap<>();
-    // villagers.yml persistence
-    private YamlConfiguration villagerCfg;
-    private File villagerFile;
-    // memory.yml persistence
-    private YamlConfiguration memoryCfg;
-    private File memoryFile;
+    // villager profiles and memory, in lazily loaded shards
+    private VillagerStore store;
+    private MemorySummarizer summarizer;
+    private int recallCount;
+    private long recallWaitMillis;
 
     // active chat sessions
     private final Set<UUID> activeVillagerChat = new HashSet<>();
 
     // clustering radius
     private static final double VILLAGE_RADIUS = 50.0;
+    // turns of villager memory kept per conversation
+    private static final int VILLAGER_HISTORY = 20;
 
     @Override
     public void onEnable() {
@@ -42,15 +53,14 @@ public class ChatAIPlugin extends JavaPlugin {
         saveDefaultConfig();
         loadPersonalities();
 
-        // load memory.yml
-        memoryFile = new File(getDataFolder(), "memory.yml");
-        if (!memoryFile.exists()) saveResource("memory.yml", false);
-        memoryCfg = YamlConfiguration.loadConfiguration(memoryFile);
-
-        // load villagers.yml
-        villagerFile = new File(getDataFolder(), "villagers.yml");
-        if (!villagerFile.exists()) saveResource("villagers.yml", false);
-        villagerCfg = YamlConfiguration.loadConfiguration(villagerFile);
+        // villager data is read shard by shard when first needed, not here
+        metrics = new Metrics();
+        store = new VillagerStore(this, getDataFolder());
+        store.open();
+        metrics.gauge("chatai_villager_shards_loaded", "Villager shards in memory", store::loadedShards);
+        metrics.gauge("chatai_villager_cache_bytes", "Estimated heap used by loaded villager shards", store::loadedBytes);
+        metrics.gauge("chatai_villager_shard_loads_total", "Villager shards read from disk", store::shardLoads);
+        metrics.gauge("chatai_villager_shard_evictions_total", "Villager shards dropped to stay under villager-cache-mb", store::shardEvictions);
 
         // load base villager names
         YamlConfiguration namesCfg = YamlConfiguration.loadConfiguration(
@@ -59,9 +69,6 @@ public class ChatAIPlugin extends JavaPlugin {
         baseNames = namesCfg.getStringList("BASE");
         getLogger().info("Loaded " + baseNames.size() + " base villager names");
 
-        // record start time
-        serverStart = System.currentTimeMillis();
-
         // load village names for clustering
         File villagesFile = new File(getDataFolder(), "villages.yml");
         if (!villagesFile.exists()) saveResource("villages.yml", false);
@@ -76,90 +83,157 @@ public class ChatAIPlugin extends JavaPlugin {
         }, 200L, 200L * 60);
 
         // init AI and quest system
-        ai = new AIClient(this);
+        tracer = new Tracer(this);
+        metrics.gauge("chatai_traces_dropped_total", "Traces not written because the trace thread was behind", tracer::dropped);
+        mainThread = new MainThreadQueue(this, metrics);
+        mainThread.start();
+        ai = new AIClient(this, metrics, tracer, mainThread);
+        summarizer = new MemorySummarizer(ai, store, ai.budget(),
+            getConfig().getInt("memory-summary-after", 20),
+            getConfig().getInt("memory-summary-words", 120));
+        recallCount = getConfig().getInt("memory-recall-count", 4);
+        recallWaitMillis = getConfig().getLong("memory-recall-wait-ms", 250);
         questSystem = new QuestSystem(this);
+        // placeholders read a snapshot of the world taken at the start of every tick
+        placeholders = new PlaceholderEngine(System.currentTimeMillis());
+        placeholders.refresh(WorldSnapshot.capture(questSystem::openQuestCount));
+        Bukkit.getScheduler().runTaskTimer(this,
+            () -> placeholders.refresh(WorldSnapshot.capture(questSystem::openQuestCount)), 1L, 1L);
+        placeholders.register("quest_status", (w, ctx, arg) -> {
+            if (ctx.player() == null) return null;
+            int n = w.openQuests().getOrDefault(ctx.player(), 0);
+            return n == 0 ? "no open quests" : n == 1 ? "1 open quest" : n + " open quests";
+        });
+        metrics.gauge("chatai_quests_active", "Open quests across all players", questSystem::activeQuestCount);
+        metrics.gauge("chatai_quest_kill_events_total", "Mob deaths seen by the quest listener", questSystem::killEvents);
+        metrics.gauge("chatai_quest_pickup_events_total", "Item pickups seen by the quest listener", questSystem::pickupEvents);
+        metrics.gauge("chatai_quest_progress_total", "Kills and pickups that counted towards a quest", questSystem::progressEvents);
+
+        ChatAICommand command = new ChatAICommand(this, metrics, tracer);
+        getCommand("chatai").setExecutor(command);
+        getCommand("chatai").setTabCompleter(command);
+        scheduleMetricsFile();
 
         // register listeners
-        getServer().getPluginManager().registerEvents(new ServerChatListener(this, ai), this);
+        getServer().getPluginManager().registerEvents(new ServerChatListener(this, ai, placeholders, mainThread), this);
         getServer().getPluginManager().registerEvents(
             new VillagerChatListener(this, ai, questSystem),
             this
         );
 
-        getLogger().info("ChatAI enabled, proxy at " + getConfig().getString("proxy-url"));
+        List<String> proxies = getConfig().getStringList("proxy-urls");
+        getLogger().info("ChatAI enabled, proxy at "
+            + (proxies.isEmpty() ? getConfig().getString("proxy-url") : String.join(", ", proxies)));
     }
 
+    /**
+     * Snapshot villager positions here on the main thread, then cluster them
+     * and record the village assignments asynchronously. Only villagers in
+     * loaded chunks take part; assignments are kept apart from the villager
+     * shards, so none of those is loaded for it.
+     */
     private void detectAndAssignVillages(List<String> villageNames) {
-        List<Villager> all = Bukkit.getWorlds().stream()
-            .flatMap(w -> w.getEntitiesByClass(Villager.class).stream())
-            .collect(Collectors.toList());
-        if (all.isEmpty()) {
-            getLogger().warning("No villagers found, skipping.");
+        if (!store.isReady()) {
+            getLogger().info("Villager data is still being migrated, skipping.");
             return;
         }
-        Set<UUID> visited = new HashSet<>();
-        int nameIdx = 0;
-        for (Villager v : all) {
-            if (visited.contains(v.getUniqueId())) continue;
-            List<Villager> cluster = new ArrayList<>();
-            Deque<Villager> queue = new LinkedList<>();
-            queue.add(v);
-            visited.add(v.getUniqueId());
-            while (!queue.isEmpty()) {
-                Villager cur = queue.remove();
-                cluster.add(cur);
-                for (Villager o : all) {
-                    if (visited.contains(o.getUniqueId())) continue;
-                    if (!o.getWorld().equals(cur.getWorld())) continue;
-                    if (cur.getLocation().distanceSquared(o.getLocation()) <= VILLAGE_RADIUS * VILLAGE_RADIUS) {
-                        visited.add(o.getUniqueId());
-                        queue.add(o);
-                    }
-                }
+        long t0 = System.nanoTime();
+        List<VillageClusterer.Point> points = new ArrayList<>();
+        for (World w : Bukkit.getWorlds()) {
+            UUID wid = w.getUID();
+            for (Villager v : w.getEntitiesByClass(Villager.class)) {
+                Location l = v.getLocation();
+                points.add(new VillageClusterer.Point(v.getUniqueId(), wid, l.getX(), l.getY(), l.getZ()));
             }
-            String key0 = cluster.get(0).getUniqueId().toString();
+        }
+        if (points.isEmpty()) {
+            getLogger().warning("No villagers found, skipping.");
+            return;
+        }
+        long snapshotNanos = System.nanoTime() - t0;
+        Bukkit.getScheduler().runTaskAsynchronously(this, () -> {
+            long t1 = System.nanoTime();
+            List<List<UUID>> villages = VillageClusterer.cluster(points, VILLAGE_RADIUS);
+            if (!isEnabled()) return;
+            assignVillages(villages, villageNames);
+            metrics.clusterAsync((System.nanoTime() - t1) / 1_000_000);
+        });
+        metrics.clusterMainThread(snapshotNanos / 1_000_000);
+    }
+
+    /** Off the main thread; writes villages.yml only if an assignment changed. */
+    private void assignVillages(List<List<UUID>> villages, List<String> villageNames) {
+        int nameIdx = 0, changed = 0;
+        for (List<UUID> village : villages) {
+            VillagerStore.Village first = store.village(village.get(0));
             String gid, gname;
-            if (villagerCfg.contains(key0 + ".village.id")) {
-                gid = villagerCfg.getString(key0 + ".village.id");
-                gname = villagerCfg.getString(key0 + ".village.name");
+            if (first != null) {
+                gid = first.id();
+                gname = first.name();
             } else {
                 gid = UUID.randomUUID().toString();
                 gname = villageNames.get(nameIdx++ % villageNames.size());
             }
+            List<UUID> cluster = new ArrayList<>(village);
             Collections.shuffle(cluster, rng);
+            // villagers already giving quests here keep doing so, so a settled village changes nothing
+            cluster.sort(Comparator.comparing(vid -> !isQuestGiverOf(vid, gid)));
             int qcount = Math.max(1, cluster.size()/4);
             for (int i=0;i<cluster.size();i++) {
-                String k = cluster.get(i).getUniqueId().toString();
-                villagerCfg.set(k + ".village.id", gid);
-                villagerCfg.set(k + ".village.name", gname);
-                villagerCfg.set(k + ".village.isQuestGiver", i<qcount);
+                if (store.setVillage(cluster.get(i), new VillagerStore.Village(gid, gname, i<qcount))) changed++;
             }
         }
-        try { villagerCfg.save(villagerFile); } catch (Exception e) { e.printStackTrace(); }
+        if (changed > 0) store.saveVillages();
+        getLogger().info("Assigned " + villages.size() + " villages (" + changed + " villagers changed)");
+    }
+
+    private boolean isQuestGiverOf(UUID vid, String villageId) {
+        VillagerStore.Village v = store.village(vid);
+        return v != null && v.questGiver() && v.id().equals(villageId);
+    }
+
+    /** Periodically write the metrics in Prometheus text format for a local scraper. */
+    private void scheduleMetricsFile() {
+        long every = getConfig().getLong("metrics-interval-seconds", 15) * 20L;
+        String name = getConfig().getString("metrics-file", "metrics.prom");
+        if (every <= 0 || name == null || name.isBlank()) return;
+        Path target = new File(getDataFolder(), name).toPath();
+        Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+        Bukkit.getScheduler().runTaskTimerAsynchronously(this, () -> {
+            try {
+                Files.writeString(tmp, metrics.renderPrometheus(), StandardCharsets.UTF_8);
+                // scrapers never see a half-written file
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                getLogger().warning("Writing " + name + " failed: " + e.getMessage());
+            }
+        }, every, every);
     }
 
     @Override
     public void onDisable() {
-        try {
-            villagerCfg.save(villagerFile);
-            memoryCfg.save(memoryFile);
-        } catch (Exception e) {
-            getLogger().warning("Save failed: " + e.getMessage());
-        }
+        if (ai != null) ai.shutdown();
+        if (mainThread != null) mainThread.close();
+        if (tracer != null) tracer.close();
+        if (questSystem != null) questSystem.shutdown();
+        if (store != null) store.close();
     }
 
     public static ChatAIPlugin getInstance() { return instance; }
 
-    /** Accessor for shared villager config */
-    public YamlConfiguration getVillagerConfig() {
-        return villagerCfg;
+    /**
+     * Read the villager's profile, summary and recent turns in the
+     * background, loading its shard if needed; completes off the main thread.
+     */
+    CompletableFuture<VillagerStore.Memory> preloadVillager(UUID vid) {
+        return store.preload(vid, VILLAGER_HISTORY);
     }
 
     public void startVillagerChat(UUID pid) { activeVillagerChat.add(pid); }
     public void endVillagerChat(UUID pid)   { activeVillagerChat.remove(pid); }
     public boolean isInVillagerChat(UUID pid){ return activeVillagerChat.contains(pid);} 
 
-    private void loadPersonalities() {
+    void loadPersonalities() {
         File f = new File(getDataFolder(), "personalities.yml");
         if (!f.exists()) saveResource("personalities.yml", false);
         YamlConfiguration cfg = YamlConfiguration.loadConfiguration(f);
@@ -172,51 +246,50 @@ public class ChatAIPlugin extends JavaPlugin {
         return tpl.replace("{name}", name);
     }
 
-    public String getOrCreateVillagerName(UUID vid, String prof) {
-        String key = vid.toString()+".baseName";
-        String base = villagerCfg.getString(key);
-        if (base==null) { base = baseNames.get(rng.nextInt(baseNames.size())); villagerCfg.set(key, base);}        
+    public String getOrCreateVillagerName(UUID vid, VillagerStore.Profile profile, String prof) {
+        String base = profile.baseName();
+        // picked from the UUID, so it is the same even before the store has it
+        if (base==null) { base = baseNames.get(Math.floorMod(vid.hashCode(), baseNames.size())); store.setBaseName(vid, base);}
         String pf = prof.substring(0,1).toUpperCase()+prof.substring(1).toLowerCase();
         return base+" the "+pf;
     }
 
-    @SuppressWarnings("unchecked")
-    public Deque<String> getVillagerMemory(UUID vid) {
-        Deque<String> dq = new LinkedList<>(memoryCfg.getStringList(vid.toString()));
-        while(dq.size()>20) dq.removeFirst();
-        return dq;
+    /**
+     * Recent memory of a villager, from what {@link #preloadVillager} read,
+     * as a live history: every turn added to it is journaled to disk in the
+     * background.
+     */
+    public ConversationHistory getVillagerMemory(UUID vid, VillagerStore.Memory memory) {
+        // fold older turns into the summary in the background if they piled up
+        summarizer.maybeSummarize(vid, memory);
+        return ConversationHistory.restore(
+            memory.recent(),
+            VILLAGER_HISTORY,
+            e -> store.append(vid, e)
+        );
     }
 
-    public void saveVillagerMemory(UUID vid, Deque<String> hist) {
-        memoryCfg.set(vid.toString(), new ArrayList<>(hist));
+    /**
+     * Up to memory-recall-count turns from anywhere in a villager's memory
+     * that match {@code message}, oldest first, leaving out those already in
+     * {@code recent}. If the villager's shard is not read within
+     * memory-recall-wait-ms, completes with none: the reply then goes out
+     * with the recent turns only.
+     */
+    public CompletableFuture<List<ConversationHistory.Entry>> recallVillagerMemory(UUID vid,
+                                                                              String message,
+                                                                              ConversationHistory recent)
+    {
+        if (recallCount <= 0) return CompletableFuture.completedFuture(List.of());
+        return store.recall(vid, message, recallCount, new HashSet<>(Arrays.asList(recent.toArray())))
+            .completeOnTimeout(List.of(), recallWaitMillis, TimeUnit.MILLISECONDS);
     }
 
-    public static String processPlaceholders(String txt) {
-        ChatAIPlugin p=getInstance();
-        if(txt.contains("{{current_time}}")){
-            long ticks=Bukkit.getWorlds().get(0).getTime(); long h=(ticks/1000+6)%24; long m=(ticks%1000)*60/1000;
-            txt=txt.replace("{{current_time}}",String.format("%02d:%02d",h,m));
-        }
-        if(txt.contains("{{uptime}}")){
-            long ms=System.currentTimeMillis()-p.serverStart; long s=ms/1000, H=s/3600; s%=3600; long M=s/60; s%=60;
-            txt=txt.replace("{{uptime}}",String.format("%dh %dm %ds",H,M,s));
-        }
-        if(txt.contains("{{online_players}}")) txt=txt.replace("{{online_players}}",String.valueOf(Bukkit.getOnlinePlayers().size()));
-        if(txt.contains("{{current_weather_state}}")){
-            World w=Bukkit.getWorlds().get(0); txt=txt.replace("{{current_weather_state}}",w.hasStorm()?"rain":"clear skies");
-        }
-        return txt;
+    PlaceholderEngine getPlaceholders() {
+        return placeholders;
     }
 
-    public static String processVillagerPlaceholders(String txt) {
-        if(txt.contains("{{current_time}}")){
-            long t=Bukkit.getWorlds().get(0).getTime();
-            txt=txt.replace("{{current_time}}",String.format("%02d:%02d",(t/1000+6)%24,(t%1000)*60/1000));
-        }
-        if(txt.contains("{{current_weather_state}}")){
-            World w=Bukkit.getWorlds().get(0);
-            txt=txt.replace("{{current_weather_state}}",w.hasStorm()?"rain":"clear skies");
-        }
-        return txt;
+    MainThreadQueue getMainThread() {
+        return mainThread;
     }
 }
@@ -0,0 +1,69 @@
+package com.graphitact.chatai;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Fits a conversation into a prompt-token budget by dropping the oldest
+ * turns. Token counts are estimated (about four characters per token, plus
+ * a few per message for role markup), which is close enough for English
+ * chat and needs no tokenizer.
+ */
+final class ContextBudget {
+    private static final int PER_MESSAGE = 4;
+
+    private final int maxTokens;
+
+    /** @param maxTokens  prompt budget; 0 or less means no limit */
+    ContextBudget(int maxTokens) {
+        this.maxTokens = maxTokens;
+    }
+
+    static int estimate(String text) {
+        return (text.length() + 3) / 4 + PER_MESSAGE;
+    }
+
+    /**
+     * The newest turns that fit next to {@code system} and {@code prompt},
+     * oldest first. System prompt and new message are always sent, even if
+     * they alone exceed the budget.
+     */
+    ConversationHistory.Entry[] fit(String system, ConversationHistory.Entry[] turns, String prompt) {
+        return fit(maxTokens - estimate(system), turns, prompt);
+    }
+
+    /** Like {@link #fit(String, ConversationHistory.Entry[], String)} with an explicit budget. */
+    ConversationHistory.Entry[] fit(int budget, ConversationHistory.Entry[] turns, String prompt) {
+        if (maxTokens <= 0) return turns;
+        int left = budget - estimate(prompt);
+        int from = turns.length;
+        while (from > 0) {
+            int cost = estimate(turns[from - 1].text());
+            if (cost > left) break;
+            left -= cost;
+            from--;
+        }
+        return from == 0 ? turns : Arrays.copyOfRange(turns, from, turns.length);
+    }
+
+    /**
+     * How many of {@code turns}, from the oldest, fit in {@code budget}
+     * tokens as lines of one prompt. At least one if there are any, so a
+     * single turn bigger than the budget still moves along.
+     */
+    int oldestThatFit(int budget, List<ConversationHistory.Entry> turns) {
+        if (maxTokens <= 0) return turns.size();
+        int n = 0;
+        while (n < turns.size()) {
+            int cost = estimate(turns.get(n).toLine());
+            if (cost > budget && n > 0) break;
+            budget -= cost;
+            n++;
+        }
+        return n;
+    }
+
+    int maxTokens() {
+        return maxTokens;
+    }
+}
@@ -0,0 +1,108 @@
+package com.graphitact.chatai;
+
+import com.graphitact.chatai.AIClient.Admission;
+
+import java.util.ArrayDeque;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Runs the steps of each conversation strictly one after another, while
+ * different conversations run in parallel.
+ *
+ * A step is asynchronous: it is handed a {@code done} callback and the next
+ * step of the same conversation starts only once that has been called. A
+ * conversation's mailbox exists only while one of its steps is running; it
+ * is created, queued into and removed inside ConcurrentHashMap.compute, so
+ * the only contention is between callers of the same conversation — there
+ * is no lock across conversations.
+ */
+final class ConversationExecutor {
+
+    interface Step {
+        /**
+         * @param done      call exactly once when the step is finished
+         * @param deferred  true if the step waited behind an earlier one, so
+         *                  the caller was already told ACCEPTED
+         */
+        Admission run(Runnable done, boolean deferred);
+    }
+
+    private static final class Mailbox {
+        // steps waiting behind the running one; only touched inside compute
+        final ArrayDeque<Step> waiting = new ArrayDeque<>();
+    }
+
+    private final ConcurrentHashMap<UUID, Mailbox> boxes = new ConcurrentHashMap<>();
+    private final int maxWaiting;
+
+    /** @param maxWaiting  steps a single conversation may have queued behind the running one */
+    ConversationExecutor(int maxWaiting) {
+        this.maxWaiting = Math.max(0, maxWaiting);
+    }
+
+    /**
+     * Run {@code step} now if the conversation is idle (returning what the
+     * step returns), else queue it (ACCEPTED) — or REJECTED if too many are
+     * already queued.
+     */
+    Admission submit(UUID key, Step step) {
+        boolean[] idle = new boolean[1];
+        boolean[] full = new boolean[1];
+        boxes.compute(key, (k, box) -> {
+            if (box == null) {
+                idle[0] = true;
+                return new Mailbox();
+            }
+            if (box.waiting.size() >= maxWaiting) full[0] = true;
+            else box.waiting.addLast(step);
+            return box;
+        });
+        if (full[0]) return Admission.REJECTED;
+        if (!idle[0]) return Admission.ACCEPTED;
+        return run(key, step, false);
+    }
+
+    /** Conversations with a step in progress. */
+    int active() {
+        return boxes.size();
+    }
+
+    private Admission run(UUID key, Step step, boolean deferred) {
+        Once done = new Once(key);
+        try {
+            return step.run(done, deferred);
+        } catch (RuntimeException ex) {
+            // a step that blew up still lets the conversation go on
+            done.run();
+            throw ex;
+        }
+    }
+
+    private void next(UUID key) {
+        Step[] next = new Step[1];
+        boxes.computeIfPresent(key, (k, box) -> {
+            next[0] = box.waiting.pollFirst();
+            return next[0] == null ? null : box;
+        });
+        if (next[0] != null) run(key, next[0], true);
+    }
+
+    private final class Once implements Runnable {
+        private final UUID key;
+        private boolean fired;
+
+        Once(UUID key) {
+            this.key = key;
+        }
+
+        @Override
+        public void run() {
+            synchronized (this) {
+                if (fired) return;
+                fired = true;
+            }
+            next(key);
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.graphitact.chatai;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Fixed-capacity ring buffer of conversation turns. Appending is O(1) and
+ * silently evicts the oldest turn once full. Roles are stored as an enum, so
+ * nothing has to be re-parsed out of "User: …" strings per request.
+ *
+ * Methods are synchronized: the chat listeners append from the main/chat
+ * threads while AIClient reads a snapshot on its HTTP threads.
+ */
+public final class ConversationHistory {
+
+    public enum Role {
+        USER("User"), ASSISTANT("Assistant"), SYSTEM("System");
+
+        private final String label;
+
+        Role(String label) { this.label = label; }
+
+        /** Role name used by the chat-completions API; system events go in as user turns. */
+        public String apiRole() {
+            return this == ASSISTANT ? "assistant" : "user";
+        }
+    }
+
+    /** One turn; {@code timestamp} is epoch millis, or 0 if unknown (old memory.yml lines). */
+    public record Entry(Role role, String text, long timestamp) {
+
+        /** Legacy "User: …" / "Assistant: …" form, as stored in memory.yml. */
+        public String toLine() {
+            return role.label + ": " + text;
+        }
+
+        /** Parse a legacy memory.yml line; anything that isn't Assistant/System is a user turn. */
+        public static Entry fromLine(String line) {
+            int colon = line.indexOf(':');
+            Role role = Role.USER;
+            if (line.startsWith("Assistant:")) role = Role.ASSISTANT;
+            else if (line.startsWith("System:")) role = Role.SYSTEM;
+            String text = colon < 0 ? line : line.substring(Math.min(line.length(), colon + 2));
+            return new Entry(role, text, 0L);
+        }
+    }
+
+    private static final Entry[] EMPTY = new Entry[0];
+
+    private final Entry[] ring;
+    private final Consumer<Entry> onAdd;
+    private int head;   // index of the oldest entry
+    private int size;
+
+    public ConversationHistory(int capacity) {
+        this(capacity, null);
+    }
+
+    /** @param onAdd  told about every turn added from now on (e.g. to persist it); may be null */
+    public ConversationHistory(int capacity, Consumer<Entry> onAdd) {
+        this.ring  = new Entry[Math.max(1, capacity)];
+        this.onAdd = onAdd;
+    }
+
+    public void add(Role role, String text) {
+        add(new Entry(role, text, System.currentTimeMillis()));
+    }
+
+    public void add(Entry e) {
+        push(e);
+        if (onAdd != null) onAdd.accept(e);
+    }
+
+    private synchronized void push(Entry e) {
+        int tail = (head + size) % ring.length;
+        ring[tail] = e;
+        if (size < ring.length) {
+            size++;
+        } else {
+            head = (head + 1) % ring.length;
+        }
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return ring.length;
+    }
+
+    /** Oldest-first copy of the current turns. */
+    public synchronized Entry[] toArray() {
+        if (size == 0) return EMPTY;
+        Entry[] out = new Entry[size];
+        int first = Math.min(size, ring.length - head);
+        System.arraycopy(ring, head, out, 0, first);
+        System.arraycopy(ring, 0, out, first, size - first);
+        return out;
+    }
+
+    /**
+     * Rebuild a history from stored turns (oldest first), keeping only the
+     * newest {@code capacity}; {@code onAdd} is not told about these.
+     */
+    public static ConversationHistory restore(List<Entry> stored, int capacity, Consumer<Entry> onAdd) {
+        ConversationHistory h = new ConversationHistory(capacity, onAdd);
+        int from = Math.max(0, stored.size() - h.capacity());
+        for (int i = from; i < stored.size(); i++) h.push(stored.get(i));
+        return h;
+    }
+}
@@ -0,0 +1,96 @@
+package com.graphitact.chatai;
+
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+
+/**
+ * One main-thread stage for everything the AI sends back: replies, streamed
+ * chunks, "Thinking..." lines and the like.
+ *
+ * Any thread may {@link #post} a task; they wait in a lock-free queue and are
+ * run in order once per tick, for at most {@code main-thread-budget-ms}.
+ * Whatever is left when the budget runs out waits for the next tick, so a
+ * burst of replies is spread over a few ticks instead of landing in one as
+ * dozens of separate scheduler tasks. A single task is never interrupted,
+ * and each tick runs at least one.
+ */
+final class MainThreadQueue {
+    // leave most of the 50 ms tick to the server
+    private static final long MAX_BUDGET_MS = 25;
+
+    private final Plugin plugin;
+    private final long budgetNanos;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    // ConcurrentLinkedQueue.size() walks the queue
+    private final AtomicInteger depth = new AtomicInteger();
+    private final LongAdder ran         = new LongAdder();
+    private final LongAdder carriedOver = new LongAdder();
+    private final LongAdder fullTicks   = new LongAdder();
+    // written by the main thread only
+    private volatile long maxDrainMicros;
+    private BukkitTask timer;
+
+    MainThreadQueue(Plugin plugin, Metrics metrics) {
+        this.plugin = plugin;
+        long budget = Math.max(1, Math.min(MAX_BUDGET_MS, plugin.getConfig().getLong("main-thread-budget-ms", 5)));
+        this.budgetNanos = TimeUnit.MILLISECONDS.toNanos(budget);
+        metrics.gauge("chatai_main_queue_depth", "AI callbacks waiting for the main thread", depth::get);
+        metrics.gauge("chatai_main_queue_run_total", "AI callbacks run on the main thread", ran::sum);
+        metrics.gauge("chatai_main_queue_carried_over_total",
+            "Callbacks left for a later tick because the tick's budget ran out, counted each tick", carriedOver::sum);
+        metrics.gauge("chatai_main_queue_full_ticks_total", "Ticks that used up the whole budget", fullTicks::sum);
+        metrics.gauge("chatai_main_queue_max_drain_us", "Longest time one tick spent on AI callbacks", () -> maxDrainMicros);
+    }
+
+    /** Drain once per tick from now on. */
+    void start() {
+        timer = plugin.getServer().getScheduler().runTaskTimer(plugin, this::drain, 1L, 1L);
+    }
+
+    /** Run {@code task} on the main thread within a tick or so; safe from any thread. */
+    void post(Runnable task) {
+        depth.incrementAndGet();
+        tasks.add(task);
+    }
+
+    /** Run queued tasks until the queue is empty or the budget is spent. Main thread only. */
+    void drain() {
+        long start = System.nanoTime();
+        long deadline = start + budgetNanos;
+        boolean outOfTime = false;
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            depth.decrementAndGet();
+            ran.increment();
+            try {
+                task.run();
+            } catch (RuntimeException ex) {
+                plugin.getLogger().log(Level.WARNING, "AI callback failed", ex);
+            }
+            if (System.nanoTime() - deadline >= 0) {
+                outOfTime = true;
+                break;
+            }
+        }
+        // only the budget running out counts: a post racing an empty queue is just next tick's work
+        if (outOfTime) {
+            carriedOver.add(depth.get());
+            fullTicks.increment();
+        }
+        maxDrainMicros = Math.max(maxDrainMicros, (System.nanoTime() - start) / 1_000);
+    }
+
+    /** Stop draining and drop what is still queued; call from onDisable. */
+    void close() {
+        if (timer != null) timer.cancel();
+        tasks.clear();
+        depth.set(0);
+    }
+}
@@ -0,0 +1,146 @@
+package com.graphitact.chatai;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Inverted index over one villager's stored memory, ranked with BM25, so
+ * the turns that matter for what a player just said can be recalled no
+ * matter how long ago they were.
+ *
+ * Text is lower-cased and split on anything that isn't a letter or digit;
+ * very common words and a plural "s" are dropped. Not thread-safe: the
+ * memory store guards it.
+ */
+final class MemoryIndex {
+    private static final double K1 = 1.2;
+    private static final double B  = 0.75;
+
+    private static final Set<String> STOP = Set.of(
+        "the", "and", "for", "you", "your", "are", "was", "were", "this", "that", "with", "have", "has",
+        "had", "but", "not", "can", "will", "what", "who", "how", "why", "when", "where", "there", "here",
+        "they", "them", "their", "our", "out", "all", "any", "its", "into", "from", "about",
+        "just", "like", "some", "would", "could", "should", "been", "then", "than", "too", "very", "yes",
+        "no", "me", "my", "we", "us", "he", "she", "him", "her", "his", "is", "it", "to", "of", "in", "on",
+        "at", "an", "or", "be", "do", "so", "if", "as", "by", "up", "oh", "hi", "hello");
+
+    /** One indexed turn. */
+    private static final class Doc {
+        final long seq;
+        final ConversationHistory.Entry entry;
+        final Map<String, Integer> tf;
+        final int length;
+
+        Doc(long seq, ConversationHistory.Entry entry, Map<String, Integer> tf, int length) {
+            this.seq    = seq;
+            this.entry  = entry;
+            this.tf     = tf;
+            this.length = length;
+        }
+    }
+
+    // term → docs containing it
+    private final Map<String, List<Doc>> postings = new HashMap<>();
+    // entry → its doc, for removal; identical turns share one doc list
+    private final Map<ConversationHistory.Entry, List<Doc>> byEntry = new HashMap<>();
+    private long nextSeq;
+    private int docs;
+    private long totalLength;
+
+    void add(ConversationHistory.Entry e) {
+        Map<String, Integer> tf = new HashMap<>();
+        int length = 0;
+        for (String term : terms(e.text())) {
+            tf.merge(term, 1, Integer::sum);
+            length++;
+        }
+        Doc d = new Doc(nextSeq++, e, tf, length);
+        for (String term : tf.keySet()) postings.computeIfAbsent(term, k -> new ArrayList<>()).add(d);
+        byEntry.computeIfAbsent(e, k -> new ArrayList<>(1)).add(d);
+        docs++;
+        totalLength += length;
+    }
+
+    /** Forget the oldest indexed copy of {@code e}; no-op if it isn't indexed. */
+    void remove(ConversationHistory.Entry e) {
+        List<Doc> same = byEntry.get(e);
+        if (same == null) return;
+        Doc d = same.remove(0);
+        if (same.isEmpty()) byEntry.remove(e);
+        for (String term : d.tf.keySet()) {
+            List<Doc> list = postings.get(term);
+            list.remove(d);
+            if (list.isEmpty()) postings.remove(term);
+        }
+        docs--;
+        totalLength -= d.length;
+    }
+
+    int size() {
+        return docs;
+    }
+
+    /**
+     * The {@code k} turns that best match {@code query}, oldest first, leaving
+     * out any in {@code exclude} (e.g. turns already in the prompt). Turns
+     * sharing no term with the query are never returned.
+     */
+    List<ConversationHistory.Entry> search(String query, int k, Set<ConversationHistory.Entry> exclude) {
+        if (k <= 0 || docs == 0) return List.of();
+        double avgLength = Math.max(1.0, (double) totalLength / docs);
+        Map<Doc, Double> scores = new HashMap<>();
+        for (String term : Set.copyOf(terms(query))) {
+            List<Doc> list = postings.get(term);
+            if (list == null) continue;
+            int n = list.size();
+            double idf = Math.log(1 + (docs - n + 0.5) / (n + 0.5));
+            for (Doc d : list) {
+                if (exclude.contains(d.entry)) continue;
+                int tf = d.tf.get(term);
+                double norm = tf + K1 * (1 - B + B * d.length / avgLength);
+                scores.merge(d, idf * tf * (K1 + 1) / norm, Double::sum);
+            }
+        }
+        if (scores.isEmpty()) return List.of();
+        List<Map.Entry<Doc, Double>> ranked = new ArrayList<>(scores.entrySet());
+        // best first; on a tie the newer turn wins
+        ranked.sort((a, b) -> {
+            int c = Double.compare(b.getValue(), a.getValue());
+            return c != 0 ? c : Long.compare(b.getKey().seq, a.getKey().seq);
+        });
+        List<Doc> top = new ArrayList<>(Math.min(k, ranked.size()));
+        for (int i = 0; i < ranked.size() && top.size() < k; i++) top.add(ranked.get(i).getKey());
+        top.sort((a, b) -> Long.compare(a.seq, b.seq));
+        List<ConversationHistory.Entry> out = new ArrayList<>(top.size());
+        for (Doc d : top) out.add(d.entry);
+        return out;
+    }
+
+    static List<String> terms(String text) {
+        List<String> out = new ArrayList<>();
+        String lower = text.toLowerCase(Locale.ROOT);
+        int i = 0, len = lower.length();
+        while (i < len) {
+            while (i < len && !isWordChar(lower.charAt(i))) i++;
+            int start = i;
+            while (i < len && isWordChar(lower.charAt(i))) i++;
+            if (i - start < 2) continue;
+            String term = lower.substring(start, i);
+            if (STOP.contains(term)) continue;
+            // iron / irons, quest / quests
+            if (term.length() > 3 && term.endsWith("s") && !term.endsWith("ss")) {
+                term = term.substring(0, term.length() - 1);
+            }
+            out.add(term);
+        }
+        return out;
+    }
+
+    private static boolean isWordChar(char c) {
+        return Character.isLetterOrDigit(c);
+    }
+}
@@ -0,0 +1,89 @@
+package com.graphitact.chatai;
+
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Folds a villager's older memory into a rolling summary, so prompts carry a
+ * few lines of "what happened before" instead of every raw turn.
+ *
+ * Once enough turns have piled up behind the recent window, the previous
+ * summary and those turns are sent to the model as LOW priority requests;
+ * each new summary replaces the turns it covers in the memory store. The
+ * turns go oldest first in batches that fit the context budget, each batch
+ * folded into the summary the one before it produced. It only runs when the
+ * request engine has room, so it never competes with players.
+ */
+final class MemorySummarizer {
+    private static final String SYSTEM =
+        "You keep the long-term memory of a Minecraft villager. Merge the existing summary and the "
+      + "older conversation lines you are given into one new summary, written in the third person. "
+      + "Keep names, promises, quests, gifts and opinions about players; drop greetings and small talk.";
+
+    private final AIClient ai;
+    private final VillagerStore store;
+    private final ContextBudget budget;
+    private final int foldAfter;
+    private final int maxWords;
+    private final Set<UUID> inFlight = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param budget      what one summary request may send
+     * @param foldAfter   how many older turns trigger a new summary; 0 disables it
+     * @param maxWords    target length of a summary
+     */
+    MemorySummarizer(AIClient ai, VillagerStore store, ContextBudget budget, int foldAfter, int maxWords) {
+        this.ai         = ai;
+        this.store      = store;
+        this.budget     = budget;
+        this.foldAfter  = foldAfter;
+        this.maxWords   = maxWords;
+    }
+
+    /**
+     * Start a background summary of this villager if enough turns older than
+     * the recent window are waiting in {@code memory}.
+     */
+    void maybeSummarize(UUID vid, VillagerStore.Memory memory) {
+        if (foldAfter <= 0 || ai.isBusy()) return;
+        List<ConversationHistory.Entry> old = memory.older();
+        if (old.size() < foldAfter || !inFlight.add(vid)) return;
+        fold(vid, memory.summary(), old);
+    }
+
+    /**
+     * Send {@code previous} and the oldest of {@code old} that fit the
+     * budget; once the reply is stored, go on with the rest while enough of
+     * it is left and the engine has room.
+     */
+    private void fold(UUID vid, String previous, List<ConversationHistory.Entry> old) {
+        String head = "Existing summary: " + (previous.isEmpty() ? "(none)" : previous) + "\n\nOlder conversation:\n";
+        String tail = "\nWrite the new summary in at most " + maxWords + " words.";
+        int room = budget.maxTokens() - ContextBudget.estimate(SYSTEM) - ContextBudget.estimate(head + tail);
+        int n = budget.oldestThatFit(room, old);
+        List<ConversationHistory.Entry> rest = old.subList(n, old.size());
+
+        StringBuilder prompt = new StringBuilder(head);
+        for (ConversationHistory.Entry e : old.subList(0, n)) prompt.append(e.toLine()).append('\n');
+        prompt.append(tail);
+
+        ConversationHistory.Entry lastFolded = old.get(n - 1);
+        AIClient.Admission a = ai.askWithSystem(null, new ConversationHistory(1), prompt.toString(), SYSTEM,
+            AIClient.Priority.LOW,
+            chunk -> {},
+            reply -> {
+                if (reply.isBlank()) {
+                    inFlight.remove(vid);
+                    return;
+                }
+                String summary = reply.strip();
+                store.summarize(vid, summary, lastFolded);
+                if (rest.size() < foldAfter || ai.isBusy()) inFlight.remove(vid);
+                else fold(vid, summary, rest);
+            }
+        );
+        if (a != AIClient.Admission.ACCEPTED) inFlight.remove(vid);
+    }
+}
@@ -0,0 +1,243 @@
+package com.graphitact.chatai;
+
+import java.net.http.HttpTimeoutException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * In-process counters, gauges and latency histograms for the plugin.
+ *
+ * Hot paths only bump LongAdders; gauges are read on demand when
+ * {@code /chatai stats} runs or the Prometheus file is written. Names and
+ * buckets follow Prometheus conventions so the text file can be scraped
+ * as-is.
+ */
+final class Metrics {
+
+    // histogram upper bounds in milliseconds; the +Inf bucket is implied
+    private static final long[] BUCKETS_MS = { 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000 };
+
+    /** Cumulative-bucket latency histogram. */
+    static final class Histogram {
+        private final LongAdder[] buckets = new LongAdder[BUCKETS_MS.length + 1];
+        private final LongAdder sumMillis = new LongAdder();
+        private final LongAdder count     = new LongAdder();
+
+        Histogram() {
+            for (int i = 0; i < buckets.length; i++) buckets[i] = new LongAdder();
+        }
+
+        void observe(long millis) {
+            int i = 0;
+            while (i < BUCKETS_MS.length && millis > BUCKETS_MS[i]) i++;
+            buckets[i].increment();
+            sumMillis.add(millis);
+            count.increment();
+        }
+
+        long count() {
+            return count.sum();
+        }
+
+        long sumMillis() {
+            return sumMillis.sum();
+        }
+
+        /** Upper bound of the bucket holding quantile {@code q}; -1 if empty, MAX_VALUE if past the last bound. */
+        long quantileMillis(double q) {
+            long total = count();
+            if (total == 0) return -1;
+            long rank = (long) Math.ceil(total * q), seen = 0;
+            for (int i = 0; i < BUCKETS_MS.length; i++) {
+                seen += buckets[i].sum();
+                if (seen >= rank) return BUCKETS_MS[i];
+            }
+            return Long.MAX_VALUE;
+        }
+
+        private void render(StringBuilder out, String name, String labels) {
+            long cumulative = 0;
+            String sep = labels.isEmpty() ? "" : labels + ",";
+            for (int i = 0; i < BUCKETS_MS.length; i++) {
+                cumulative += buckets[i].sum();
+                out.append(name).append("_bucket{").append(sep).append("le=\"")
+                   .append(BUCKETS_MS[i] / 1000.0).append("\"} ").append(cumulative).append('\n');
+            }
+            cumulative += buckets[BUCKETS_MS.length].sum();
+            out.append(name).append("_bucket{").append(sep).append("le=\"+Inf\"} ").append(cumulative).append('\n');
+            String braces = labels.isEmpty() ? "" : "{" + labels + "}";
+            out.append(name).append("_sum").append(braces).append(' ').append(sumMillis() / 1000.0).append('\n');
+            out.append(name).append("_count").append(braces).append(' ').append(count()).append('\n');
+        }
+    }
+
+    /** Times one request: first byte and completion, counted once each. */
+    final class Timer {
+        private final AIClient.Priority cls;
+        private final long start = System.nanoTime();
+        private final AtomicBoolean firstByte = new AtomicBoolean();
+        private final AtomicBoolean finished  = new AtomicBoolean();
+
+        private Timer(AIClient.Priority cls) {
+            this.cls = cls;
+            requests.get(cls).increment();
+        }
+
+        void firstByte() {
+            if (firstByte.compareAndSet(false, true)) ttfb.get(cls).observe(elapsedMillis());
+        }
+
+        void success(ResponseParser.Usage usage) {
+            if (!finished.compareAndSet(false, true)) return;
+            firstByte();
+            total.get(cls).observe(elapsedMillis());
+            promptTokens.add(usage.promptTokens);
+            completionTokens.add(usage.completionTokens);
+        }
+
+        void failure(Throwable err) {
+            if (!finished.compareAndSet(false, true)) return;
+            Throwable cause = err instanceof CompletionException && err.getCause() != null ? err.getCause() : err;
+            (cause instanceof HttpTimeoutException ? timeouts : errors).get(cls).increment();
+        }
+
+        private long elapsedMillis() {
+            return (System.nanoTime() - start) / 1_000_000;
+        }
+    }
+
+    private final Map<AIClient.Priority, Histogram> ttfb  = perClass(Histogram::new);
+    private final Map<AIClient.Priority, Histogram> total = perClass(Histogram::new);
+    private final Map<AIClient.Priority, LongAdder> requests = perClass(LongAdder::new);
+    private final Map<AIClient.Priority, LongAdder> errors   = perClass(LongAdder::new);
+    private final Map<AIClient.Priority, LongAdder> timeouts = perClass(LongAdder::new);
+    private final Map<AIClient.Priority, LongAdder> rejected = perClass(LongAdder::new);
+    private final Map<AIClient.Priority, LongAdder> shed     = perClass(LongAdder::new);
+    private final LongAdder promptTokens     = new LongAdder();
+    private final LongAdder completionTokens = new LongAdder();
+    private final Histogram clusterMain  = new Histogram();
+    private final Histogram clusterAsync = new Histogram();
+    // name → (help, value); registered once at startup
+    private final Map<String, Map.Entry<String, LongSupplier>> gauges = new LinkedHashMap<>();
+
+    private static <T> Map<AIClient.Priority, T> perClass(Supplier<T> make) {
+        Map<AIClient.Priority, T> m = new EnumMap<>(AIClient.Priority.class);
+        for (AIClient.Priority p : AIClient.Priority.values()) m.put(p, make.get());
+        return m;
+    }
+
+    Timer start(AIClient.Priority cls) {
+        return new Timer(cls);
+    }
+
+    void rejected(AIClient.Priority cls) {
+        rejected.get(cls).increment();
+    }
+
+    void shed(AIClient.Priority cls) {
+        shed.get(cls).increment();
+    }
+
+    /** Main-thread part of a village clustering run (the position snapshot). */
+    void clusterMainThread(long millis) {
+        clusterMain.observe(millis);
+    }
+
+    /** Off-thread clustering and assignment of a village run. */
+    void clusterAsync(long millis) {
+        clusterAsync.observe(millis);
+    }
+
+    /** Register a value read on demand; call during startup only. */
+    synchronized void gauge(String name, String help, LongSupplier value) {
+        gauges.put(name, Map.entry(help, value));
+    }
+
+    /** Prometheus text exposition format. */
+    synchronized String renderPrometheus() {
+        StringBuilder out = new StringBuilder(4096);
+        header(out, "chatai_request_first_byte_seconds", "histogram", "Time to first response byte per request class");
+        ttfb.forEach((cls, h) -> h.render(out, "chatai_request_first_byte_seconds", label(cls)));
+        header(out, "chatai_request_duration_seconds", "histogram", "Total request time per request class");
+        total.forEach((cls, h) -> h.render(out, "chatai_request_duration_seconds", label(cls)));
+        counter(out, "chatai_requests_total", "Requests sent to the model", requests);
+        counter(out, "chatai_request_errors_total", "Requests that failed (not timeouts)", errors);
+        counter(out, "chatai_request_timeouts_total", "Requests that timed out", timeouts);
+        counter(out, "chatai_requests_rejected_total", "Requests turned away at admission", rejected);
+        counter(out, "chatai_requests_shed_total", "Queued requests dropped before they started", shed);
+        header(out, "chatai_prompt_tokens_total", "counter", "Prompt tokens reported by the proxy");
+        out.append("chatai_prompt_tokens_total ").append(promptTokens.sum()).append('\n');
+        header(out, "chatai_completion_tokens_total", "counter", "Completion tokens reported by the proxy");
+        out.append("chatai_completion_tokens_total ").append(completionTokens.sum()).append('\n');
+        header(out, "chatai_village_cluster_main_thread_seconds", "histogram", "Main-thread time of village clustering");
+        clusterMain.render(out, "chatai_village_cluster_main_thread_seconds", "");
+        header(out, "chatai_village_cluster_async_seconds", "histogram", "Off-thread time of village clustering");
+        clusterAsync.render(out, "chatai_village_cluster_async_seconds", "");
+        gauges.forEach((name, g) -> {
+            header(out, name, name.endsWith("_total") ? "counter" : "gauge", g.getKey());
+            out.append(name).append(' ').append(g.getValue().getAsLong()).append('\n');
+        });
+        return out.toString();
+    }
+
+    /** Short human-readable summary for {@code /chatai stats}. */
+    synchronized List<String> summary() {
+        List<String> lines = new ArrayList<>();
+        for (AIClient.Priority cls : AIClient.Priority.values()) {
+            Histogram t = total.get(cls);
+            lines.add(String.format(Locale.ROOT,
+                "%-6s req %d, p50 %s / p95 %s (first byte p50 %s), err %d, timeout %d, rejected %d, shed %d",
+                cls, requests.get(cls).sum(),
+                ms(t.quantileMillis(0.5)), ms(t.quantileMillis(0.95)), ms(ttfb.get(cls).quantileMillis(0.5)),
+                errors.get(cls).sum(), timeouts.get(cls).sum(), rejected.get(cls).sum(), shed.get(cls).sum()));
+        }
+        long busyMillis = 0;
+        for (Histogram h : total.values()) busyMillis += h.sumMillis();
+        long completion = completionTokens.sum();
+        lines.add(String.format(Locale.ROOT, "tokens: %d prompt, %d completion, %.1f completion tokens/s per request",
+            promptTokens.sum(), completion, busyMillis == 0 ? 0.0 : completion * 1000.0 / busyMillis));
+        lines.add(String.format(Locale.ROOT, "village clustering: %d runs, main thread avg %s, async avg %s",
+            clusterMain.count(), avg(clusterMain), avg(clusterAsync)));
+        StringBuilder g = new StringBuilder();
+        gauges.forEach((name, v) -> {
+            if (g.length() > 0) g.append(", ");
+            g.append(name.replace("chatai_", "")).append(' ').append(v.getValue().getAsLong());
+        });
+        if (g.length() > 0) lines.add(g.toString());
+        return lines;
+    }
+
+    private static void counter(StringBuilder out, String name, String help, Map<AIClient.Priority, LongAdder> byClass) {
+        header(out, name, "counter", help);
+        byClass.forEach((cls, n) -> out.append(name).append('{').append(label(cls)).append("} ")
+            .append(n.sum()).append('\n'));
+    }
+
+    private static void header(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static String label(AIClient.Priority cls) {
+        return "class=\"" + cls.name().toLowerCase(Locale.ROOT) + "\"";
+    }
+
+    private static String avg(Histogram h) {
+        return h.count() == 0 ? "-" : h.sumMillis() / h.count() + "ms";
+    }
+
+    private static String ms(long millis) {
+        if (millis < 0) return "-";
+        if (millis == Long.MAX_VALUE) return ">" + BUCKETS_MS[BUCKETS_MS.length - 1] + "ms";
+        return "≤" + millis + "ms";
+    }
+}
@@ -0,0 +1,97 @@
+package com.graphitact.chatai;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Fills {@code {{name}}} and {@code {{name:argument}}} placeholders in AI
+ * replies.
+ *
+ * A reply is scanned once, left to right, and written into one
+ * StringBuilder; text without "{{" is returned as-is. Values come from a
+ * registry of resolvers, which read the latest {@link WorldSnapshot} and the
+ * context the reply is for, never the live server. The main thread
+ * publishes a new snapshot at the start of every tick through a volatile
+ * field, so rendering works from any thread. Unknown placeholders, and ones
+ * a resolver has no value for, are left in the text untouched.
+ */
+final class PlaceholderEngine {
+
+    /** Who a reply is for; any part may be null. */
+    record Context(UUID player, String villageName) {
+        static final Context NONE = new Context(null, null);
+    }
+
+    interface Resolver {
+        /**
+         * @param arg  text after the colon in {@code {{name:arg}}}, or null
+         * @return the value, or null to leave the placeholder as it is
+         */
+        String resolve(WorldSnapshot world, Context ctx, String arg);
+    }
+
+    private final Map<String, Resolver> resolvers = new ConcurrentHashMap<>();
+    private volatile WorldSnapshot world = WorldSnapshot.EMPTY;
+
+    /** An engine with the built-in placeholders; uptime counts from {@code serverStart}. */
+    PlaceholderEngine(long serverStart) {
+        register("current_time", (w, ctx, arg) ->
+            String.format("%02d:%02d", (w.time() / 1000 + 6) % 24, (w.time() % 1000) * 60 / 1000));
+        register("current_weather_state", (w, ctx, arg) -> w.storm() ? "rain" : "clear skies");
+        register("uptime", (w, ctx, arg) -> {
+            long s = (System.currentTimeMillis() - serverStart) / 1000;
+            return String.format("%dh %dm %ds", s / 3600, s % 3600 / 60, s % 60);
+        });
+        // {{online_players}} for the server, {{online_players:world_nether}} for one world
+        register("online_players", (w, ctx, arg) -> {
+            if (arg == null) return String.valueOf(w.online());
+            Integer n = w.playersByWorld().get(arg);
+            return n == null ? null : String.valueOf(n);
+        });
+        register("village_name", (w, ctx, arg) -> ctx.villageName());
+    }
+
+    /** Add or replace a placeholder; names are case-insensitive. */
+    void register(String name, Resolver resolver) {
+        resolvers.put(name.toLowerCase(Locale.ROOT), resolver);
+    }
+
+    /** Publish the snapshot renders read from now on; called once per tick. */
+    void refresh(WorldSnapshot snapshot) {
+        world = snapshot;
+    }
+
+    /** Fill in the placeholders of {@code text}; any thread. */
+    String render(String text, Context ctx) {
+        int open = text.indexOf("{{");
+        if (open < 0) return text;
+        // one snapshot for the whole reply, even if a new one is published meanwhile
+        WorldSnapshot w = world;
+        StringBuilder out = new StringBuilder(text.length() + 32);
+        int from = 0;
+        while (open >= 0) {
+            int close = text.indexOf("}}", open + 2);
+            if (close < 0) break;
+            String value = resolve(text.substring(open + 2, close), w, ctx);
+            if (value != null) {
+                out.append(text, from, open).append(value);
+                from = close + 2;
+                open = text.indexOf("{{", from);
+            } else {
+                // leave it; a later "{{" inside it may still be a placeholder
+                open = text.indexOf("{{", open + 2);
+            }
+        }
+        return out.append(text, from, text.length()).toString();
+    }
+
+    private String resolve(String token, WorldSnapshot w, Context ctx) {
+        int colon = token.indexOf(':');
+        String name = (colon < 0 ? token : token.substring(0, colon)).trim().toLowerCase(Locale.ROOT);
+        Resolver r = resolvers.get(name);
+        if (r == null) return null;
+        return r.resolve(w, ctx, colon < 0 ? null : token.substring(colon + 1).trim());
+    }
+}
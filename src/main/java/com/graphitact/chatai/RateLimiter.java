@@ -0,0 +1,65 @@
+package com.graphitact.chatai;
+
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per-player token buckets: each player may fire {@code burst} requests at
+ * once and then {@code perMinute} a minute, so one spammer cannot fill the
+ * request queue for everybody else.
+ */
+final class RateLimiter {
+
+    private static final class Bucket {
+        double tokens;
+        long lastNanos;
+
+        Bucket(double tokens, long now) {
+            this.tokens    = tokens;
+            this.lastNanos = now;
+        }
+    }
+
+    // prune full buckets of idle players once the map grows past this
+    private static final int PRUNE_AT = 1024;
+
+    private final double burst;
+    private final double perNano;
+    private final ConcurrentHashMap<UUID, Bucket> buckets = new ConcurrentHashMap<>();
+
+    /** @param perMinute  sustained rate; 0 or less turns limiting off */
+    RateLimiter(int burst, double perMinute) {
+        this.burst   = Math.max(1, burst);
+        this.perNano = perMinute <= 0 ? 0 : perMinute / 60e9;
+    }
+
+    /** Take one token for {@code id}; false if the player is over the limit. */
+    boolean tryAcquire(UUID id) {
+        if (perNano == 0) return true;
+        long now = System.nanoTime();
+        boolean[] ok = new boolean[1];
+        buckets.compute(id, (k, b) -> {
+            if (b == null) b = new Bucket(burst, now);
+            refill(b, now);
+            if (b.tokens >= 1) {
+                b.tokens -= 1;
+                ok[0] = true;
+            }
+            return b;
+        });
+        if (buckets.size() > PRUNE_AT) {
+            for (UUID k : buckets.keySet()) {
+                buckets.computeIfPresent(k, (kk, b) -> {
+                    refill(b, now);
+                    return b.tokens >= burst ? null : b;
+                });
+            }
+        }
+        return ok[0];
+    }
+
+    private void refill(Bucket b, long now) {
+        b.tokens    = Math.min(burst, b.tokens + (now - b.lastNanos) * perNano);
+        b.lastNanos = Math.max(b.lastNanos, now);
+    }
+}
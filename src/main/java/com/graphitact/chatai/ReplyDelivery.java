@@ -0,0 +1,90 @@
+package com.graphitact.chatai;
+
+import net.md_5.bungee.api.chat.BaseComponent;
+import net.md_5.bungee.api.chat.TextComponent;
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.Plugin;
+
+import java.util.Locale;
+
+/**
+ * Sends AI replies, and their "Thinking..." splashes, to the players who
+ * should see them rather than to the whole server.
+ *
+ * Each listener gets its own delivery with a scope read from config:
+ * {@code player} (only the one talking), {@code nearby} (everyone within
+ * the radius of where the conversation happens, found with the world's
+ * entity lookup), {@code world} or {@code global}. The one talking always
+ * gets the message. The text is turned into chat components once and the
+ * same components go to every recipient.
+ *
+ * Call from the main thread.
+ */
+final class ReplyDelivery {
+
+    enum Scope { PLAYER, NEARBY, WORLD, GLOBAL }
+
+    private final Scope scope;
+    private final double radius;
+
+    /**
+     * Read {@code <prefix>-scope} and {@code <prefix>-radius} from config;
+     * an unknown scope is logged and {@code fallback} is used.
+     */
+    ReplyDelivery(Plugin plugin, String prefix, Scope fallback) {
+        String raw = plugin.getConfig().getString(prefix + "-scope", fallback.name());
+        Scope s;
+        try {
+            s = Scope.valueOf(raw.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException ex) {
+            plugin.getLogger().warning("Unknown " + prefix + "-scope '" + raw + "', using "
+                + fallback.name().toLowerCase(Locale.ROOT));
+            s = fallback;
+        }
+        this.scope  = s;
+        this.radius = Math.max(1, plugin.getConfig().getDouble(prefix + "-radius", 16));
+    }
+
+    /**
+     * Send {@code legacyText} (with § colour codes) to the configured scope
+     * around {@code where}, and always to {@code talker}. Either may be null:
+     * without a place the talker's own position is used, and with neither
+     * nobody but the talker, if any, is reached.
+     */
+    void send(Player talker, Location where, String legacyText) {
+        BaseComponent[] message = TextComponent.fromLegacyText(legacyText);
+        if (scope == Scope.GLOBAL) {
+            broadcast(message, legacyText);
+            return;
+        }
+        if (talker != null && !talker.isOnline()) talker = null;
+        if (where == null && talker != null) where = talker.getLocation();
+        World world = where != null ? where.getWorld() : null;
+
+        if (scope == Scope.PLAYER || world == null) {
+            if (talker != null) talker.spigot().sendMessage(message);
+            return;
+        }
+        boolean talkerReached = false;
+        for (Player p : scope == Scope.NEARBY ? world.getNearbyPlayers(where, radius) : world.getPlayers()) {
+            p.spigot().sendMessage(message);
+            if (p == talker) talkerReached = true;
+        }
+        // the talker may have walked away from the villager mid-conversation
+        if (talker != null && !talkerReached) talker.spigot().sendMessage(message);
+    }
+
+    /** Send to everyone online regardless of scope, e.g. server-wide announcements. */
+    void broadcast(String legacyText) {
+        broadcast(TextComponent.fromLegacyText(legacyText), legacyText);
+    }
+
+    private static void broadcast(BaseComponent[] message, String legacyText) {
+        for (Player p : Bukkit.getOnlinePlayers()) p.spigot().sendMessage(message);
+        // Bukkit.broadcastMessage used to echo these to the console; keep that
+        Bukkit.getConsoleSender().sendMessage(legacyText);
+    }
+}
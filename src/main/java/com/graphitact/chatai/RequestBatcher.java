@@ -0,0 +1,108 @@
+package com.graphitact.chatai;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Collects requests that share a system prompt for a short window and hands
+ * them over as one batch, so the model processes the big shared prefix once
+ * instead of once per player.
+ */
+final class RequestBatcher {
+
+    /** One caller's request, parked until its batch is flushed. */
+    static final class Pending {
+        final UUID playerId;
+        final ConversationHistory history;
+        final ConversationHistory.Entry[] turns;
+        final String prompt;
+        final String system;
+        final AIClient.Priority priority;
+        final Consumer<String> onChunk;
+        final Consumer<String> callback;
+
+        Pending(UUID playerId,
+                ConversationHistory history,
+                ConversationHistory.Entry[] turns,
+                String prompt,
+                String system,
+                AIClient.Priority priority,
+                Consumer<String> onChunk,
+                Consumer<String> callback)
+        {
+            this.playerId = playerId;
+            this.history  = history;
+            this.turns    = turns;
+            this.prompt   = prompt;
+            this.system   = system;
+            this.priority = priority;
+            this.onChunk  = onChunk;
+            this.callback = callback;
+        }
+    }
+
+    private final long windowMs;
+    private final int maxSize;
+    private final ScheduledExecutorService timer;
+    private final Consumer<List<Pending>> flusher;
+    // open batches by system prompt
+    private final Map<String, List<Pending>> open = new HashMap<>();
+
+    /**
+     * @param flusher  receives each closed batch (size 1..maxSize), off the main thread
+     */
+    RequestBatcher(long windowMs,
+                   int maxSize,
+                   ScheduledExecutorService timer,
+                   Consumer<List<Pending>> flusher)
+    {
+        this.windowMs = windowMs;
+        this.maxSize  = Math.max(2, maxSize);
+        this.timer    = timer;
+        this.flusher  = flusher;
+    }
+
+    void offer(Pending p) {
+        List<Pending> full = null;
+        synchronized (this) {
+            List<Pending> batch = open.get(p.system);
+            if (batch == null) {
+                List<Pending> fresh = new ArrayList<>(maxSize);
+                open.put(p.system, fresh);
+                timer.schedule(() -> close(p.system, fresh), windowMs, TimeUnit.MILLISECONDS);
+                batch = fresh;
+            }
+            batch.add(p);
+            if (batch.size() >= maxSize) {
+                open.remove(p.system);
+                full = batch;
+            }
+        }
+        if (full != null) flusher.accept(full);
+    }
+
+    private void close(String system, List<Pending> batch) {
+        synchronized (this) {
+            // already flushed early because it filled up
+            if (open.get(system) != batch) return;
+            open.remove(system);
+        }
+        flusher.accept(batch);
+    }
+
+    /** Hand over whatever is still waiting, e.g. on shutdown. */
+    void flushAll() {
+        List<List<Pending>> batches;
+        synchronized (this) {
+            batches = new ArrayList<>(open.values());
+            open.clear();
+        }
+        batches.forEach(flusher);
+    }
+}
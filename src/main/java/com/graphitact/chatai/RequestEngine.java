@@ -0,0 +1,176 @@
+package com.graphitact.chatai;
+
+import com.graphitact.chatai.AIClient.Admission;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Admission control for LLM calls: at most {@code maxConcurrent} requests are
+ * in flight, the rest wait in a bounded priority queue. When the queue is full
+ * a new request either sheds the lowest-priority waiter or is rejected.
+ *
+ * LOW (ambient) requests are also dropped once they have waited longer than
+ * {@code maxLowWaitMillis} — a comment on weather that changed a minute ago
+ * is not worth a slot — and new ones are refused while the queue is that
+ * slow.
+ */
+final class RequestEngine {
+
+    /** A unit of work that owns one concurrency slot until it calls {@code done}. */
+    interface Job {
+        /** Start the (asynchronous) work; must eventually run {@code done} exactly once. */
+        void start(Runnable done);
+
+        /** The job was shed from the queue and will never start. */
+        void drop();
+    }
+
+    private static final class Entry {
+        final AIClient.Priority priority;
+        final long seq;
+        final Job job;
+        final long enqueuedAt = System.nanoTime();
+
+        Entry(AIClient.Priority priority, long seq, Job job) {
+            this.priority = priority;
+            this.seq      = seq;
+            this.job      = job;
+        }
+
+        boolean staleLow(long now, long maxWaitNanos) {
+            return priority == AIClient.Priority.LOW && maxWaitNanos > 0 && now - enqueuedAt > maxWaitNanos;
+        }
+    }
+
+    // highest priority first, FIFO within a priority
+    private static final Comparator<Entry> ORDER = Comparator
+        .comparingInt((Entry e) -> e.priority.ordinal())
+        .thenComparingLong(e -> e.seq);
+
+    private final int maxConcurrent;
+    private final int queueCapacity;
+    private final long maxLowWaitNanos;
+    private final TreeSet<Entry> queue = new TreeSet<>(ORDER);
+    private final AtomicLong seq = new AtomicLong();
+    private int inFlight;
+    private boolean closed;
+
+    /** @param maxLowWaitMillis  queue wait after which LOW requests are dropped; 0 = never */
+    RequestEngine(int maxConcurrent, int queueCapacity, long maxLowWaitMillis) {
+        this.maxConcurrent   = Math.max(1, maxConcurrent);
+        this.queueCapacity   = Math.max(0, queueCapacity);
+        this.maxLowWaitNanos = Math.max(0, maxLowWaitMillis) * 1_000_000L;
+    }
+
+    /**
+     * Start {@code job} now if a slot is free, otherwise queue it.
+     * A full queue sheds its lowest-priority entry if that is strictly
+     * lower than {@code priority}; if not, the new job is rejected.
+     */
+    Admission submit(AIClient.Priority priority, Job job) {
+        Entry shed = null;
+        synchronized (this) {
+            if (closed) return Admission.REJECTED;
+            if (inFlight < maxConcurrent) {
+                inFlight++;
+            } else if (priority == AIClient.Priority.LOW
+                    && maxLowWaitNanos > 0 && oldestWaitNanos() > maxLowWaitNanos) {
+                return Admission.REJECTED;
+            } else if (queue.size() < queueCapacity) {
+                queue.add(new Entry(priority, seq.getAndIncrement(), job));
+                return Admission.ACCEPTED;
+            } else if (!queue.isEmpty()
+                    && queue.last().priority.ordinal() > priority.ordinal()) {
+                shed = queue.pollLast();
+                queue.add(new Entry(priority, seq.getAndIncrement(), job));
+            } else {
+                return Admission.REJECTED;
+            }
+        }
+        if (shed != null) {
+            shed.job.drop();
+        } else {
+            run(job);
+        }
+        return Admission.ACCEPTED;
+    }
+
+    private void run(Job job) {
+        Once done = new Once();
+        try {
+            job.start(done);
+        } catch (RuntimeException ex) {
+            // a job that blew up before going async still frees its slot
+            done.run();
+            throw ex;
+        }
+    }
+
+    private void release() {
+        Entry next;
+        List<Entry> stale = new ArrayList<>();
+        synchronized (this) {
+            // LOW sorts last, so ambient requests sit at the tail
+            long now = System.nanoTime();
+            for (Iterator<Entry> it = queue.descendingIterator(); it.hasNext(); ) {
+                Entry e = it.next();
+                if (e.priority != AIClient.Priority.LOW) break;
+                if (e.staleLow(now, maxLowWaitNanos)) {
+                    it.remove();
+                    stale.add(e);
+                }
+            }
+            next = queue.pollFirst();
+            if (next == null) inFlight--;
+        }
+        for (Entry e : stale) e.job.drop();
+        if (next != null) run(next.job);
+    }
+
+    /** How long the longest-waiting queued request has waited; caller holds the lock. */
+    private long oldestWaitNanos() {
+        long oldest = Long.MAX_VALUE;
+        for (Entry e : queue) oldest = Math.min(oldest, e.enqueuedAt);
+        return queue.isEmpty() ? 0 : System.nanoTime() - oldest;
+    }
+
+    /** Guards against a job releasing its slot twice. */
+    private final class Once implements Runnable {
+        private boolean fired;
+
+        @Override
+        public void run() {
+            synchronized (this) {
+                if (fired) return;
+                fired = true;
+            }
+            release();
+        }
+    }
+
+    synchronized int inFlight() { return inFlight; }
+
+    synchronized int queued() { return queue.size(); }
+
+    /** Wait of the longest-queued request, in milliseconds. */
+    synchronized long queueLatencyMillis() { return oldestWaitNanos() / 1_000_000L; }
+
+    /** True when a new request would have to wait for a slot. */
+    synchronized boolean saturated() { return inFlight >= maxConcurrent; }
+
+    /** Refuse new work and drop everything still waiting. */
+    void close() {
+        Entry[] pending;
+        synchronized (this) {
+            closed  = true;
+            pending = queue.toArray(new Entry[0]);
+            queue.clear();
+        }
+        for (Entry e : pending) e.job.drop();
+    }
+}
@@ -0,0 +1,170 @@
+package com.graphitact.chatai;
+
+import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Pre-serialized request envelope for the proxy.
+ *
+ * Everything that is the same on every call (model, temperature, max_tokens,
+ * stream flag, response_format schema, and the default system prompt) is
+ * rendered to UTF-8 once at startup. Per request only the system prompt
+ * (when overridden) and the messages array are written, with a JsonWriter
+ * into a per-thread reusable buffer; the result is one exact-size byte[] for
+ * the BodyPublisher.
+ */
+final class RequestEnvelope {
+    private static final byte[] SYSTEM_FIELD   = utf8("\"system\":");
+    private static final byte[] MESSAGES_FIELD = utf8(",\"messages\":");
+    private static final byte[] CLOSE          = utf8("}");
+
+    private static final ThreadLocal<Buffer> BUFFER = ThreadLocal.withInitial(Buffer::new);
+
+    // {"model":…,"temperature":…,"max_tokens":…,["stream":true,]"response_format":{…},
+    private final byte[] head;
+    private final String defaultSystem;
+    private final byte[] defaultSystemJson;
+
+    RequestEnvelope(String model,
+                    double temperature,
+                    int maxTokens,
+                    boolean stream,
+                    JsonObject responseFormat,
+                    String defaultSystem)
+    {
+        JsonObject fixed = new JsonObject();
+        fixed.addProperty("model",       model);
+        fixed.addProperty("temperature", temperature);
+        fixed.addProperty("max_tokens",  maxTokens);
+        if (stream) fixed.addProperty("stream", true);
+        fixed.add("response_format", responseFormat);
+        String json = fixed.toString();
+        // drop the closing brace so per-request fields can follow
+        this.head              = utf8(json.substring(0, json.length() - 1) + ",");
+        this.defaultSystem     = defaultSystem;
+        this.defaultSystemJson = utf8(quote(defaultSystem));
+    }
+
+    /**
+     * Render a request body.
+     * @param system   system prompt; the default one is copied pre-escaped
+     * @param turns    earlier turns, oldest first
+     * @param prompt   the new user message
+     */
+    byte[] render(String system, ConversationHistory.Entry[] turns, String prompt) {
+        Buffer buf = BUFFER.get();
+        buf.reset();
+        try {
+            buf.bytes.write(head);
+            buf.bytes.write(SYSTEM_FIELD);
+            if (system.equals(defaultSystem)) {
+                buf.bytes.write(defaultSystemJson);
+            } else {
+                JsonWriter w = buf.writer();
+                w.value(system);
+                w.flush();
+            }
+            buf.bytes.write(MESSAGES_FIELD);
+
+            JsonWriter w = buf.writer();
+            w.beginArray();
+            for (ConversationHistory.Entry e : turns) {
+                w.beginObject();
+                w.name("role").value(e.role().apiRole());
+                w.name("content").value(e.text());
+                w.endObject();
+            }
+            w.beginObject();
+            w.name("role").value("user");
+            w.name("content").value(prompt);
+            w.endObject();
+            w.endArray();
+            w.flush();
+
+            buf.bytes.write(CLOSE);
+        } catch (IOException ex) {
+            // the writer may still hold half-encoded chars; start clean next time
+            BUFFER.remove();
+            throw new UncheckedIOException(ex);
+        }
+        return buf.bytes.toByteArray();
+    }
+
+    /** JSON string literal for {@code s}, escaped the way Gson escapes values. */
+    static String quote(String s) {
+        try {
+            StringWriter out = new StringWriter(s.length() + 16);
+            JsonWriter w = new JsonWriter(out);
+            w.value(s);
+            w.flush();
+            return out.toString();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private static byte[] utf8(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** Per-thread scratch space: a growable byte buffer and a UTF-8 writer over it. */
+    private static final class Buffer {
+        final Bytes bytes = new Bytes();
+        final Writer chars = new OutputStreamWriter(bytes, StandardCharsets.UTF_8);
+
+        void reset() {
+            bytes.reset();
+        }
+
+        /** A fresh JsonWriter for one top-level value; JsonWriter itself is tiny. */
+        JsonWriter writer() {
+            JsonWriter w = new JsonWriter(chars);
+            w.setHtmlSafe(false);
+            return w;
+        }
+    }
+
+    /** ByteArrayOutputStream that hands out an exact-size copy without the sync overhead. */
+    private static final class Bytes extends ByteArrayOutputStream {
+        Bytes() {
+            super(8192);
+        }
+
+        @Override
+        public void write(byte[] b) {
+            write(b, 0, b.length);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            if (count + len > buf.length) buf = Arrays.copyOf(buf, Math.max(buf.length * 2, count + len));
+            System.arraycopy(b, off, buf, count, len);
+            count += len;
+        }
+
+        @Override
+        public void write(int b) {
+            if (count == buf.length) buf = Arrays.copyOf(buf, buf.length * 2);
+            buf[count++] = (byte) b;
+        }
+
+        @Override
+        public byte[] toByteArray() {
+            return Arrays.copyOf(buf, count);
+        }
+
+        @Override
+        public void reset() {
+            count = 0;
+        }
+    }
+}
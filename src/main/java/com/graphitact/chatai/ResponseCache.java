@@ -0,0 +1,150 @@
+package com.graphitact.chatai;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * LRU + TTL cache of replies to templated event prompts ("Say a fond farewell
+ * to {0}"). Entries are keyed by system prompt and template; the slot values
+ * (player names, world names) are cut out of stored replies and filled back
+ * in when a variant is served, so one cached farewell works for every player.
+ */
+final class ResponseCache {
+
+    /** Per-event policy for serving cached variants instead of asking the model. */
+    enum Mode {
+        /** always ask the model, never cache */
+        OFF,
+        /** reuse a cached variant only while the request engine is saturated */
+        BUSY,
+        /** reuse a cached variant once the entry holds its full set of variants */
+        ALWAYS;
+
+        static Mode parse(String s) {
+            try {
+                return valueOf(s.trim().toUpperCase());
+            } catch (RuntimeException ex) {
+                return OFF;
+            }
+        }
+    }
+
+    private static final class Variant {
+        final String text;
+        final long createdAt;
+
+        Variant(String text, long createdAt) {
+            this.text      = text;
+            this.createdAt = createdAt;
+        }
+    }
+
+    // marks where slot i was cut out of a stored reply
+    private static final char MARK = '\u0000';
+
+    private final int maxVariants;
+    private final long ttlMillis;
+    private final LinkedHashMap<Long, List<Variant>> entries;
+    private final AtomicLong hits   = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    ResponseCache(int maxEntries, long ttlMillis, int maxVariants) {
+        this.maxVariants = Math.max(1, maxVariants);
+        this.ttlMillis   = ttlMillis;
+        this.entries     = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, List<Variant>> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /** 64-bit FNV-1a over system prompt and template. */
+    static long key(String system, String template) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : (system + '\u0000' + template).getBytes(StandardCharsets.UTF_8)) {
+            h ^= (b & 0xff);
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+
+    /** Substitute {0}, {1}, … in a template. */
+    static String fill(String template, String... slots) {
+        String out = template;
+        for (int i = 0; i < slots.length; i++) out = out.replace("{" + i + "}", slots[i]);
+        return out;
+    }
+
+    /** True when the entry already holds its full set of fresh variants. */
+    synchronized boolean isFull(long key) {
+        List<Variant> vs = fresh(key);
+        return vs != null && vs.size() >= maxVariants;
+    }
+
+    /**
+     * A random fresh variant with the given slot values filled in, or null.
+     * Counts a hit or a miss.
+     */
+    synchronized String pick(long key, String... slots) {
+        List<Variant> vs = fresh(key);
+        if (vs == null || vs.isEmpty()) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        String text = vs.get(ThreadLocalRandom.current().nextInt(vs.size())).text;
+        for (int i = 0; i < slots.length; i++) {
+            text = text.replace(MARK + String.valueOf(i) + MARK, slots[i]);
+        }
+        return text;
+    }
+
+    /** Count a lookup that went to the model without trying the cache. */
+    void miss() {
+        misses.incrementAndGet();
+    }
+
+    /** Remember a model reply, with the slot values it mentions cut out. */
+    synchronized void put(long key, String reply, String... slots) {
+        String text = reply;
+        for (int i = 0; i < slots.length; i++) {
+            if (slots[i].isBlank()) continue;
+            // whole words only, so slot "Al" doesn't eat "Always"
+            Matcher m = Pattern.compile("\\b" + Pattern.quote(slots[i]) + "\\b").matcher(text);
+            text = m.replaceAll(Matcher.quoteReplacement(MARK + String.valueOf(i) + MARK));
+        }
+        List<Variant> vs = entries.computeIfAbsent(key, k -> new ArrayList<>(maxVariants));
+        if (vs.size() >= maxVariants) vs.remove(0);
+        vs.add(new Variant(text, System.currentTimeMillis()));
+    }
+
+    /** The entry's variants with expired ones dropped; null if none are left. */
+    private List<Variant> fresh(long key) {
+        List<Variant> vs = entries.get(key);
+        if (vs == null) return null;
+        long cutoff = System.currentTimeMillis() - ttlMillis;
+        for (Iterator<Variant> it = vs.iterator(); it.hasNext(); ) {
+            if (it.next().createdAt < cutoff) it.remove();
+        }
+        if (vs.isEmpty()) {
+            entries.remove(key);
+            return null;
+        }
+        return vs;
+    }
+
+    long hits()   { return hits.get(); }
+
+    long misses() { return misses.get(); }
+
+    synchronized int size() { return entries.size(); }
+}
@@ -0,0 +1,254 @@
+package com.graphitact.chatai;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Pulls the reply out of a proxy response with a streaming JsonReader.
+ *
+ * Only the known answer paths are walked — {@code answer},
+ * {@code choices[0].data.answer}, {@code choices[0].message.content},
+ * {@code choices[0].text}, {@code response} — everything else is skipped
+ * without being materialized, so no JSON tree of the (up to max-tokens
+ * sized) body is ever built. The paths are tried in that order whatever
+ * order the keys come in, and an {@code error} key outranks them all, so the
+ * body is read to its end unless an error turns up first.
+ */
+final class ResponseParser {
+    private ResponseParser() {}
+
+    /** Token counts from the proxy's {@code usage} field; zero when it sent none. */
+    static final class Usage {
+        int promptTokens;
+        int completionTokens;
+    }
+
+    /** The reply text, or "" for an error body or an unknown shape. */
+    static String answer(Reader body) throws IOException {
+        return answer(body, null);
+    }
+
+    /**
+     * Like {@link #answer(Reader)}; with a {@code usage} holder the body is
+     * read to the end (usage usually follows the choices) and the token
+     * counts are filled in.
+     */
+    static String answer(Reader body, Usage usage) throws IOException {
+        JsonReader in = new JsonReader(body);
+        if (in.peek() != JsonToken.BEGIN_OBJECT) return "";
+        in.beginObject();
+        boolean error = false;
+        String answer = null, choice = null, response = null;
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                // 1) top-level error: nothing else in the body counts
+                case "error"    -> {
+                    if (usage == null) return "";
+                    in.skipValue();
+                    error = true;
+                }
+                // 2) JSON-schema top-level: { "answer": "…" }
+                case "answer"   -> answer = string(in);
+                // 3) choices[0]: data.answer, message.content, or legacy text
+                case "choices"  -> choice = firstChoice(in);
+                // 4) LM Studio legacy
+                case "response" -> response = string(in);
+                case "usage"    -> readUsage(in, usage);
+                default         -> in.skipValue();
+            }
+        }
+        if (error) return "";
+        if (answer != null) return answer;
+        if (choice != null) return choice;
+        // nothing matched — avoid dumping JSON
+        return response != null ? response : "";
+    }
+
+    /** Answers of a batched call by request id; ids the model skipped get no entry. */
+    static Map<String, String> answers(Reader body) throws IOException {
+        return answers(body, null);
+    }
+
+    /** Like {@link #answers(Reader)}, filling in {@code usage} if given. */
+    static Map<String, String> answers(Reader body, Usage usage) throws IOException {
+        Map<String, String> out = new HashMap<>();
+        JsonReader in = new JsonReader(body);
+        if (in.peek() != JsonToken.BEGIN_OBJECT) return out;
+        in.beginObject();
+        boolean error = false, done = false;
+        while (in.hasNext()) {
+            String name = in.nextName();
+            if (name.equals("usage")) {
+                readUsage(in, usage);
+                continue;
+            }
+            if (name.equals("error")) {
+                // outranks answers wherever it comes
+                out.clear();
+                if (usage == null) return out;
+                in.skipValue();
+                error = true;
+                continue;
+            }
+            if (done || error) {
+                in.skipValue();
+                continue;
+            }
+            switch (name) {
+                case "answers" -> { readAnswers(in, out); done = true; }
+                case "choices" -> { choiceAnswers(in, out); done = true; }
+                default        -> in.skipValue();
+            }
+        }
+        return out;
+    }
+
+    /** Batch answers from the first element of {@code choices}; consumes the array. */
+    private static void choiceAnswers(JsonReader in, Map<String, String> out) throws IOException {
+        if (in.peek() != JsonToken.BEGIN_ARRAY) { in.skipValue(); return; }
+        in.beginArray();
+        boolean first = true;
+        while (in.hasNext()) {
+            if (!first || in.peek() != JsonToken.BEGIN_OBJECT) { in.skipValue(); continue; }
+            first = false;
+            boolean found = false;
+            in.beginObject();
+            while (in.hasNext()) {
+                String name = in.nextName();
+                if (found) { in.skipValue(); continue; }
+                switch (name) {
+                    case "data"    -> {
+                        if (in.peek() != JsonToken.BEGIN_OBJECT) { in.skipValue(); continue; }
+                        in.beginObject();
+                        while (in.hasNext()) {
+                            if (in.nextName().equals("answers")) { readAnswers(in, out); found = true; }
+                            else in.skipValue();
+                        }
+                        in.endObject();
+                    }
+                    case "message" -> {
+                        String content = field(in, "content");
+                        if (content != null) {
+                            out.putAll(answers(new StringReader(content.trim())));
+                            found = true;
+                        }
+                    }
+                    default        -> in.skipValue();
+                }
+            }
+            in.endObject();
+        }
+        in.endArray();
+    }
+
+    private static void readAnswers(JsonReader in, Map<String, String> out) throws IOException {
+        if (in.peek() != JsonToken.BEGIN_ARRAY) { in.skipValue(); return; }
+        in.beginArray();
+        while (in.hasNext()) {
+            if (in.peek() != JsonToken.BEGIN_OBJECT) { in.skipValue(); continue; }
+            String id = null, answer = null;
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "id"     -> id = string(in);
+                    case "answer" -> answer = string(in);
+                    default       -> in.skipValue();
+                }
+            }
+            in.endObject();
+            if (id != null && answer != null) out.put(id, answer);
+        }
+        in.endArray();
+    }
+
+    /** {@code usage: {prompt_tokens, completion_tokens}}, or skipped if nobody asked. */
+    private static void readUsage(JsonReader in, Usage usage) throws IOException {
+        if (usage == null || in.peek() != JsonToken.BEGIN_OBJECT) { in.skipValue(); return; }
+        in.beginObject();
+        while (in.hasNext()) {
+            String name = in.nextName();
+            if (in.peek() != JsonToken.NUMBER) { in.skipValue(); continue; }
+            switch (name) {
+                case "prompt_tokens"     -> usage.promptTokens     = in.nextInt();
+                case "completion_tokens" -> usage.completionTokens = in.nextInt();
+                default                  -> in.skipValue();
+            }
+        }
+        in.endObject();
+    }
+
+    /** Reply from the first element of {@code choices}, or null if it has none; consumes the array. */
+    private static String firstChoice(JsonReader in) throws IOException {
+        if (in.peek() != JsonToken.BEGIN_ARRAY) { in.skipValue(); return null; }
+        in.beginArray();
+        // tried in this order, whatever order they come in
+        String data = null, message = null, text = null;
+        boolean first = true;
+        while (in.hasNext()) {
+            if (!first || in.peek() != JsonToken.BEGIN_OBJECT) { in.skipValue(); continue; }
+            first = false;
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    // new style: { choices:[{ data:{ answer } }] }
+                    case "data" -> data = field(in, "answer");
+                    // OpenAI-style chat.completions: choices[].message.content
+                    case "message" -> {
+                        String raw = field(in, "content");
+                        if (raw != null) message = unwrap(raw.trim());
+                    }
+                    // legacy OpenAI "text" field
+                    case "text" -> text = string(in);
+                    default -> in.skipValue();
+                }
+            }
+            in.endObject();
+        }
+        in.endArray();
+        return data != null ? data : message != null ? message : text;
+    }
+
+    /** If the LLM wrapped our JSON-schema in a string, pull the answer out; else the raw text. */
+    private static String unwrap(String raw) {
+        if (!(raw.startsWith("{") && raw.endsWith("}"))) return raw;
+        try {
+            JsonReader inner = new JsonReader(new StringReader(raw));
+            inner.beginObject();
+            while (inner.hasNext()) {
+                if (inner.nextName().equals("answer")) return string(inner);
+                inner.skipValue();
+            }
+        } catch (IOException | IllegalStateException ignored) { /* fall through to return raw */ }
+        return raw;
+    }
+
+    /** Non-null value of {@code name} in the object that comes next, or null; consumes the object. */
+    private static String field(JsonReader in, String name) throws IOException {
+        if (in.peek() != JsonToken.BEGIN_OBJECT) { in.skipValue(); return null; }
+        String value = null;
+        in.beginObject();
+        while (in.hasNext()) {
+            boolean match = in.nextName().equals(name);
+            if (match && value == null && in.peek() != JsonToken.NULL) value = string(in);
+            else in.skipValue();
+        }
+        in.endObject();
+        return value;
+    }
+
+    /** Current value as text; numbers and booleans are stringified, null becomes "". */
+    private static String string(JsonReader in) throws IOException {
+        switch (in.peek()) {
+            case STRING, NUMBER -> { return in.nextString(); }
+            case BOOLEAN        -> { return String.valueOf(in.nextBoolean()); }
+            case NULL           -> { in.nextNull(); return ""; }
+            default             -> { in.skipValue(); return ""; }
+        }
+    }
+}
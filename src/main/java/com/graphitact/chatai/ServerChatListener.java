@@ -1,9 +1,9 @@
 package com.graphitact.chatai;
 
-import org.bukkit.Bukkit;
 import org.bukkit.ChatColor;
 import org.bukkit.World;
 import org.bukkit.advancement.Advancement;
+import org.bukkit.entity.Player;
 import org.bukkit.event.Listener;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.player.AsyncPlayerChatEvent;
@@ -14,58 +14,69 @@ import org.bukkit.event.entity.PlayerDeathEvent;
 import org.bukkit.event.weather.WeatherChangeEvent;
 import org.bukkit.plugin.java.JavaPlugin;
 
-import java.util.Deque;
-import java.util.LinkedList;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 
 public class ServerChatListener implements Listener {
     private static final UUID SERVER_ID = new UUID(0L,0L);
+    private static final int SERVER_HISTORY = 20;
+    private static final int PLAYER_HISTORY = 6;
 
     private final JavaPlugin plugin;
     private final AIClient   ai;
-    private final ConcurrentHashMap<UUID,Deque<String>> history = new ConcurrentHashMap<>();
-
-    public ServerChatListener(JavaPlugin plugin, AIClient ai) {
-        this.plugin = plugin;
-        this.ai     = ai;
-        history.putIfAbsent(SERVER_ID, new LinkedList<>());
+    private final PlaceholderEngine placeholders;
+    private final ReplyDelivery delivery;
+    private final MainThreadQueue mainThread;
+    private final ConcurrentHashMap<UUID,ConversationHistory> history = new ConcurrentHashMap<>();
+
+    public ServerChatListener(JavaPlugin plugin, AIClient ai, PlaceholderEngine placeholders,
+                              MainThreadQueue mainThread) {
+        this.plugin       = plugin;
+        this.ai           = ai;
+        this.placeholders = placeholders;
+        this.delivery     = new ReplyDelivery(plugin, "server-reply", ReplyDelivery.Scope.GLOBAL);
+        this.mainThread   = mainThread;
+        history.putIfAbsent(SERVER_ID, new ConversationHistory(SERVER_HISTORY));
     }
 
-    private Deque<String> serverHistory() {
-        return history.computeIfAbsent(SERVER_ID, k -> new LinkedList<>());
+    private ConversationHistory serverHistory() {
+        return history.computeIfAbsent(SERVER_ID, k -> new ConversationHistory(SERVER_HISTORY));
     }
 
-    private void sendEventPrompt(UUID id, Deque<String> h, String prompt) {
-        if (h.size() >= 20) h.removeFirst();
-        h.addLast("System: " + prompt);
+    private void sendEventPrompt(String event, UUID id, ConversationHistory h, String template, String... slots) {
+        // ambient chatter goes to the back of the queue and is shed first
+        AIClient.Admission admitted = ai.askEvent(event, id, h, template, slots, AIClient.Priority.LOW,
+            text -> delivery.broadcast(format(text)),
+            reply -> {});
+        // a cached reply is already queued ahead of where "Thinking..." would go
+        if (admitted != AIClient.Admission.ACCEPTED) return;
 
-        Bukkit.getScheduler().runTask(plugin, () ->
-            Bukkit.broadcastMessage(ChatColor.GRAY + "[AI] Thinking...")
+        mainThread.post(() ->
+            delivery.broadcast(ChatColor.GRAY + "[AI] Thinking...")
         );
-        ai.ask(id, h, prompt, reply -> {
-            if (reply.isBlank()) return;
-            String filled = ChatAIPlugin.processPlaceholders(reply);
-            Bukkit.broadcastMessage(ChatColor.YELLOW + "[AI] " + filled);
-            h.addLast("Assistant: " + reply);
-            if (h.size() > 20) h.removeFirst();
-        });
+    }
+
+    /** An event reply to everyone: no player of its own. */
+    private String format(String text) {
+        return format(text, PlaceholderEngine.Context.NONE);
+    }
+
+    private String format(String text, PlaceholderEngine.Context ctx) {
+        return ChatColor.YELLOW + "[AI] " + placeholders.render(text, ctx);
     }
 
     @EventHandler
     public void onPlayerJoin(PlayerJoinEvent evt) {
-        String prompt = "Write a short, unique welcome for player "
-                      + evt.getPlayer().getName()
-                      + ". Keep it under 25 words.";
-        sendEventPrompt(SERVER_ID, serverHistory(), prompt);
+        sendEventPrompt("join", SERVER_ID, serverHistory(),
+            "Write a short, unique welcome for player {0}. Keep it under 25 words.",
+            evt.getPlayer().getName());
     }
 
     @EventHandler
     public void onPlayerQuit(PlayerQuitEvent evt) {
-        String prompt = "Say a fond farewell to "
-                      + evt.getPlayer().getName()
-                      + " as they leave the server.";
-        sendEventPrompt(SERVER_ID, serverHistory(), prompt);
+        sendEventPrompt("quit", SERVER_ID, serverHistory(),
+            "Say a fond farewell to {0} as they leave the server.",
+            evt.getPlayer().getName());
     }
 
     @EventHandler
@@ -74,29 +85,32 @@ public class ServerChatListener implements Listener {
         String killer = evt.getEntity().getKiller() != null
                       ? evt.getEntity().getKiller().getName()
                       : null;
-        String prompt = (killer == null)
-                      ? victim + " has fallen... comment briefly."
-                      : victim + " was slain by " + killer + ". Give a witty remark.";
-        sendEventPrompt(SERVER_ID, serverHistory(), prompt);
+        if (killer == null) {
+            sendEventPrompt("death", SERVER_ID, serverHistory(),
+                "{0} has fallen... comment briefly.", victim);
+        } else {
+            sendEventPrompt("death", SERVER_ID, serverHistory(),
+                "{0} was slain by {1}. Give a witty remark.", victim, killer);
+        }
     }
 
     @EventHandler
     public void onAdvancement(PlayerAdvancementDoneEvent evt) {
         Advancement adv = evt.getAdvancement();
         String key = adv.getKey().getKey().replace('_',' ');
-        String prompt = evt.getPlayer().getName()
-                      + " just achieved “" + key + "”. Congratulate them!";
-        sendEventPrompt(SERVER_ID, serverHistory(), prompt);
+        // the advancement is part of the template: same advancement, same cache entry
+        sendEventPrompt("advancement", SERVER_ID, serverHistory(),
+            "{0} just achieved “" + key + "”. Congratulate them!",
+            evt.getPlayer().getName());
     }
 
     @EventHandler
     public void onWeatherChange(WeatherChangeEvent evt) {
         World w = evt.getWorld();
         String state = evt.toWeatherState() ? "rain" : "clear skies";
-        String prompt = "The weather in " + w.getName()
-                      + " has changed to " + state
-                      + ". Comment on it.";
-        sendEventPrompt(SERVER_ID, serverHistory(), prompt);
+        sendEventPrompt("weather", SERVER_ID, serverHistory(),
+            "The weather in {0} has changed to " + state + ". Comment on it.",
+            w.getName());
     }
 
     @EventHandler
@@ -109,20 +123,33 @@ public class ServerChatListener implements Listener {
 
         evt.setCancelled(true);
         String name = evt.getPlayer().getName();
-        Bukkit.getScheduler().runTask(plugin, () ->
-            Bukkit.broadcastMessage(ChatColor.GRAY + name + ": " + msg)
+        mainThread.post(() ->
+            delivery.broadcast(ChatColor.GRAY + name + ": " + msg)
         );
 
-        Bukkit.getScheduler().runTask(plugin, () ->
-            Bukkit.broadcastMessage(ChatColor.GRAY + "[AI] Thinking...")
+        // the answer goes to server-reply-scope around the player who asked
+        Player player = evt.getPlayer();
+        // player placeholders like {{quest_status}} are about the one who asked
+        PlaceholderEngine.Context ctx = new PlaceholderEngine.Context(pid, null);
+        ConversationHistory h = history.computeIfAbsent(pid, k -> new ConversationHistory(PLAYER_HISTORY));
+        AIClient.Admission admitted = ai.ask(pid, h, msg, AIClient.Priority.NORMAL,
+            text -> delivery.send(player, null, format(text, ctx)),
+            reply -> {});
+
+        if (admitted == AIClient.Admission.RATE_LIMITED) {
+            mainThread.post(() ->
+                player.sendMessage(ChatColor.GRAY + "[AI] You're sending messages too fast, slow down a little.")
+            );
+            return;
+        }
+        if (admitted == AIClient.Admission.REJECTED) {
+            mainThread.post(() ->
+                player.sendMessage(ChatColor.GRAY + "[AI] I'm swamped right now, ask me again in a moment.")
+            );
+            return;
+        }
+        mainThread.post(() ->
+            delivery.send(player, null, ChatColor.GRAY + "[AI] Thinking...")
         );
-
-        Deque<String> h = history.computeIfAbsent(pid, k -> new LinkedList<>());
-        if (h.size() >= 6) h.removeFirst();
-        ai.ask(pid, h, msg, reply -> {
-            if (reply.isBlank()) return;
-            String filled = ChatAIPlugin.processPlaceholders(reply);
-            Bukkit.broadcastMessage(ChatColor.YELLOW + "[AI] " + filled);
-        });
     }
 }
@@ -0,0 +1,156 @@
+package com.graphitact.chatai;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.util.concurrent.Flow;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Reads a {@code stream: true} server-sent-event response line by line and
+ * hands the reply out in sentence-sized pieces as soon as they are complete.
+ *
+ * If the proxy ignores {@code stream} and answers with one plain JSON body,
+ * the lines are collected and run through the normal parser at the end.
+ */
+final class SseReplySubscriber implements Flow.Subscriber<String> {
+    // don't emit tiny fragments like "Oh." on their own
+    private static final int MIN_CHUNK = 24;
+
+    private final Consumer<String> onChunk;
+    private final Runnable onFirstByte;
+    private final ResponseParser.Usage usage;
+    private final Function<String, String> fallbackParser;
+    private final AnswerStreamDecoder decoder = new AnswerStreamDecoder();
+    private final StringBuilder answer  = new StringBuilder();
+    private final StringBuilder pending = new StringBuilder();
+    private final StringBuilder nonSse  = new StringBuilder();
+    private boolean sawEvents, sawBytes;
+
+    /**
+     * @param onChunk         receives each finished sentence group, in order
+     * @param onFirstByte     runs once, when the first line arrives
+     * @param usage           filled in from a {@code usage} object in the events, if any
+     * @param fallbackParser  full-body parser used when the proxy did not stream
+     */
+    SseReplySubscriber(Consumer<String> onChunk,
+                       Runnable onFirstByte,
+                       ResponseParser.Usage usage,
+                       Function<String, String> fallbackParser)
+    {
+        this.onChunk        = onChunk;
+        this.onFirstByte    = onFirstByte;
+        this.usage          = usage;
+        this.fallbackParser = fallbackParser;
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        subscription.request(Long.MAX_VALUE);
+    }
+
+    @Override
+    public void onNext(String line) {
+        if (!sawBytes) {
+            sawBytes = true;
+            onFirstByte.run();
+        }
+        if (!line.startsWith("data:")) {
+            // SSE comments, event names and blank separators are skipped;
+            // anything else is probably a non-streamed JSON body
+            if (!line.isBlank() && !line.startsWith(":") && !line.startsWith("event:")) {
+                nonSse.append(line).append('\n');
+            }
+            return;
+        }
+        sawEvents = true;
+        String data = line.substring(5).trim();
+        if (data.isEmpty() || data.equals("[DONE]")) return;
+
+        String delta;
+        try {
+            JsonObject evt = JsonParser.parseString(data).getAsJsonObject();
+            // OpenAI-style streams send token counts on the last event
+            if (evt.has("usage") && evt.get("usage").isJsonObject()) readUsage(evt.getAsJsonObject("usage"));
+            delta = delta(evt);
+        } catch (RuntimeException ex) {
+            return; // a malformed event costs us a token, not the reply
+        }
+        if (delta.isEmpty()) return;
+
+        String text = decoder.feed(delta);
+        if (text.isEmpty()) return;
+        answer.append(text);
+        pending.append(text);
+        emitSentences();
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        // the HTTP future reports the failure; nothing to flush
+    }
+
+    @Override
+    public void onComplete() {
+        if (!sawEvents && nonSse.length() > 0) {
+            String whole = fallbackParser.apply(nonSse.toString());
+            answer.append(whole);
+            pending.append(whole);
+        }
+        String rest = pending.toString().strip();
+        pending.setLength(0);
+        if (!rest.isEmpty()) onChunk.accept(rest);
+    }
+
+    /** The complete reply, valid after {@link #onComplete()}. */
+    String answer() {
+        return answer.toString().strip();
+    }
+
+    /** Emit everything up to the last sentence end once enough text has piled up. */
+    private void emitSentences() {
+        if (pending.length() < MIN_CHUNK) return;
+        int cut = -1;
+        for (int i = pending.length() - 2; i >= MIN_CHUNK - 1; i--) {
+            char c = pending.charAt(i);
+            if ((c == '.' || c == '!' || c == '?' || c == '\n')
+                && Character.isWhitespace(pending.charAt(i + 1))) {
+                cut = i + 1;
+                break;
+            }
+        }
+        if (cut < 0) return;
+        String chunk = pending.substring(0, cut).strip();
+        pending.delete(0, cut);
+        if (!chunk.isEmpty()) onChunk.accept(chunk);
+    }
+
+    /** Text delta of one SSE event across the shapes LM Studio / OpenAI / Ollama emit. */
+    private static String delta(JsonObject evt) {
+        if (evt.has("choices")) {
+            JsonArray arr = evt.getAsJsonArray("choices");
+            if (arr.isEmpty()) return "";
+            JsonObject first = arr.get(0).getAsJsonObject();
+            if (first.has("delta")) {
+                JsonObject d = first.getAsJsonObject("delta");
+                return d.has("content") ? string(d.get("content")) : "";
+            }
+            if (first.has("text")) return string(first.get("text"));
+            return "";
+        }
+        if (evt.has("response")) return string(evt.get("response"));
+        return "";
+    }
+
+    private void readUsage(JsonObject u) {
+        if (u.has("prompt_tokens"))     usage.promptTokens     = u.get("prompt_tokens").getAsInt();
+        if (u.has("completion_tokens")) usage.completionTokens = u.get("completion_tokens").getAsInt();
+    }
+
+    private static String string(JsonElement e) {
+        return e == null || e.isJsonNull() ? "" : e.getAsString();
+    }
+}
@@ -0,0 +1,124 @@
+package com.graphitact.chatai;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Tick-based hashed timing wheel for deadlines that keep getting pushed back,
+ * such as villager conversation timeouts.
+ *
+ * A {@link Timer} is made once per thing being timed and then re-armed as
+ * often as needed: {@link Timer#schedule} unlinks it from its slot and links
+ * it into the new one, with no allocation and no scheduler task. One
+ * repeating task calls {@link #tick} every server tick and runs whatever is
+ * due. Deadlines further out than the wheel is wide simply stay in their
+ * slot for more turns.
+ *
+ * Main thread only.
+ */
+final class TimingWheel {
+    // power of two; 256 ticks is a little under 13 seconds per turn
+    private static final int SLOTS = 256;
+    private static final int MASK  = SLOTS - 1;
+
+    /** One re-armable deadline. */
+    final class Timer {
+        private final Runnable action;
+        private long deadline;
+        // intrusive list of the slot this timer is in; slot < 0 = not pending
+        private Timer prev, next;
+        private int slot = -1;
+        // taken off the wheel by tick() and not yet run
+        private boolean due;
+
+        private Timer(Runnable action) {
+            this.action = action;
+        }
+
+        /** Run the action {@code delayTicks} from now, replacing any earlier deadline. */
+        void schedule(long delayTicks) {
+            unlink();
+            due = false;
+            deadline = now + Math.max(1, delayTicks);
+            link((int) (deadline & MASK));
+        }
+
+        void cancel() {
+            unlink();
+            due = false;
+        }
+
+        /** Ticks until the action runs; 0 if it is not pending. */
+        long remainingTicks() {
+            return slot >= 0 ? deadline - now : 0;
+        }
+
+        private void link(int s) {
+            slot = s;
+            prev = null;
+            next = heads[s];
+            if (next != null) next.prev = this;
+            heads[s] = this;
+            pending++;
+        }
+
+        private void unlink() {
+            if (slot < 0) return;
+            if (prev != null) prev.next = next;
+            else heads[slot] = next;
+            if (next != null) next.prev = prev;
+            prev = next = null;
+            slot = -1;
+            pending--;
+        }
+    }
+
+    private final Logger log;
+    private final Timer[] heads = new Timer[SLOTS];
+    private final List<Timer> firing = new ArrayList<>();
+    private long now;
+    private int pending;
+
+    TimingWheel(Logger log) {
+        this.log = log;
+    }
+
+    /** A timer that is not armed yet. */
+    Timer newTimer(Runnable action) {
+        return new Timer(action);
+    }
+
+    /** Advance one tick and run every timer that is now due. */
+    void tick() {
+        now++;
+        // take everything due off the wheel first: actions may re-arm or
+        // cancel any timer, including ones due in this same tick
+        for (Timer t = heads[(int) (now & MASK)]; t != null; ) {
+            Timer next = t.next;
+            if (t.deadline <= now) {
+                t.unlink();
+                t.due = true;
+                firing.add(t);
+            }
+            t = next;
+        }
+        for (int i = 0; i < firing.size(); i++) {
+            Timer t = firing.get(i);
+            if (!t.due) continue;
+            t.due = false;
+            try {
+                t.action.run();
+            } catch (RuntimeException ex) {
+                log.log(Level.WARNING, "Timer action failed", ex);
+            }
+        }
+        firing.clear();
+    }
+
+    /** Timers currently armed. */
+    int pending() {
+        return pending;
+    }
+}
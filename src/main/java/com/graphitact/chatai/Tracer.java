@@ -0,0 +1,242 @@
+package com.graphitact.chatai;
+
+import com.google.gson.stream.JsonWriter;
+import org.bukkit.plugin.Plugin;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records request/response exchanges with the proxy, in place of logging
+ * every body at INFO.
+ *
+ * The last {@code trace-buffer-size} exchanges are kept in memory (the
+ * request body is kept as the bytes that were sent, and only turned into
+ * text when someone looks at it), so {@code /chatai trace <player>} can show
+ * what a player just got. A sample of them, and every failed one, also goes
+ * to a rotating JSON-lines trace file. All file I/O happens on one
+ * background thread; when it falls behind, traces are dropped rather than
+ * slowing requests down.
+ */
+final class Tracer {
+    private static final DateTimeFormatter STAMP = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+
+    /** One exchange. Filled in on completion by {@link #end}. */
+    static final class Trace {
+        final long startMillis = System.currentTimeMillis();
+        final long startNanos  = System.nanoTime();
+        final AIClient.Priority cls;
+        final String kind;
+        final List<UUID> players;
+        final String prompt;
+        final byte[] request;
+        // written once by end(), before the trace is published to the ring
+        String response = "";
+        String error;
+        long millis;
+
+        private Trace(AIClient.Priority cls, String kind, List<UUID> players, String prompt, byte[] request) {
+            this.cls     = cls;
+            this.kind    = kind;
+            this.players = players;
+            this.prompt  = prompt;
+            this.request = request;
+        }
+    }
+
+    private final Plugin plugin;
+    // ring of finished traces; guarded by this
+    private final Trace[] ring;
+    private int head, size;
+
+    private final double sampleRate;
+    private final Path file;
+    private final long maxFileBytes;
+    private final int files;
+    private final ThreadPoolExecutor io;
+    private final LongAdder dropped = new LongAdder();
+    // io thread only
+    private BufferedWriter out;
+    private long written;
+
+    Tracer(Plugin plugin) {
+        this.plugin       = plugin;
+        this.ring         = new Trace[Math.max(0, plugin.getConfig().getInt("trace-buffer-size", 200))];
+        this.sampleRate   = plugin.getConfig().getDouble("trace-sample-rate", 0.05);
+        this.maxFileBytes = Math.max(64, plugin.getConfig().getLong("trace-file-max-kb", 2048)) * 1024L;
+        this.files        = Math.max(1, plugin.getConfig().getInt("trace-file-count", 3));
+        String name       = plugin.getConfig().getString("trace-file", "trace.log");
+        this.file = name == null || name.isBlank() ? null : new File(plugin.getDataFolder(), name).toPath();
+        // bounded hand-off: a slow disk costs traces, never request latency
+        this.io = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(1024), r -> {
+            Thread t = new Thread(r, "ChatAI-Trace");
+            t.setDaemon(true);
+            return t;
+        }, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Start tracing a request that is about to be sent, or null if tracing
+     * is off entirely.
+     * @param players  players the request is for; null ids are skipped
+     * @param prompt   short description of what was asked, for the chat dump
+     */
+    Trace begin(AIClient.Priority cls, String kind, List<UUID> players, String prompt, byte[] request) {
+        if (ring.length == 0 && (file == null || sampleRate <= 0)) return null;
+        List<UUID> ids = new ArrayList<>(players.size());
+        for (UUID id : players) if (id != null) ids.add(id);
+        return new Trace(cls, kind, ids, prompt, request);
+    }
+
+    /** Finish a trace; {@code error} is null on success. */
+    void end(Trace t, String response, Throwable error) {
+        if (t == null) return;
+        t.millis   = (System.nanoTime() - t.startNanos) / 1_000_000;
+        t.response = response == null ? "" : response;
+        if (error != null) t.error = String.valueOf(error.getMessage() != null ? error.getMessage() : error);
+        if (ring.length > 0) {
+            synchronized (this) {
+                ring[(head + size) % ring.length] = t;
+                if (size < ring.length) size++;
+                else head = (head + 1) % ring.length;
+            }
+        }
+        if (file != null && (error != null || ThreadLocalRandom.current().nextDouble() < sampleRate)) {
+            try {
+                io.execute(() -> append(t));
+            } catch (RejectedExecutionException e) {
+                dropped.increment();
+            }
+        }
+    }
+
+    /** The player's most recent exchanges still in memory, newest first. */
+    synchronized List<Trace> recent(UUID player, int max) {
+        List<Trace> out = new ArrayList<>();
+        for (int i = size - 1; i >= 0 && out.size() < max; i--) {
+            Trace t = ring[(head + i) % ring.length];
+            if (t.players.contains(player)) out.add(t);
+        }
+        return out;
+    }
+
+    /**
+     * Write full records of {@code traces} to their own file next to the
+     * trace file, in the background. Returns the file name, or null if the
+     * trace thread is too far behind to take it.
+     */
+    String dump(String playerName, List<Trace> traces) {
+        String name = "trace-" + playerName + "-" + LocalDateTime.now().format(STAMP) + ".jsonl";
+        Path target = new File(plugin.getDataFolder(), name).toPath();
+        try {
+            io.execute(() -> {
+                try (BufferedWriter w = Files.newBufferedWriter(target, StandardCharsets.UTF_8)) {
+                    for (Trace t : traces) write(w, t);
+                } catch (IOException e) {
+                    plugin.getLogger().warning("Writing " + name + " failed: " + e.getMessage());
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            return null;
+        }
+        return name;
+    }
+
+    /** Traces not written because the trace thread was behind. */
+    long dropped() {
+        return dropped.sum();
+    }
+
+    /** Write what is queued and close the file; call from onDisable. */
+    void close() {
+        io.shutdown();
+        try {
+            if (!io.awaitTermination(5, TimeUnit.SECONDS)) io.shutdownNow();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            if (out != null) out.close();
+        } catch (IOException e) {
+            plugin.getLogger().warning("Closing trace file failed: " + e.getMessage());
+        }
+    }
+
+    private void append(Trace t) {
+        try {
+            if (out == null) {
+                Files.createDirectories(file.toAbsolutePath().getParent());
+                out = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+                written = Files.size(file);
+            }
+            written += write(out, t);
+            // flush per record so a crash loses at most the one being written
+            out.flush();
+            if (written >= maxFileBytes) rotate();
+        } catch (IOException e) {
+            plugin.getLogger().warning("Writing trace failed: " + e.getMessage());
+        }
+    }
+
+    /** trace.log → trace.log.1 → … → trace.log.(files-1); the oldest is deleted. */
+    private void rotate() throws IOException {
+        out.close();
+        out = null;
+        Path oldest = file.resolveSibling(file.getFileName() + "." + (files - 1));
+        Files.deleteIfExists(oldest);
+        for (int i = files - 2; i >= 1; i--) {
+            Path from = file.resolveSibling(file.getFileName() + "." + i);
+            if (Files.exists(from)) {
+                Files.move(from, file.resolveSibling(file.getFileName() + "." + (i + 1)), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        if (files > 1) Files.move(file, file.resolveSibling(file.getFileName() + ".1"), StandardCopyOption.REPLACE_EXISTING);
+        else Files.deleteIfExists(file);
+    }
+
+    /** One JSON line; returns its length in characters, near enough its size in bytes. */
+    private static long write(Writer w, Trace t) throws IOException {
+        StringWriter line = new StringWriter(t.request.length + t.response.length() + 256);
+        JsonWriter j = new JsonWriter(line);
+        j.setHtmlSafe(false);
+        j.beginObject();
+        j.name("time").value(Instant.ofEpochMilli(t.startMillis).atZone(ZoneId.systemDefault()).toOffsetDateTime().toString());
+        j.name("class").value(t.cls.name());
+        j.name("kind").value(t.kind);
+        j.name("players").beginArray();
+        for (UUID id : t.players) j.value(id.toString());
+        j.endArray();
+        j.name("ms").value(t.millis);
+        if (t.error != null) j.name("error").value(t.error);
+        // the body is JSON we built ourselves, so it is embedded as-is
+        j.name("request").jsonValue(new String(t.request, StandardCharsets.UTF_8));
+        j.name("response").value(t.response);
+        j.endObject();
+        j.flush();
+        line.write('\n');
+        w.write(line.toString());
+        return line.getBuffer().length();
+    }
+}
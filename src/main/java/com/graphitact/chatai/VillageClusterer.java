@@ -0,0 +1,94 @@
+package com.graphitact.chatai;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Groups villagers into villages: two villagers belong to the same village
+ * when a chain of villagers, each within {@code radius} of the next, links
+ * them (same result as the old BFS).
+ *
+ * Positions are bucketed into a grid of {@code radius}-sized cells, so each
+ * villager is only compared against the 27 cells around it, and linked pairs
+ * are merged with union-find. Works on a plain snapshot, no Bukkit calls, so
+ * it is safe to run off the main thread.
+ */
+final class VillageClusterer {
+
+    /** Immutable position of one villager, taken on the main thread. */
+    record Point(UUID id, UUID world, double x, double y, double z) {}
+
+    private record Cell(UUID world, int x, int y, int z) {}
+
+    private VillageClusterer() {}
+
+    /**
+     * Villages as lists of villager ids. Both the villages and the members
+     * inside each one keep the order of {@code points}.
+     */
+    static List<List<UUID>> cluster(List<Point> points, double radius) {
+        int n = points.size();
+        double r2 = radius * radius;
+
+        // bucket every villager into its grid cell
+        Map<Cell, List<Integer>> grid = new HashMap<>();
+        Cell[] cellOf = new Cell[n];
+        for (int i = 0; i < n; i++) {
+            Point p = points.get(i);
+            cellOf[i] = new Cell(p.world(),
+                (int) Math.floor(p.x() / radius),
+                (int) Math.floor(p.y() / radius),
+                (int) Math.floor(p.z() / radius));
+            grid.computeIfAbsent(cellOf[i], k -> new ArrayList<>()).add(i);
+        }
+
+        // link each villager to its neighbours in the surrounding 3×3×3 cells
+        int[] parent = new int[n];
+        for (int i = 0; i < n; i++) parent[i] = i;
+        for (int i = 0; i < n; i++) {
+            Point p = points.get(i);
+            Cell c = cellOf[i];
+            for (int dx = -1; dx <= 1; dx++) {
+                for (int dy = -1; dy <= 1; dy++) {
+                    for (int dz = -1; dz <= 1; dz++) {
+                        List<Integer> bucket = grid.get(new Cell(c.world(), c.x() + dx, c.y() + dy, c.z() + dz));
+                        if (bucket == null) continue;
+                        for (int j : bucket) {
+                            // each pair once
+                            if (j <= i) continue;
+                            Point o = points.get(j);
+                            double ddx = p.x() - o.x(), ddy = p.y() - o.y(), ddz = p.z() - o.z();
+                            if (ddx * ddx + ddy * ddy + ddz * ddz <= r2) union(parent, i, j);
+                        }
+                    }
+                }
+            }
+        }
+
+        Map<Integer, List<UUID>> villages = new LinkedHashMap<>();
+        for (int i = 0; i < n; i++) {
+            villages.computeIfAbsent(find(parent, i), k -> new ArrayList<>()).add(points.get(i).id());
+        }
+        return new ArrayList<>(villages.values());
+    }
+
+    private static int find(int[] parent, int i) {
+        while (parent[i] != i) {
+            parent[i] = parent[parent[i]];   // path halving
+            i = parent[i];
+        }
+        return i;
+    }
+
+    private static void union(int[] parent, int a, int b) {
+        int ra = find(parent, a), rb = find(parent, b);
+        if (ra == rb) return;
+        // keep the lower index as root so find() on the first member stays cheap
+        if (ra < rb) parent[rb] = ra;
+        else parent[ra] = rb;
+    }
+}
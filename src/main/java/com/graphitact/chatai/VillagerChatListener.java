@@ -7,6 +7,7 @@ import net.md_5.bungee.api.chat.ClickEvent;
 import net.md_5.bungee.api.chat.TextComponent;
 import org.bukkit.Bukkit;
 import org.bukkit.ChatColor;
+import org.bukkit.Location;
 import org.bukkit.boss.BarColor;
 import org.bukkit.boss.BarStyle;
 import org.bukkit.boss.BossBar;
@@ -16,10 +17,8 @@ import org.bukkit.event.EventHandler;
 import org.bukkit.event.Listener;
 import org.bukkit.event.player.AsyncPlayerChatEvent;
 import org.bukkit.event.player.PlayerInteractEntityEvent;
-import org.bukkit.scheduler.BukkitTask;
 
-import java.util.Deque;
-import java.util.LinkedList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
@@ -30,15 +29,23 @@ public class VillagerChatListener implements Listener {
   private final ChatAIPlugin plugin;
   private final AIClient ai;
   private final QuestSystem questSystem;
-  private final int freezeSeconds;
+  private final long freezeTicks;
+  private final ReplyDelivery delivery;
   private final Random rng = new Random();
 
+  // boss bars drain once a second rather than every tick
+  private static final long BAR_DECAY_TICKS = 20;
+  // recalled memory lines are cut to this length, so recall can't blow up the prompt
+  private static final int RECALL_CHARS = 240;
+
   // track active chat sessions
-  private final Map<UUID, VillagerSession> sessions      = new ConcurrentHashMap<>();
-  // track scheduled “end conversation” tasks
-  private final Map<UUID, BukkitTask>      timeoutTasks  = new ConcurrentHashMap<>();
-  // track scheduled “re-enable AI” tasks
-  private final Map<UUID, BukkitTask>      aiSuspendTasks= new ConcurrentHashMap<>();
+  private final Map<UUID, VillagerSession> sessions = new ConcurrentHashMap<>();
+  // “re-enable AI” timers of frozen villagers, by villager; main thread only
+  private final Map<UUID, TimingWheel.Timer> frozen = new HashMap<>();
+  // latest click per player whose villager data is still loading; main thread only
+  private final Map<UUID, Object> pendingStart = new HashMap<>();
+  // every session end, unfreeze and bar update, driven by one repeating task
+  private final TimingWheel timers;
 
   public VillagerChatListener(ChatAIPlugin plugin,
                               AIClient ai,
@@ -46,8 +53,12 @@ public class VillagerChatListener implements Listener {
     this.plugin        = plugin;
     this.ai            = ai;
     this.questSystem   = questSystem;
-    this.freezeSeconds = plugin.getConfig()
-                              .getInt("villager-freeze-seconds", 30);
+    this.freezeTicks   = plugin.getConfig()
+                              .getInt("villager-freeze-seconds", 30) * 20L;
+    this.timers        = new TimingWheel(plugin.getLogger());
+    Bukkit.getScheduler().runTaskTimer(plugin, timers::tick, 1L, 1L);
+    this.delivery      = new ReplyDelivery(plugin, "villager-reply",
+                                           ReplyDelivery.Scope.NEARBY);
   }
 
   @EventHandler
@@ -60,20 +71,19 @@ public class VillagerChatListener implements Listener {
     UUID pid = player.getUniqueId();
     UUID vid = v.getUniqueId();
 
-    // if an old session exists, tear down its boss bar immediately
+    // if an old session exists, tear down its boss bar immediately;
+    // its villager keeps its own unfreeze timer
     VillagerSession old = sessions.remove(pid);
     if (old != null) {
       old.bossBar().removeAll();
-      cancelTasks(pid);
+      old.expiry().cancel();
+      old.barDecay().cancel();
     }
+    // and forget a click whose data is still loading
+    pendingStart.remove(pid);
 
     // disable AI and schedule re-enable
-    suspendVillagerAI(pid, v);
-
-    // load village data
-    var vc           = plugin.getVillagerConfig();
-    String villageName   = vc.getString(vid + ".village.name", "the wilds");
-    boolean isQuestGiver = vc.getBoolean(vid + ".village.isQuestGiver", false);
+    freeze(v);
 
     // handle ready turn-in quests
     List<Quest> ready = questSystem.getReadyTurnInQuests(pid, vid);
@@ -82,14 +92,39 @@ public class VillagerChatListener implements Listener {
       return;
     }
 
+    // the villager's shard may be on disk; start talking once it is loaded
+    Object attempt = new Object();
+    pendingStart.put(pid, attempt);
+    plugin.preloadVillager(vid).thenAccept(memory -> plugin.getMainThread().post(() -> {
+      // a later click replaced this one, or the player or villager is gone
+      if (!pendingStart.remove(pid, attempt)) return;
+      if (!player.isOnline() || !v.isValid()) return;
+      startConversation(player, v, memory);
+    }));
+  }
+
+  /** Start talking with what {@code memory} holds; nothing here waits for the villager's shard. */
+  private void startConversation(Player player, Villager v, VillagerStore.Memory memory) {
+    UUID pid = player.getUniqueId();
+    UUID vid = v.getUniqueId();
+
+    // village data, as preloaded
+    VillagerStore.Profile profile = memory.profile();
+    String villageName   = profile.villageName() != null ? profile.villageName() : "the wilds";
+    boolean isQuestGiver = profile.questGiver();
+
     String profession   = v.getProfession().name();
-    String villagerName = plugin.getOrCreateVillagerName(vid, profession);
+    String villagerName = plugin.getOrCreateVillagerName(vid, profile, profession);
 
     String overrideSystem = plugin.getPersonalityPrompt(profession, villagerName)
         + "\nYou live in the village of " + villageName + ".";
     if (isQuestGiver) {
       overrideSystem += "\nAs a quest-giver, you assign missions on request.";
     }
+    String summary = memory.summary();
+    if (!summary.isEmpty()) {
+      overrideSystem += "\nWhat you remember from earlier conversations: " + summary;
+    }
 
     // create conversation boss bar
     BossBar bar = Bukkit.createBossBar(
@@ -99,23 +134,43 @@ public class VillagerChatListener implements Listener {
     );
     bar.addPlayer(player);
 
-    Deque<String> history = plugin.getVillagerMemory(vid);
-    sessions.put(pid, new VillagerSession(
+    ConversationHistory history = plugin.getVillagerMemory(vid, memory);
+    VillagerSession session = new VillagerSession(
       vid, villagerName, overrideSystem, history,
-      isQuestGiver, villageName, bar, v
-    ));
+      isQuestGiver, villageName, bar, v,
+      timers.newTimer(() -> endSession(pid)),
+      timers.newTimer(() -> decayBar(pid))
+    );
+    sessions.put(pid, session);
     plugin.startVillagerChat(pid);
 
     // schedule the 30s end-of-chat
-    scheduleSessionEnd(pid, vid, history);
+    touch(session);
 
-    // “Thinking…” splash
-    Bukkit.getScheduler().runTask(plugin, () ->
-      Bukkit.broadcastMessage(ChatColor.GRAY + "[" + villagerName + "] Thinking...")
+    // first greeting; not counted against the player's rate limit
+    AIClient.Admission admitted = ai.greet(pid, history,
+      String.format("Greet %s as a %s from %s.",
+        player.getName(),
+        profession.toLowerCase(),
+        villageName
+      ),
+      overrideSystem,
+      AIClient.Priority.HIGH,
+      chunk -> sendVillagerReply(pid, villagerName, chunk),
+      reply -> {}
     );
 
+    // “Thinking…” splash (or a brush-off if the AI queue is full)
+    plugin.getMainThread().post(() -> {
+      if (admitted == AIClient.Admission.REJECTED) {
+        player.sendMessage(ChatColor.GRAY + "[" + villagerName + "] is lost in thought, try again in a moment.");
+      } else {
+        delivery.send(player, v.getLocation(), ChatColor.GRAY + "[" + villagerName + "] Thinking...");
+      }
+    });
+
     // “Talk ▶” action-bar: clicking will prefill chat with slash
-    Bukkit.getScheduler().runTask(plugin, () -> {
+    plugin.getMainThread().post(() -> {
       TextComponent openChat = new TextComponent("§e[ Talk ▶ ]");
       openChat.setClickEvent(new ClickEvent(
         ClickEvent.Action.SUGGEST_COMMAND,
@@ -126,20 +181,6 @@ public class VillagerChatListener implements Listener {
         openChat
       );
     });
-
-    // first greeting
-    ai.askWithSystem(pid, history,
-      String.format("Greet %s as a %s from %s.",
-        player.getName(),
-        profession.toLowerCase(),
-        villageName
-      ),
-      overrideSystem,
-      reply -> {
-        sendVillagerReply(pid, villagerName, reply);
-        plugin.saveVillagerMemory(vid, history);
-      }
-    );
   }
 
   @EventHandler
@@ -154,10 +195,10 @@ public class VillagerChatListener implements Listener {
 
     Player player = evt.getPlayer();
 
-    // extend timers
-    scheduleSessionEnd(pid, session.villagerId, session.history);
-    suspendVillagerAI(pid, session.villager);
-    session.bossBar().setProgress(1.0);
+    // extend timers; this is the async chat thread, the wheel is main-thread only
+    plugin.getMainThread().post(() -> {
+      if (sessions.get(pid) == session) touch(session);
+    });
 
     String lower = msg.toLowerCase();
 
@@ -192,7 +233,8 @@ public class VillagerChatListener implements Listener {
           q.rewardCommand = "give %player% bow 1";
         }
       }
-      questSystem.addQuest(q);
+      // quest state and its index only change on the main thread
+      plugin.getMainThread().post(() -> questSystem.addQuest(q));
       return;
     }
 
@@ -200,64 +242,92 @@ public class VillagerChatListener implements Listener {
     if (!session.isQuestGiver && lower.contains("quest")) {
       String hint = "I don’t give quests—look for the quest-giver in "
                     + session.villageName + ".";
-      Bukkit.getScheduler().runTask(plugin, () ->
+      plugin.getMainThread().post(() ->
         player.sendMessage(ChatColor.LIGHT_PURPLE + hint)
       );
       return;
     }
 
-    // fallback to AI chat
-    Bukkit.getScheduler().runTask(plugin, () ->
-      Bukkit.broadcastMessage(
-        ChatColor.GRAY + "[" + session.villagerName + "] Thinking..."
-      )
-    );
-
-    session.history.addLast("User: " + msg);
-    if (session.history.size() > 20) session.history.removeFirst();
+    // remind the villager of older conversations that match what was just said;
+    // nothing blocks on it, the request goes out once they are found (or not)
+    plugin.recallVillagerMemory(session.villagerId, msg, session.history)
+      .thenAccept(recalled -> askVillager(player, session, msg, withRecall(session.overrideSystem, recalled)));
+  }
 
-    ai.askWithSystem(
+  /** fallback to AI chat; AIClient records msg and the reply in session.history */
+  private void askVillager(Player player, VillagerSession session, String msg, String system) {
+    UUID pid = player.getUniqueId();
+    AIClient.Admission admitted = ai.askWithSystem(
       pid,
       session.history,
       msg,
-      session.overrideSystem,
-      reply -> sendVillagerReply(pid, session.villagerName, reply)
+      system,
+      AIClient.Priority.HIGH,
+      chunk -> sendVillagerReply(pid, session.villagerName, chunk),
+      reply -> {}
     );
+
+    plugin.getMainThread().post(() -> {
+      if (admitted == AIClient.Admission.RATE_LIMITED) {
+        player.sendMessage(
+          ChatColor.GRAY + "[" + session.villagerName + "] can't keep up, you're talking too fast."
+        );
+      } else if (admitted == AIClient.Admission.REJECTED) {
+        player.sendMessage(
+          ChatColor.GRAY + "[" + session.villagerName + "] is lost in thought, try again in a moment."
+        );
+      } else {
+        delivery.send(player, session.villager.getLocation(),
+          ChatColor.GRAY + "[" + session.villagerName + "] Thinking..."
+        );
+      }
+    });
   }
 
-  private void cancelTasks(UUID pid) {
-    BukkitTask t1 = timeoutTasks.remove(pid);
-    if (t1 != null) t1.cancel();
-    BukkitTask t2 = aiSuspendTasks.remove(pid);
-    if (t2 != null) t2.cancel();
+  private static String withRecall(String system, List<ConversationHistory.Entry> recalled) {
+    if (recalled.isEmpty()) return system;
+    StringBuilder sb = new StringBuilder(system)
+      .append("\nEarlier conversations that may matter now:");
+    for (ConversationHistory.Entry e : recalled) {
+      String line = e.toLine();
+      sb.append("\n- ").append(line.length() <= RECALL_CHARS ? line : line.substring(0, RECALL_CHARS) + "…");
+    }
+    return sb.toString();
   }
 
-  /** disable villager AI and schedule its re-enable */
-  private void suspendVillagerAI(UUID pid, Villager v) {
+  /** disable villager AI and (re-)schedule its re-enable */
+  private void freeze(Villager v) {
     v.setAI(false);
-    BukkitTask old = aiSuspendTasks.remove(pid);
-    if (old != null && !old.isCancelled()) old.cancel();
-    BukkitTask t = Bukkit.getScheduler().runTaskLater(plugin, () -> {
+    frozen.computeIfAbsent(v.getUniqueId(), vid -> timers.newTimer(() -> {
+      frozen.remove(vid);
       v.setAI(true);
-      aiSuspendTasks.remove(pid);
-    }, freezeSeconds * 20L);
-    aiSuspendTasks.put(pid, t);
+    })).schedule(freezeTicks);
+  }
+
+  /** (Re-)start the end-of-conversation timer, keep the villager still, refill the bar */
+  private void touch(VillagerSession s) {
+    s.expiry().schedule(freezeTicks);
+    s.barDecay().schedule(BAR_DECAY_TICKS);
+    freeze(s.villager());
+    s.bossBar().setProgress(1.0);
   }
 
-  /** (Re-)start the end-of-conversation timer */
-  private void scheduleSessionEnd(UUID pid,
-                                  UUID vid,
-                                  Deque<String> history) {
-    BukkitTask old = timeoutTasks.remove(pid);
-    if (old != null && !old.isCancelled()) old.cancel();
-    BukkitTask task = Bukkit.getScheduler().runTaskLater(plugin, () -> {
-      VillagerSession s = sessions.remove(pid);
-      if (s != null) s.bossBar().removeAll();
-      plugin.endVillagerChat(pid);
-      plugin.saveVillagerMemory(vid, history);
-      timeoutTasks.remove(pid);
-    }, freezeSeconds * 20L);
-    timeoutTasks.put(pid, task);
+  private void endSession(UUID pid) {
+    VillagerSession s = sessions.remove(pid);
+    if (s != null) {
+      s.bossBar().removeAll();
+      s.barDecay().cancel();
+    }
+    plugin.endVillagerChat(pid);
+  }
+
+  /** Shrink the boss bar with the time left in the conversation */
+  private void decayBar(UUID pid) {
+    VillagerSession s = sessions.get(pid);
+    if (s == null) return;
+    double left = s.expiry().remainingTicks() / (double) freezeTicks;
+    s.bossBar().setProgress(Math.max(0.0, Math.min(1.0, left)));
+    s.barDecay().schedule(BAR_DECAY_TICKS);
   }
 
   private void sendVillagerReply(UUID pid,
@@ -265,13 +335,12 @@ public class VillagerChatListener implements Listener {
                                  String reply) {
     if (reply.isBlank()) return;
     VillagerSession s = sessions.get(pid);
-    if (s != null) {
-      scheduleSessionEnd(pid, s.villagerId, s.history);
-      suspendVillagerAI(pid, s.villager);
-      s.bossBar().setProgress(1.0);
-    }
-    String filled = ChatAIPlugin.processVillagerPlaceholders(reply);
-    Bukkit.broadcastMessage(
+    if (s != null) touch(s);
+    String filled = plugin.getPlaceholders().render(reply,
+      new PlaceholderEngine.Context(pid, s != null ? s.villageName : null));
+    // heard around the villager; the player gets it even if the villager is gone
+    Location where = s != null && s.villager.isValid() ? s.villager.getLocation() : null;
+    delivery.send(Bukkit.getPlayer(pid), where,
       ChatColor.YELLOW + "[" + name + "] " + filled
     );
   }
@@ -280,11 +349,13 @@ public class VillagerChatListener implements Listener {
     UUID      villagerId,
     String    villagerName,
     String    overrideSystem,
-    Deque<String> history,
+    ConversationHistory history,
     boolean   isQuestGiver,
     String    villageName,
     BossBar   bossBar,
-    Villager  villager
+    Villager  villager,
+    TimingWheel.Timer expiry,
+    TimingWheel.Timer barDecay
   ) {}
 }
 
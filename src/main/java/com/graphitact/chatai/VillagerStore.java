@@ -0,0 +1,801 @@
+package com.graphitact.chatai;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.plugin.Plugin;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Villager names and memory, split over shard files that are loaded only
+ * when needed, plus every villager's village in one small file of its own.
+ *
+ * A villager lives in one of {@link #SHARDS} shards picked from its UUID,
+ * under {@code villagers/}: a YAML snapshot {@code <xx>.yml} plus an append
+ * log {@code <xx>.journal} with one JSON line per change. A shard is read
+ * (snapshot, then journal) the first time one of its villagers is needed;
+ * compaction folds the journal into the snapshot (written to a temp file,
+ * then renamed). When the loaded shards' estimated size passes
+ * {@code villager-cache-mb}, the least recently used ones are compacted and
+ * dropped. Village assignments are not in the shards: clustering revisits
+ * every villager in loaded chunks, and touching their shards would load
+ * nearly all of them. They are kept in memory instead, read from
+ * {@code villagers/villages.yml} at startup (a line or three per villager)
+ * and rewritten after a clustering run that changed any.
+ *
+ * Besides raw turns, each villager can have a rolling summary of older
+ * conversations; folding turns into it moves them from the stored turns to
+ * an archive. Turns and archive together are indexed (see
+ * {@link MemoryIndex}) so {@link #recall} can find old turns that matter
+ * again.
+ *
+ * All file I/O and all mutation happen on one background thread, so a
+ * snapshot always matches exactly what has been journaled; other threads
+ * read under a lock. No caller ever waits for a shard: {@link #preload} and
+ * {@link #recall} return futures that the background thread completes once
+ * it has read the shard, and writes that come in after close are dropped.
+ *
+ * The single memory.yml, memory.journal and villagers.yml of older versions
+ * are split into shards once, on the first start, and renamed to *.migrated;
+ * villages recorded in the shards themselves are moved to villages.yml.
+ */
+final class VillagerStore {
+    /** Fixed: it decides which file a villager lives in. */
+    static final int SHARDS = 256;
+
+    // rough heap cost of a turn besides its text (entry, deque slot, index postings) and of a villager
+    private static final int TURN_OVERHEAD     = 160;
+    private static final int VILLAGER_OVERHEAD = 512;
+
+    /** A villager's name and village; fields are null until known. */
+    record Profile(String baseName, String villageId, String villageName, boolean questGiver) {
+        static final Profile NONE = new Profile(null, null, null, false);
+    }
+
+    /** The village a villager was last clustered into. */
+    record Village(String id, String name, boolean questGiver) {}
+
+    /**
+     * What a conversation with a villager starts from, read in one go.
+     * @param recent  the newest stored turns, oldest first
+     * @param older   the stored turns before those, oldest first
+     */
+    record Memory(Profile profile, String summary,
+                  List<ConversationHistory.Entry> recent, List<ConversationHistory.Entry> older) {
+        static final Memory NONE = new Memory(Profile.NONE, "", List.of(), List.of());
+    }
+
+    /** Everything stored about one villager in its shard. */
+    private static final class Stored {
+        String baseName;
+        // oldest first
+        final ArrayDeque<ConversationHistory.Entry> turns   = new ArrayDeque<>();
+        // turns folded into the summary, oldest first
+        final ArrayDeque<ConversationHistory.Entry> archive = new ArrayDeque<>();
+        // over turns + archive
+        final MemoryIndex index = new MemoryIndex();
+        String summary = "";
+    }
+
+    private static final class Shard {
+        final int id;
+        final Path snapshot, journal;
+        final Map<UUID, Stored> villagers = new HashMap<>();
+        long bytes;
+        // memory differs from the snapshot file
+        boolean dirty;
+        // io thread only
+        BufferedWriter out;
+        int journalLines;
+
+        Shard(int id, Path dir) {
+            String name = String.format(Locale.ROOT, "%02x", id);
+            this.id       = id;
+            this.snapshot = dir.resolve(name + ".yml");
+            this.journal  = dir.resolve(name + ".journal");
+        }
+    }
+
+    private final Plugin plugin;
+    private final Path dataFolder, dir, villagesFile;
+    private final int maxEntries;
+    private final long maxBytes;
+    private final long compactEveryMillis;
+    private final int compactAfterLines;
+    private final ScheduledExecutorService io;
+
+    // loaded shards, least recently used first; the lock for everything in them.
+    // Only the io thread adds, removes or changes anything.
+    private final LinkedHashMap<Integer, Shard> loaded = new LinkedHashMap<>(16, 0.75f, true);
+    private final LongAdder loads     = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    // written by the clustering task and migration, one at a time
+    private final Map<UUID, Village> villages = new ConcurrentHashMap<>();
+    // until migration is done, villages may be missing
+    private volatile boolean ready;
+
+    VillagerStore(Plugin plugin, File dataFolder) {
+        this.plugin             = plugin;
+        this.dataFolder         = dataFolder.toPath();
+        this.dir                = this.dataFolder.resolve("villagers");
+        this.villagesFile       = dir.resolve("villages.yml");
+        this.maxEntries         = Math.max(1, plugin.getConfig().getInt("villager-memory-max-entries", 200));
+        this.maxBytes           = Math.max(1, plugin.getConfig().getLong("villager-cache-mb", 64)) * 1024L * 1024L;
+        this.compactEveryMillis = plugin.getConfig().getLong("memory-compact-minutes", 10) * 60_000L;
+        this.compactAfterLines  = plugin.getConfig().getInt("memory-compact-after-lines", 5000);
+        this.io = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "ChatAI-Memory");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Read the village assignments, split old single-file data in the
+     * background if there is any, and start periodic compaction.
+     */
+    void open() {
+        boolean villagesInShards = !Files.exists(villagesFile) && Files.isDirectory(dir);
+        loadVillages();
+        io.execute(this::migrate);
+        if (villagesInShards) io.execute(this::moveVillagesOutOfShards);
+        io.execute(() -> ready = true);
+        if (compactEveryMillis > 0) {
+            io.scheduleWithFixedDelay(this::compactAll,
+                compactEveryMillis, compactEveryMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Read what a conversation with the villager starts from in the
+     * background, loading its shard if needed; {@code recentTurns} of the
+     * stored turns count as recent. Completes off the main thread, after
+     * every write queued before it.
+     */
+    CompletableFuture<Memory> preload(UUID vid, int recentTurns) {
+        try {
+            return CompletableFuture.supplyAsync(() -> memory(vid, recentTurns), io);
+        } catch (RejectedExecutionException ex) {
+            // shutting down
+            return CompletableFuture.completedFuture(Memory.NONE);
+        }
+    }
+
+    /**
+     * Up to {@code k} stored or archived turns of a villager that best match
+     * {@code query}, oldest first, leaving out {@code exclude}. Completes at
+     * once if the villager's shard is loaded; otherwise the io thread loads
+     * it first, behind whatever is queued there, so callers should not wait
+     * on it unbounded.
+     */
+    CompletableFuture<List<ConversationHistory.Entry>> recall(UUID vid, String query, int k,
+                                                              Set<ConversationHistory.Entry> exclude) {
+        synchronized (loaded) {
+            Shard s = loaded.get(shardOf(vid));
+            if (s != null) return CompletableFuture.completedFuture(search(s, vid, query, k, exclude));
+        }
+        try {
+            return CompletableFuture.supplyAsync(() -> search(shard(vid), vid, query, k, exclude), io);
+        } catch (RejectedExecutionException ex) {
+            // shutting down
+            return CompletableFuture.completedFuture(List.of());
+        }
+    }
+
+    /** Record the villager's base name. */
+    void setBaseName(UUID vid, String baseName) {
+        write(() -> {
+            Shard s = shard(vid);
+            if (baseName.equals(baseNameOf(s, vid))) return;
+            writeBaseName(s, vid, baseName);
+        });
+    }
+
+    /** False until old data has been migrated; villages may be missing before that. */
+    boolean isReady() {
+        return ready;
+    }
+
+    /** The village the villager was last put in, or null; no shard is loaded. */
+    Village village(UUID vid) {
+        return villages.get(vid);
+    }
+
+    /**
+     * Put the villager in a village, in memory only; {@link #saveVillages}
+     * writes the assignments. Returns false if it already was there.
+     */
+    boolean setVillage(UUID vid, Village village) {
+        return !village.equals(villages.put(vid, village));
+    }
+
+    /** Rewrite villages.yml in the background. */
+    void saveVillages() {
+        // once shutting down, close() writes them
+        write(this::writeVillages);
+    }
+
+    /**
+     * Replace the villager's summary and archive the stored turns it covers:
+     * everything up to and including {@code lastFolded}.
+     */
+    void summarize(UUID vid, String summary, ConversationHistory.Entry lastFolded) {
+        write(() -> {
+            Shard s = shard(vid);
+            int dropped = fold(s, vid, summary, lastFolded);
+            JsonObject rec = new JsonObject();
+            rec.addProperty("v",    vid.toString());
+            rec.addProperty("sum",  summary);
+            rec.addProperty("drop", dropped);
+            writeLine(s, rec);
+        });
+    }
+
+    /** Queue one new turn for the journal; never blocks on disk. */
+    void append(UUID vid, ConversationHistory.Entry e) {
+        write(() -> {
+            Shard s = shard(vid);
+            remember(s, vid, e);
+            JsonObject rec = new JsonObject();
+            rec.addProperty("v",  vid.toString());
+            rec.addProperty("r",  e.role().name());
+            rec.addProperty("t",  e.text());
+            rec.addProperty("ts", e.timestamp());
+            writeLine(s, rec);
+            trim();
+        });
+    }
+
+    int loadedShards() {
+        synchronized (loaded) {
+            return loaded.size();
+        }
+    }
+
+    /** Estimated heap used by the loaded shards. */
+    long loadedBytes() {
+        synchronized (loaded) {
+            long sum = 0;
+            for (Shard s : loaded.values()) sum += s.bytes;
+            return sum;
+        }
+    }
+
+    long shardLoads() {
+        return loads.sum();
+    }
+
+    long shardEvictions() {
+        return evictions.sum();
+    }
+
+    /** Final compaction; waits for queued writes. Call from onDisable. */
+    void close() {
+        io.execute(this::compactAll);
+        io.execute(this::writeVillages);
+        io.shutdown();
+        try {
+            if (!io.awaitTermination(10, TimeUnit.SECONDS)) {
+                plugin.getLogger().warning("Memory journal did not finish flushing in time");
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (loaded) {
+            for (Shard s : loaded.values()) closeWriter(s);
+        }
+    }
+
+    private static int shardOf(UUID vid) {
+        return Math.floorMod(vid.hashCode(), SHARDS);
+    }
+
+    private List<ConversationHistory.Entry> search(Shard s, UUID vid, String query, int k,
+                                                   Set<ConversationHistory.Entry> exclude) {
+        synchronized (loaded) {
+            Stored st = s.villagers.get(vid);
+            return st == null ? List.of() : st.index.search(query, k, exclude);
+        }
+    }
+
+    /**
+     * Queue a write for the io thread. A change that comes in while the
+     * plugin is being disabled (a reply finishing late, say) is dropped:
+     * close() has already queued the final compaction.
+     */
+    private void write(Runnable task) {
+        try {
+            io.execute(task);
+        } catch (RejectedExecutionException ex) {
+            // shutting down
+        }
+    }
+
+    private void loadVillages() {
+        if (!Files.exists(villagesFile)) return;
+        YamlConfiguration cfg = YamlConfiguration.loadConfiguration(villagesFile.toFile());
+        for (String key : cfg.getKeys(false)) {
+            UUID vid;
+            try { vid = UUID.fromString(key); } catch (IllegalArgumentException ex) { continue; }
+            String id = cfg.getString(key + ".id");
+            if (id != null) {
+                villages.put(vid, new Village(id, cfg.getString(key + ".name"), cfg.getBoolean(key + ".questGiver")));
+            }
+        }
+    }
+
+    // ---- io thread only below ----
+
+    private Memory memory(UUID vid, int recentTurns) {
+        Shard s = shard(vid);
+        Village v = villages.get(vid);
+        synchronized (loaded) {
+            Stored st = s.villagers.get(vid);
+            String baseName = st == null ? null : st.baseName;
+            Profile p = v == null
+                ? new Profile(baseName, null, null, false)
+                : new Profile(baseName, v.id(), v.name(), v.questGiver());
+            if (st == null) return new Memory(p, "", List.of(), List.of());
+            List<ConversationHistory.Entry> all = new ArrayList<>(st.turns);
+            int split = Math.max(0, all.size() - recentTurns);
+            return new Memory(p, st.summary,
+                List.copyOf(all.subList(split, all.size())), List.copyOf(all.subList(0, split)));
+        }
+    }
+
+    /** villages.yml from the assignments in memory (temp file + rename). */
+    private void writeVillages() {
+        YamlConfiguration cfg = new YamlConfiguration();
+        villages.forEach((vid, v) -> {
+            String k = vid.toString();
+            cfg.set(k + ".id", v.id());
+            cfg.set(k + ".name", v.name());
+            if (v.questGiver()) cfg.set(k + ".questGiver", true);
+        });
+        try {
+            Files.createDirectories(dir);
+            Path tmp = villagesFile.resolveSibling(villagesFile.getFileName() + ".tmp");
+            Files.writeString(tmp, cfg.saveToString(), StandardCharsets.UTF_8);
+            Files.move(tmp, villagesFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ex) {
+            plugin.getLogger().warning("Writing " + villagesFile.getFileName() + " failed: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Villages used to be kept in the shards' profiles: collect them from
+     * every snapshot and journal into villages.yml, once. The shards stop
+     * carrying them the next time each is compacted.
+     */
+    private void moveVillagesOutOfShards() {
+        try (var files = Files.list(dir)) {
+            for (Path f : (Iterable<Path>) files::iterator) {
+                String name = f.getFileName().toString();
+                if (!name.matches("[0-9a-f]{2}\\.yml")) continue;
+                YamlConfiguration cfg = YamlConfiguration.loadConfiguration(f.toFile());
+                for (String key : cfg.getKeys(false)) {
+                    UUID vid;
+                    try { vid = UUID.fromString(key); } catch (IllegalArgumentException ex) { continue; }
+                    String id = cfg.getString(key + ".village.id");
+                    if (id != null) {
+                        villages.put(vid, new Village(id, cfg.getString(key + ".village.name"),
+                            cfg.getBoolean(key + ".village.questGiver")));
+                    }
+                }
+                // later changes are in the journal
+                Path journal = f.resolveSibling(name.substring(0, 2) + ".journal");
+                if (Files.exists(journal)) replayVillages(journal);
+            }
+        } catch (IOException ex) {
+            plugin.getLogger().warning("Reading villages from villager shards failed: " + ex.getMessage());
+        }
+        writeVillages();
+    }
+
+    private void replayVillages(Path journal) throws IOException {
+        try (BufferedReader in = Files.newBufferedReader(journal, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.isBlank()) continue;
+                try {
+                    JsonObject rec = JsonParser.parseString(line).getAsJsonObject();
+                    if (!rec.has("profile")) continue;
+                    JsonObject p = rec.getAsJsonObject("profile");
+                    String id = string(p, "village");
+                    if (id == null) continue;
+                    villages.put(UUID.fromString(rec.get("v").getAsString()), new Village(id,
+                        string(p, "villageName"), p.has("questGiver") && p.get("questGiver").getAsBoolean()));
+                } catch (RuntimeException ex) {
+                    // a torn last line after a crash
+                }
+            }
+        }
+    }
+
+    /** The villager's shard, read from disk if it isn't loaded. */
+    private Shard shard(UUID vid) {
+        int id = shardOf(vid);
+        synchronized (loaded) {
+            Shard s = loaded.get(id);
+            if (s != null) return s;
+        }
+        // not visible to readers until it is complete
+        Shard s = load(id);
+        synchronized (loaded) {
+            loaded.put(id, s);
+        }
+        loads.increment();
+        trim();
+        return s;
+    }
+
+    /** Compact and drop least recently used shards while over the cap; the newest always stays. */
+    private void trim() {
+        while (true) {
+            Shard victim;
+            synchronized (loaded) {
+                if (loaded.size() <= 1 || loadedBytes() <= maxBytes) return;
+                victim = loaded.values().iterator().next();
+            }
+            // a failed compaction leaves the journal in place, so nothing is lost by dropping it
+            compactQuietly(victim);
+            closeWriter(victim);
+            synchronized (loaded) {
+                loaded.remove(victim.id);
+            }
+            evictions.increment();
+        }
+    }
+
+    private Shard load(int id) {
+        Shard s = new Shard(id, dir);
+        try {
+            if (Files.exists(s.snapshot)) {
+                YamlConfiguration cfg = YamlConfiguration.loadConfiguration(s.snapshot.toFile());
+                for (String key : cfg.getKeys(false)) {
+                    UUID vid;
+                    try { vid = UUID.fromString(key); } catch (IllegalArgumentException ex) { continue; }
+                    ConfigurationSection v = cfg.getConfigurationSection(key);
+                    if (v == null) continue;
+                    setBaseName(s, vid, v.getString("name"));
+                    // archived turns are older than the stored ones, so they go into the index first
+                    for (String line : v.getStringList("archive")) archived(s, vid, ConversationHistory.Entry.fromLine(line));
+                    for (String line : v.getStringList("turns")) remember(s, vid, ConversationHistory.Entry.fromLine(line));
+                    String summary = v.getString("summary");
+                    if (summary != null) setSummary(s, vid, summary);
+                }
+            }
+            if (Files.exists(s.journal)) {
+                s.journalLines = replay(s.journal, rec -> s);
+                s.dirty = s.journalLines > 0;
+            }
+        } catch (IOException ex) {
+            plugin.getLogger().severe("Failed to load villager shard " + s.snapshot.getFileName() + ": " + ex.getMessage());
+        }
+        return s;
+    }
+
+    /** Apply every record of a journal, each to the shard {@code target} picks; returns how many applied. */
+    private int replay(Path file, Function<UUID, Shard> target) throws IOException {
+        int applied = 0;
+        try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.isBlank()) continue;
+                try {
+                    JsonObject rec = JsonParser.parseString(line).getAsJsonObject();
+                    UUID vid = UUID.fromString(rec.get("v").getAsString());
+                    apply(target.apply(vid), vid, rec);
+                    applied++;
+                } catch (RuntimeException ex) {
+                    // a torn last line after a crash; everything before it is intact
+                }
+            }
+        }
+        return applied;
+    }
+
+    private void apply(Shard s, UUID vid, JsonObject rec) {
+        if (rec.has("sum")) {
+            fold(s, vid, rec.get("sum").getAsString(), rec.get("drop").getAsInt());
+        } else if (rec.has("profile")) {
+            // older records also carry the village, which now lives in villages.yml
+            String name = string(rec.getAsJsonObject("profile"), "name");
+            if (name != null) setBaseName(s, vid, name);
+        } else {
+            remember(s, vid, new ConversationHistory.Entry(
+                ConversationHistory.Role.valueOf(rec.get("r").getAsString()),
+                rec.get("t").getAsString(),
+                rec.get("ts").getAsLong()));
+        }
+    }
+
+    private static String string(JsonObject o, String key) {
+        return o.has(key) && !o.get(key).isJsonNull() ? o.get(key).getAsString() : null;
+    }
+
+    private Stored stored(Shard s, UUID vid) {
+        synchronized (loaded) {
+            Stored st = s.villagers.get(vid);
+            if (st == null) {
+                st = new Stored();
+                s.villagers.put(vid, st);
+                s.bytes += VILLAGER_OVERHEAD;
+            }
+            return st;
+        }
+    }
+
+    private String baseNameOf(Shard s, UUID vid) {
+        synchronized (loaded) {
+            Stored st = s.villagers.get(vid);
+            return st == null ? null : st.baseName;
+        }
+    }
+
+    private void setBaseName(Shard s, UUID vid, String baseName) {
+        synchronized (loaded) {
+            stored(s, vid).baseName = baseName;
+        }
+    }
+
+    private void setSummary(Shard s, UUID vid, String summary) {
+        synchronized (loaded) {
+            stored(s, vid).summary = summary;
+        }
+    }
+
+    private void writeBaseName(Shard s, UUID vid, String baseName) {
+        setBaseName(s, vid, baseName);
+        JsonObject profile = new JsonObject();
+        profile.addProperty("name", baseName);
+        JsonObject rec = new JsonObject();
+        rec.addProperty("v", vid.toString());
+        rec.add("profile", profile);
+        writeLine(s, rec);
+    }
+
+    private static long cost(ConversationHistory.Entry e) {
+        return TURN_OVERHEAD + 2L * e.text().length();
+    }
+
+    private void remember(Shard s, UUID vid, ConversationHistory.Entry e) {
+        synchronized (loaded) {
+            Stored st = stored(s, vid);
+            st.turns.addLast(e);
+            st.index.add(e);
+            s.bytes += cost(e);
+            while (st.turns.size() > maxEntries) forget(s, st, st.turns.removeFirst());
+        }
+    }
+
+    /** An archived turn read from a snapshot. */
+    private void archived(Shard s, UUID vid, ConversationHistory.Entry e) {
+        synchronized (loaded) {
+            Stored st = stored(s, vid);
+            st.index.add(e);
+            s.bytes += cost(e);
+            archive(s, st, e);
+        }
+    }
+
+    /** Move an indexed turn to the archive, which is capped like the turns. Caller holds the lock. */
+    private void archive(Shard s, Stored st, ConversationHistory.Entry e) {
+        st.archive.addLast(e);
+        while (st.archive.size() > maxEntries) forget(s, st, st.archive.removeFirst());
+    }
+
+    private static void forget(Shard s, Stored st, ConversationHistory.Entry e) {
+        st.index.remove(e);
+        s.bytes -= cost(e);
+    }
+
+    /** Set the summary and archive turns through {@code lastFolded}; returns how many were moved. */
+    private int fold(Shard s, UUID vid, String summary, ConversationHistory.Entry lastFolded) {
+        synchronized (loaded) {
+            Stored st = stored(s, vid);
+            st.summary = summary;
+            // already evicted by the max-entries cap: nothing left to move
+            if (!st.turns.contains(lastFolded)) return 0;
+            int dropped = 0;
+            while (!st.turns.isEmpty()) {
+                dropped++;
+                ConversationHistory.Entry e = st.turns.removeFirst();
+                archive(s, st, e);
+                if (e.equals(lastFolded)) break;
+            }
+            return dropped;
+        }
+    }
+
+    /** Replay a fold from the journal, where the count is already known. */
+    private void fold(Shard s, UUID vid, String summary, int dropped) {
+        synchronized (loaded) {
+            Stored st = stored(s, vid);
+            st.summary = summary;
+            for (int i = 0; i < dropped && !st.turns.isEmpty(); i++) archive(s, st, st.turns.removeFirst());
+        }
+    }
+
+    private void writeLine(Shard s, JsonObject rec) {
+        try {
+            writer(s).write(rec.toString());
+            s.out.newLine();
+            s.out.flush();
+            s.dirty = true;
+            if (++s.journalLines >= compactAfterLines) compact(s);
+        } catch (IOException ex) {
+            plugin.getLogger().warning("Memory journal write failed: " + ex.getMessage());
+        }
+    }
+
+    private void compactAll() {
+        List<Shard> shards;
+        synchronized (loaded) {
+            shards = new ArrayList<>(loaded.values());
+        }
+        for (Shard s : shards) compactQuietly(s);
+    }
+
+    private void compactQuietly(Shard s) {
+        try {
+            compact(s);
+        } catch (IOException ex) {
+            plugin.getLogger().warning("Compacting " + s.snapshot.getFileName() + " failed: " + ex.getMessage());
+        }
+    }
+
+    /** Fold the shard into its snapshot (temp file + rename), then start an empty journal. */
+    private void compact(Shard s) throws IOException {
+        if (!s.dirty) return;
+        YamlConfiguration cfg = new YamlConfiguration();
+        synchronized (loaded) {
+            s.villagers.forEach((vid, st) -> {
+                String k = vid.toString();
+                if (st.baseName != null) cfg.set(k + ".name", st.baseName);
+                if (!st.summary.isEmpty()) cfg.set(k + ".summary", st.summary);
+                if (!st.archive.isEmpty()) cfg.set(k + ".archive", lines(st.archive));
+                if (!st.turns.isEmpty()) cfg.set(k + ".turns", lines(st.turns));
+            });
+        }
+        Files.createDirectories(dir);
+        Path tmp = s.snapshot.resolveSibling(s.snapshot.getFileName() + ".tmp");
+        Files.writeString(tmp, cfg.saveToString(), StandardCharsets.UTF_8);
+        Files.move(tmp, s.snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        closeWriter(s);
+        Files.deleteIfExists(s.journal);
+        s.journalLines = 0;
+        s.dirty = false;
+    }
+
+    private static List<String> lines(ArrayDeque<ConversationHistory.Entry> turns) {
+        List<String> lines = new ArrayList<>(turns.size());
+        for (ConversationHistory.Entry e : turns) lines.add(e.toLine());
+        return lines;
+    }
+
+    private BufferedWriter writer(Shard s) throws IOException {
+        if (s.out == null) {
+            Files.createDirectories(dir);
+            s.out = Files.newBufferedWriter(s.journal, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        }
+        return s.out;
+    }
+
+    private static void closeWriter(Shard s) {
+        if (s.out == null) return;
+        try {
+            s.out.close();
+        } catch (IOException ignored) {
+            // nothing left to flush into
+        }
+        s.out = null;
+    }
+
+    /**
+     * Split memory.yml, memory.journal and villagers.yml of older versions
+     * into shards, then rename them to *.migrated. Runs once, before anything
+     * else on the io thread.
+     */
+    private void migrate() {
+        Path oldSnapshot = dataFolder.resolve("memory.yml");
+        Path oldJournal  = dataFolder.resolve("memory.journal");
+        Path oldProfiles = dataFolder.resolve("villagers.yml");
+        List<Path> old = new ArrayList<>();
+        for (Path p : List.of(oldSnapshot, oldJournal, oldProfiles)) if (Files.exists(p)) old.add(p);
+        if (old.isEmpty()) return;
+
+        plugin.getLogger().info("Splitting " + old.size() + " old villager file(s) into shards under villagers/ (once)");
+        Map<UUID, Boolean> seen = new HashMap<>();
+        try {
+            if (Files.exists(oldProfiles)) {
+                YamlConfiguration cfg = YamlConfiguration.loadConfiguration(oldProfiles.toFile());
+                for (String key : cfg.getKeys(false)) {
+                    UUID vid;
+                    try { vid = UUID.fromString(key); } catch (IllegalArgumentException ex) { continue; }
+                    String baseName = cfg.getString(key + ".baseName");
+                    if (baseName != null) setBaseName(migrating(vid, seen), vid, baseName);
+                    String villageId = cfg.getString(key + ".village.id");
+                    if (villageId != null) {
+                        villages.put(vid, new Village(villageId, cfg.getString(key + ".village.name"),
+                            cfg.getBoolean(key + ".village.isQuestGiver")));
+                    }
+                }
+            }
+            if (Files.exists(oldSnapshot)) {
+                YamlConfiguration cfg = YamlConfiguration.loadConfiguration(oldSnapshot.toFile());
+                ConfigurationSection archivedTurns = cfg.getConfigurationSection("archive");
+                if (archivedTurns != null) {
+                    for (String key : archivedTurns.getKeys(false)) {
+                        UUID vid;
+                        try { vid = UUID.fromString(key); } catch (IllegalArgumentException ex) { continue; }
+                        Shard s = migrating(vid, seen);
+                        for (String line : archivedTurns.getStringList(key)) {
+                            archived(s, vid, ConversationHistory.Entry.fromLine(line));
+                        }
+                    }
+                }
+                for (String key : cfg.getKeys(false)) {
+                    UUID vid;
+                    try { vid = UUID.fromString(key); } catch (IllegalArgumentException ex) { continue; }
+                    Shard s = migrating(vid, seen);
+                    for (String line : cfg.getStringList(key)) remember(s, vid, ConversationHistory.Entry.fromLine(line));
+                }
+                ConfigurationSection sums = cfg.getConfigurationSection("summaries");
+                if (sums != null) {
+                    for (String key : sums.getKeys(false)) {
+                        UUID vid;
+                        try { vid = UUID.fromString(key); } catch (IllegalArgumentException ex) { continue; }
+                        setSummary(migrating(vid, seen), vid, sums.getString(key, ""));
+                    }
+                }
+            }
+            if (Files.exists(oldJournal)) replay(oldJournal, vid -> migrating(vid, seen));
+            compactAll();
+            writeVillages();
+            for (Path p : old) {
+                Files.move(p, p.resolveSibling(p.getFileName() + ".migrated"), StandardCopyOption.REPLACE_EXISTING);
+            }
+            plugin.getLogger().info("Split " + seen.size() + " villagers into shards");
+        } catch (IOException ex) {
+            plugin.getLogger().severe("Splitting old villager files failed, they are left in place: " + ex.getMessage());
+        }
+    }
+
+    /** The shard a migrated villager goes to, marked to be written. */
+    private Shard migrating(UUID vid, Map<UUID, Boolean> seen) {
+        Shard s = shard(vid);
+        s.dirty = true;
+        seen.put(vid, Boolean.TRUE);
+        return s;
+    }
+}
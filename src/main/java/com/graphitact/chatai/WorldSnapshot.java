@@ -0,0 +1,49 @@
+package com.graphitact.chatai;
+
+import org.bukkit.Bukkit;
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.ToIntFunction;
+
+/**
+ * The server state placeholders read, captured on the main thread at the
+ * start of every tick. Immutable, so any thread can read it and everything a
+ * reply shows comes from one consistent moment.
+ *
+ * @param time            time of day of the main world, in ticks
+ * @param storm           whether it is raining in the main world
+ * @param online          players online
+ * @param playersByWorld  players per world name
+ * @param openQuests      open quests per online player; players without any are left out
+ */
+record WorldSnapshot(long time,
+                     boolean storm,
+                     int online,
+                     Map<String, Integer> playersByWorld,
+                     Map<UUID, Integer> openQuests) {
+
+    static final WorldSnapshot EMPTY = new WorldSnapshot(0L, false, 0, Map.of(), Map.of());
+
+    /** Read the current state; main thread only. */
+    static WorldSnapshot capture(ToIntFunction<UUID> openQuests) {
+        List<World> worlds = Bukkit.getWorlds();
+        if (worlds.isEmpty()) return EMPTY;
+        World main = worlds.get(0);
+        Map<String, Integer> players = new HashMap<>();
+        for (World w : worlds) players.put(w.getName(), w.getPlayerCount());
+        Collection<? extends Player> online = Bukkit.getOnlinePlayers();
+        Map<UUID, Integer> quests = new HashMap<>();
+        for (Player p : online) {
+            int n = openQuests.applyAsInt(p.getUniqueId());
+            if (n > 0) quests.put(p.getUniqueId(), n);
+        }
+        return new WorldSnapshot(main.getTime(), main.hasStorm(), online.size(),
+            Map.copyOf(players), Map.copyOf(quests));
+    }
+}
@@ -0,0 +1,318 @@
+package com.graphitact.chatai.quest;
+
+import com.graphitact.chatai.quest.QuestSystem.Quest;
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.reflect.TypeToken;
+import org.bukkit.plugin.Plugin;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single-writer persistence for quests.
+ *
+ * Changes are handed over from the main thread as copies and coalesced per
+ * quest for a short window, so a burst of kills on one quest becomes one
+ * write. A flush appends one line per changed quest to {@code missions.log}:
+ * the full quest when it was added, just amount and turn-in flag for
+ * progress, a tombstone when it was completed. The log is periodically folded
+ * into the {@code missions.json} snapshot (temp file, then atomic rename).
+ *
+ * One background thread does every write and owns its own copy of the
+ * quests, so writes can never land out of order and never read quest objects
+ * the main thread is changing.
+ */
+final class MissionStore {
+    private enum Kind { PUT, PROGRESS, DELETE }
+
+    private record Op(Kind kind, Quest quest) {}
+
+    private static final Type SNAPSHOT_TYPE = new TypeToken<Map<String, List<Quest>>>(){}.getType();
+
+    private final Plugin plugin;
+    private final Path snapshot, log;
+    private final Gson gson = new Gson();
+    private final long flushDelayMillis;
+    private final int compactAfterLines;
+    private final ScheduledExecutorService io;
+
+    // changes not yet written, latest per "player/quest id"; guarded by itself,
+    // which also keeps a flush from being scheduled while close() shuts io down
+    private final Map<String, Op> pending = new LinkedHashMap<>();
+    private boolean flushScheduled;
+
+    // io thread only: what is on disk, and the open log
+    private final Map<UUID, Map<String, Quest>> stored = new LinkedHashMap<>();
+    private BufferedWriter out;
+    private int logLines;
+
+    MissionStore(Plugin plugin) {
+        File dir               = plugin.getDataFolder();
+        this.plugin            = plugin;
+        this.snapshot          = new File(dir, "missions.json").toPath();
+        this.log               = new File(dir, "missions.log").toPath();
+        this.flushDelayMillis  = Math.max(0, plugin.getConfig().getLong("missions-flush-ms", 2000));
+        this.compactAfterLines = plugin.getConfig().getInt("missions-compact-after-lines", 5000);
+        this.io = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "ChatAI-Missions");
+            t.setDaemon(true);
+            return t;
+        });
+        long compactMillis = plugin.getConfig().getLong("missions-compact-minutes", 10) * 60_000L;
+        if (compactMillis > 0) {
+            io.scheduleWithFixedDelay(this::compactQuietly, compactMillis, compactMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Read the snapshot and replay the log. Blocks; call once at startup.
+     * The returned quests belong to the caller.
+     */
+    Map<UUID, List<Quest>> load() {
+        try {
+            return io.submit(() -> {
+                readSnapshot();
+                replayLog();
+                Map<UUID, List<Quest>> copy = new LinkedHashMap<>();
+                stored.forEach((pid, quests) -> {
+                    List<Quest> list = new ArrayList<>(quests.size());
+                    for (Quest q : quests.values()) list.add(copy(q));
+                    copy.put(pid, list);
+                });
+                return copy;
+            }).get();
+        } catch (Exception e) {
+            plugin.getLogger().severe("Failed to load missions: " + e.getMessage());
+            return new LinkedHashMap<>();
+        }
+    }
+
+    /** A quest was added. */
+    void put(Quest q) {
+        submit(q, new Op(Kind.PUT, copy(q)));
+    }
+
+    /** A quest's amount or turn-in flag changed. */
+    void progress(Quest q) {
+        submit(q, new Op(Kind.PROGRESS, copy(q)));
+    }
+
+    /** A quest was completed. */
+    void remove(Quest q) {
+        submit(q, new Op(Kind.DELETE, copy(q)));
+    }
+
+    /** Write everything pending and compact; waits for the writer. Call from onDisable. */
+    void close() {
+        synchronized (pending) {
+            io.execute(() -> {
+                flush();
+                compactQuietly();
+            });
+            io.shutdown();
+        }
+        try {
+            if (!io.awaitTermination(10, TimeUnit.SECONDS)) {
+                plugin.getLogger().warning("Missions did not finish saving in time");
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        closeWriter();
+    }
+
+    private void submit(Quest q, Op op) {
+        String key = q.player + "/" + q.id;
+        synchronized (pending) {
+            Op prev = pending.get(key);
+            // progress on a quest not yet written: still write it whole
+            if (op.kind == Kind.PROGRESS && prev != null && prev.kind == Kind.PUT) {
+                op = new Op(Kind.PUT, op.quest);
+            }
+            pending.put(key, op);
+            if (flushScheduled || io.isShutdown()) return;
+            flushScheduled = true;
+            io.schedule(this::flush, flushDelayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // ---- io thread only below ----
+
+    private void flush() {
+        List<Op> ops;
+        synchronized (pending) {
+            ops = new ArrayList<>(pending.values());
+            pending.clear();
+            flushScheduled = false;
+        }
+        if (ops.isEmpty()) return;
+        try {
+            BufferedWriter w = writer();
+            for (Op op : ops) {
+                apply(op);
+                w.write(line(op));
+                w.newLine();
+            }
+            w.flush();
+            logLines += ops.size();
+            if (logLines >= compactAfterLines) compact();
+        } catch (IOException e) {
+            plugin.getLogger().severe("Failed to save missions: " + e.getMessage());
+        }
+    }
+
+    private void apply(Op op) {
+        Quest q = op.quest;
+        switch (op.kind) {
+            case PUT -> stored.computeIfAbsent(q.player, k -> new LinkedHashMap<>()).put(q.id, q);
+            case PROGRESS -> {
+                Map<String, Quest> quests = stored.get(q.player);
+                Quest s = quests == null ? null : quests.get(q.id);
+                if (s != null) {
+                    s.amount        = q.amount;
+                    s.readyToTurnIn = q.readyToTurnIn;
+                }
+            }
+            case DELETE -> {
+                Map<String, Quest> quests = stored.get(q.player);
+                if (quests != null) {
+                    quests.remove(q.id);
+                    if (quests.isEmpty()) stored.remove(q.player);
+                }
+            }
+        }
+    }
+
+    private String line(Op op) {
+        JsonObject rec = new JsonObject();
+        rec.addProperty("op", op.kind.name());
+        rec.addProperty("p",  op.quest.player.toString());
+        rec.addProperty("id", op.quest.id);
+        switch (op.kind) {
+            case PUT      -> rec.add("q", gson.toJsonTree(op.quest));
+            case PROGRESS -> {
+                rec.addProperty("n",     op.quest.amount);
+                rec.addProperty("ready", op.quest.readyToTurnIn);
+            }
+            case DELETE   -> { }
+        }
+        return rec.toString();
+    }
+
+    private void readSnapshot() throws IOException {
+        if (!Files.exists(snapshot)) return;
+        Map<String, List<Quest>> data = gson.fromJson(Files.readString(snapshot, StandardCharsets.UTF_8), SNAPSHOT_TYPE);
+        if (data == null) return;
+        data.forEach((pid, list) -> {
+            Map<String, Quest> quests = new LinkedHashMap<>();
+            for (Quest q : list) quests.put(q.id, q);
+            stored.put(UUID.fromString(pid), quests);
+        });
+    }
+
+    private void replayLog() throws IOException {
+        if (!Files.exists(log)) return;
+        int replayed = 0;
+        try (BufferedReader in = Files.newBufferedReader(log, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.isBlank()) continue;
+                try {
+                    JsonObject rec = JsonParser.parseString(line).getAsJsonObject();
+                    Kind kind = Kind.valueOf(rec.get("op").getAsString());
+                    Quest q;
+                    if (kind == Kind.PUT) {
+                        q = gson.fromJson(rec.get("q"), Quest.class);
+                    } else {
+                        q = new Quest();
+                        q.player = UUID.fromString(rec.get("p").getAsString());
+                        q.id     = rec.get("id").getAsString();
+                        if (kind == Kind.PROGRESS) {
+                            q.amount        = rec.get("n").getAsInt();
+                            q.readyToTurnIn = rec.get("ready").getAsBoolean();
+                        }
+                    }
+                    apply(new Op(kind, q));
+                    replayed++;
+                } catch (RuntimeException ex) {
+                    // a torn last line after a crash; everything before it is intact
+                }
+            }
+        }
+        logLines = replayed;
+    }
+
+    private void compactQuietly() {
+        try {
+            compact();
+        } catch (IOException e) {
+            plugin.getLogger().warning("Missions compaction failed: " + e.getMessage());
+        }
+    }
+
+    /** Fold the log into missions.json (temp file + rename), then start an empty log. */
+    private void compact() throws IOException {
+        if (logLines == 0) return;
+        Map<String, List<Quest>> data = new LinkedHashMap<>();
+        stored.forEach((pid, quests) -> data.put(pid.toString(), new ArrayList<>(quests.values())));
+        Path tmp = snapshot.resolveSibling(snapshot.getFileName() + ".tmp");
+        Files.writeString(tmp, gson.toJson(data), StandardCharsets.UTF_8);
+        Files.move(tmp, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        closeWriter();
+        Files.deleteIfExists(log);
+        logLines = 0;
+    }
+
+    private BufferedWriter writer() throws IOException {
+        if (out == null) {
+            Files.createDirectories(log.getParent());
+            out = Files.newBufferedWriter(log, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        }
+        return out;
+    }
+
+    private void closeWriter() {
+        if (out == null) return;
+        try {
+            out.close();
+        } catch (IOException ignored) {
+            // nothing left to flush into
+        }
+        out = null;
+    }
+
+    private static Quest copy(Quest q) {
+        Quest c = new Quest();
+        c.id             = q.id;
+        c.type           = q.type;
+        c.target         = q.target;
+        c.amount         = q.amount;
+        c.locationHint   = q.locationHint;
+        c.rewardCommand  = q.rewardCommand;
+        c.giver          = q.giver;
+        c.player         = q.player;
+        c.requiresTurnIn = q.requiresTurnIn;
+        c.readyToTurnIn  = q.readyToTurnIn;
+        return c;
+    }
+}
@@ -0,0 +1,98 @@
+package com.graphitact.chatai.quest;
+
+import com.graphitact.chatai.quest.QuestSystem.Quest;
+import org.bukkit.Material;
+import org.bukkit.entity.EntityType;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Lookup tables for quest progress, so kill and pickup events can be matched
+ * without scanning quests or comparing names.
+ *
+ * Two global sets hold every mob type and item type that some open quest
+ * still counts; events for anything else are rejected with one bit test.
+ * Per player, open quests are grouped by their parsed target. Only quests
+ * still in progress are indexed: once a quest is ready to turn in or done,
+ * it no longer soaks up kills or pickups.
+ *
+ * Rebuilt per player whenever that player's quests change; the global sets
+ * are swapped in as fresh copies so event handlers never see them mid-update.
+ * Callers reindex on the main thread only, since the quest lists they pass in
+ * are plain maps that the main thread also changes.
+ */
+final class QuestIndex {
+
+    private static final class PlayerQuests {
+        final EnumMap<EntityType, List<Quest>> kills   = new EnumMap<>(EntityType.class);
+        final EnumMap<Material, List<Quest>>   fetches = new EnumMap<>(Material.class);
+    }
+
+    private final Map<UUID, PlayerQuests> players = new ConcurrentHashMap<>();
+    private volatile EnumSet<EntityType> killTargets  = EnumSet.noneOf(EntityType.class);
+    private volatile EnumSet<Material>   fetchTargets = EnumSet.noneOf(Material.class);
+
+    boolean tracksKill(EntityType type) {
+        return killTargets.contains(type);
+    }
+
+    boolean tracksFetch(Material type) {
+        return fetchTargets.contains(type);
+    }
+
+    /** First open KILL quest of the player for this mob, or null. */
+    Quest killQuest(UUID playerId, EntityType type) {
+        PlayerQuests pq = players.get(playerId);
+        return pq == null ? null : first(pq.kills.get(type));
+    }
+
+    /** First open FETCH quest of the player for this item, or null. */
+    Quest fetchQuest(UUID playerId, Material type) {
+        PlayerQuests pq = players.get(playerId);
+        return pq == null ? null : first(pq.fetches.get(type));
+    }
+
+    /** Re-index one player's quests (in their original order). */
+    synchronized void reindex(UUID playerId, Collection<Quest> quests) {
+        PlayerQuests pq = new PlayerQuests();
+        for (Quest q : quests) {
+            if (q.type == null || q.target == null || q.amount <= 0 || q.readyToTurnIn) continue;
+            String name = q.target.trim().toUpperCase(Locale.ROOT);
+            try {
+                if (q.type == Quest.Type.KILL) {
+                    pq.kills.computeIfAbsent(EntityType.valueOf(name), k -> new ArrayList<>()).add(q);
+                } else {
+                    pq.fetches.computeIfAbsent(Material.valueOf(name), k -> new ArrayList<>()).add(q);
+                }
+            } catch (IllegalArgumentException ex) {
+                // not a mob/item name; such a quest could never make progress anyway
+            }
+        }
+        if (pq.kills.isEmpty() && pq.fetches.isEmpty()) players.remove(playerId);
+        else players.put(playerId, pq);
+        rebuildTargets();
+    }
+
+    private void rebuildTargets() {
+        EnumSet<EntityType> kills  = EnumSet.noneOf(EntityType.class);
+        EnumSet<Material> fetches  = EnumSet.noneOf(Material.class);
+        for (PlayerQuests pq : players.values()) {
+            kills.addAll(pq.kills.keySet());
+            fetches.addAll(pq.fetches.keySet());
+        }
+        killTargets  = kills;
+        fetchTargets = fetches;
+    }
+
+    private static Quest first(List<Quest> quests) {
+        return quests == null || quests.isEmpty() ? null : quests.get(0);
+    }
+}
@@ -2,33 +2,33 @@ package com.graphitact.chatai.quest;
 
 import net.md_5.bungee.api.ChatMessageType;
 import net.md_5.bungee.api.chat.TextComponent;
-import com.google.gson.Gson;
-import com.google.gson.reflect.TypeToken;
 import org.bukkit.Bukkit;
 import org.bukkit.ChatColor;
+import org.bukkit.Material;
 import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.Listener;
 import org.bukkit.event.entity.EntityDeathEvent;
 import org.bukkit.event.player.PlayerPickupItemEvent;
 import org.bukkit.plugin.java.JavaPlugin;
-import org.bukkit.scheduler.BukkitRunnable;
 
-import java.io.File;
-import java.lang.reflect.Type;
-import java.nio.file.Files;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 
 public class QuestSystem implements Listener {
     private final JavaPlugin plugin;
-    private final File missionsFile;
-    private final Gson gson = new Gson();
+    private final MissionStore store;
     private final Map<UUID, Map<String, Quest>> activeQuests = new ConcurrentHashMap<>();
+    private final QuestIndex index = new QuestIndex();
+    // counters for /chatai stats
+    private final LongAdder killEvents   = new LongAdder();
+    private final LongAdder pickupEvents = new LongAdder();
+    private final LongAdder progressed   = new LongAdder();
 
     public QuestSystem(JavaPlugin plugin) {
         this.plugin = plugin;
-        this.missionsFile = new File(plugin.getDataFolder(), "missions.json");
+        this.store = new MissionStore(plugin);
         loadMissions();
         plugin.getServer().getPluginManager().registerEvents(this, plugin);
     }
@@ -49,11 +49,12 @@ public class QuestSystem implements Listener {
         public boolean readyToTurnIn  = false;
     }
 
+    /** Hand a new quest to its player. Main thread only, like every other quest change. */
     public void addQuest(Quest q) {
-        activeQuests
-          .computeIfAbsent(q.player, k -> new LinkedHashMap<>())
-          .put(q.id, q);
-        saveMissions();
+        Map<String, Quest> quests = activeQuests.computeIfAbsent(q.player, k -> new LinkedHashMap<>());
+        quests.put(q.id, q);
+        index.reindex(q.player, quests.values());
+        store.put(q);
 
         Player p = Bukkit.getPlayer(q.player);
         if (p != null && p.isOnline()) {
@@ -91,97 +92,84 @@ public class QuestSystem implements Listener {
     }
 
     private void loadMissions() {
-        try {
-            if (!missionsFile.exists()) return;
-            String json = Files.readString(missionsFile.toPath());
-            Type type = new TypeToken<Map<String, List<Quest>>>(){}.getType();
-            Map<String, List<Quest>> data = gson.fromJson(json, type);
-            data.forEach((pid, list) -> {
-                UUID playerId = UUID.fromString(pid);
-                Map<String, Quest> map = new LinkedHashMap<>();
-                for (Quest q : list) map.put(q.id, q);
-                activeQuests.put(playerId, map);
-            });
-        } catch (Exception e) {
-            plugin.getLogger().severe("Failed to load missions: " + e.getMessage());
-        }
+        store.load().forEach((playerId, list) -> {
+            Map<String, Quest> map = new LinkedHashMap<>();
+            for (Quest q : list) map.put(q.id, q);
+            activeQuests.put(playerId, map);
+            index.reindex(playerId, map.values());
+        });
     }
 
-    private void saveMissions() {
-        new BukkitRunnable() {
-            public void run() {
-                try {
-                    Map<String, List<Quest>> out = new LinkedHashMap<>();
-                    activeQuests.forEach((pid, map) ->
-                       out.put(pid.toString(), new ArrayList<>(map.values()))
-                    );
-                    String json = gson.toJson(out);
-                    Files.writeString(missionsFile.toPath(), json);
-                } catch (Exception e) {
-                    plugin.getLogger().severe("Failed to save missions: " + e.getMessage());
-                }
-            }
-        }.runTaskAsynchronously(plugin);
+    /** Mob deaths seen by the quest listener. */
+    public long killEvents() { return killEvents.sum(); }
+
+    /** Item pickups seen by the quest listener. */
+    public long pickupEvents() { return pickupEvents.sum(); }
+
+    /** Kills and pickups that counted towards a quest. */
+    public long progressEvents() { return progressed.sum(); }
+
+    /** Quests the player has not completed yet; safe to call off the main thread. */
+    public int openQuestCount(UUID playerId) {
+        // a racy size() read at worst lags one change behind
+        return activeQuests.getOrDefault(playerId, Collections.emptyMap()).size();
+    }
+
+    public long activeQuestCount() {
+        long n = 0;
+        for (Map<String, Quest> quests : activeQuests.values()) n += quests.size();
+        return n;
+    }
+
+    /** Flush pending quest changes to disk; call from onDisable. */
+    public void shutdown() {
+        store.close();
     }
 
     @EventHandler
     public void onEntityDeath(EntityDeathEvent e) {
+        killEvents.increment();
+        // most deaths are of mobs no quest asks for
+        if (!index.tracksKill(e.getEntityType())) return;
         if (!(e.getEntity().getKiller() instanceof Player)) return;
         Player p = e.getEntity().getKiller();
-        Map<String, Quest> quests = activeQuests.getOrDefault(p.getUniqueId(), Collections.emptyMap());
-        for (Quest q : quests.values()) {
-            if (q.type == Quest.Type.KILL
-             && e.getEntityType().name().equalsIgnoreCase(q.target)) {
-                q.amount--;
-                if (q.amount > 0) {
-                    // Progress ActionBar
-                    p.spigot().sendMessage(
-                        ChatMessageType.ACTION_BAR,
-                        new TextComponent("§bQuest Progress: §f" 
-                            + q.amount + "× " + q.target + " left")
-                    );
-                } else if (q.requiresTurnIn) {
-                    q.readyToTurnIn = true;
-                    p.spigot().sendMessage(
-                        ChatMessageType.ACTION_BAR,
-                        new TextComponent("§eReturn to quest giver to complete!")
-                    );
-                } else {
-                    complete(q, p);
-                }
-                saveMissions();
-                break;
-            }
-        }
+        Quest q = index.killQuest(p.getUniqueId(), e.getEntityType());
+        if (q != null) progress(q, p);
     }
 
     @EventHandler
     public void onItemPickup(PlayerPickupItemEvent e) {
+        pickupEvents.increment();
+        Material type = e.getItem().getItemStack().getType();
+        if (!index.tracksFetch(type)) return;
         Player p = e.getPlayer();
-        Map<String, Quest> quests = activeQuests.getOrDefault(p.getUniqueId(), Collections.emptyMap());
-        for (Quest q : quests.values()) {
-            if (q.type == Quest.Type.FETCH
-             && e.getItem().getItemStack().getType().name().equalsIgnoreCase(q.target)) {
-                q.amount--;
-                if (q.amount > 0) {
-                    p.spigot().sendMessage(
-                        ChatMessageType.ACTION_BAR,
-                        new TextComponent("§bQuest Progress: §f" 
-                            + q.amount + "× " + q.target + " left")
-                    );
-                } else if (q.requiresTurnIn) {
-                    q.readyToTurnIn = true;
-                    p.spigot().sendMessage(
-                        ChatMessageType.ACTION_BAR,
-                        new TextComponent("§eReturn to quest giver to complete!")
-                    );
-                } else {
-                    complete(q, p);
-                }
-                saveMissions();
-                break;
-            }
+        Quest q = index.fetchQuest(p.getUniqueId(), type);
+        if (q != null) progress(q, p);
+    }
+
+    /** Count one kill/pickup towards {@code q}. */
+    private void progress(Quest q, Player p) {
+        progressed.increment();
+        q.amount--;
+        if (q.amount > 0) {
+            // Progress ActionBar
+            p.spigot().sendMessage(
+                ChatMessageType.ACTION_BAR,
+                new TextComponent("§bQuest Progress: §f" 
+                    + q.amount + "× " + q.target + " left")
+            );
+        } else if (q.requiresTurnIn) {
+            q.readyToTurnIn = true;
+            p.spigot().sendMessage(
+                ChatMessageType.ACTION_BAR,
+                new TextComponent("§eReturn to quest giver to complete!")
+            );
+            index.reindex(p.getUniqueId(), activeQuests.getOrDefault(p.getUniqueId(), Collections.emptyMap()).values());
+        } else {
+            complete(q, p);
+            return;
         }
+        store.progress(q);
     }
 
     private void complete(Quest q, Player p) {
@@ -193,7 +181,10 @@ public class QuestSystem implements Listener {
         );
         p.sendMessage(ChatColor.GOLD + "Quest complete! You earned your reward.");
         Map<String, Quest> map = activeQuests.get(p.getUniqueId());
-        if (map != null) map.remove(q.id);
-        saveMissions();
+        if (map != null) {
+            map.remove(q.id);
+            index.reindex(p.getUniqueId(), map.values());
+        }
+        store.remove(q);
     }
 }
@@ -0,0 +1,256 @@
+package com.graphitact.chatai;
+
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.plugin.Plugin;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Failover, circuit breaking, hedging and admission through AIClient,
+ * against stub backends on the JDK's HttpServer.
+ */
+class AIClientBackendTest {
+    private final List<StubBackend> backends = new ArrayList<>();
+    private AIClient ai;
+    private MainThreadQueue mainThread;
+    private Tracer tracer;
+
+    @AfterEach
+    void close() {
+        if (ai != null) ai.shutdown();
+        if (tracer != null) tracer.close();
+        backends.forEach(StubBackend::close);
+    }
+
+    private StubBackend backend(String answer) throws Exception {
+        StubBackend b = new StubBackend(answer);
+        backends.add(b);
+        return b;
+    }
+
+    /** An AIClient sending to {@link #backends}, with {@code settings} as key/value pairs on top. */
+    private AIClient client(Object... settings) {
+        YamlConfiguration config = new YamlConfiguration();
+        config.set("proxy-urls", backends.stream().map(b -> b.uri().toString()).toList());
+        config.set("system-prompt", "You are a test.");
+        config.set("trace-sample-rate", 0);
+        config.set("trace-file", "");
+        config.set("request-timeout-seconds", 5);
+        config.set("backend-probe-seconds", 0);
+        for (int i = 0; i < settings.length; i += 2) config.set((String) settings[i], settings[i + 1]);
+
+        Plugin plugin = TestPlugin.with(config, new File("."));
+        Metrics metrics = new Metrics();
+        tracer = new Tracer(plugin);
+        mainThread = new MainThreadQueue(plugin, metrics);
+        ai = new AIClient(plugin, metrics, tracer, mainThread);
+        return ai;
+    }
+
+    /** One one-shot request; its reply, with this thread standing in for the main thread. */
+    private String ask(String prompt) throws InterruptedException {
+        BlockingQueue<String> replies = new ArrayBlockingQueue<>(2);
+        AIClient.Admission a = ai.ask(null, new ConversationHistory(4), prompt, AIClient.Priority.NORMAL,
+            chunk -> { }, replies::add);
+        assertEquals(AIClient.Admission.ACCEPTED, a);
+        long until = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        String reply;
+        while ((reply = replies.poll(10, TimeUnit.MILLISECONDS)) == null) {
+            mainThread.drain();
+            assertTrue(System.nanoTime() < until, "no reply within 10s");
+        }
+        // the callback runs exactly once
+        Thread.sleep(50);
+        mainThread.drain();
+        assertNull(replies.poll());
+        return reply;
+    }
+
+    @Test
+    void failingBackendIsTakenOutOfRotation() throws Exception {
+        StubBackend down = backend("from down");
+        StubBackend up = backend("from up");
+        down.status = 500;
+        client("backend-failure-threshold", 2, "backend-cooldown-seconds", 60);
+
+        List<String> replies = new ArrayList<>();
+        for (int i = 0; i < 6; i++) replies.add(ask("hello " + i));
+
+        // until the circuit opens a failed request is an empty reply, never the error body
+        assertTrue(replies.stream().allMatch(r -> r.isEmpty() || r.equals("from up")), replies.toString());
+        assertEquals(2, down.posts.get(), "no more requests after two failures in a row");
+        assertEquals("from up", replies.get(5));
+        assertEquals(6 - down.posts.get(), up.posts.get());
+    }
+
+    @Test
+    void everyCircuitOpenFailsFast() throws Exception {
+        StubBackend down = backend("never");
+        down.status = 500;
+        client("backend-failure-threshold", 1, "backend-cooldown-seconds", 60);
+
+        assertEquals("", ask("first"));
+        long t0 = System.nanoTime();
+        assertEquals("", ask("second"));
+        assertEquals(1, down.posts.get());
+        assertTrue(System.nanoTime() - t0 < TimeUnit.SECONDS.toNanos(2));
+    }
+
+    @Test
+    void slowPrimaryIsHedgedOntoTheOtherBackend() throws Exception {
+        StubBackend slow = backend("from slow");
+        StubBackend fast = backend("from fast");
+        slow.delayMillis = 3_000;
+        client("hedge-requests", true, "hedge-min-delay-ms", 100);
+
+        long t0 = System.nanoTime();
+        assertEquals("from fast", ask("hello"));
+        assertTrue(System.nanoTime() - t0 < TimeUnit.MILLISECONDS.toNanos(2_500), "answered before the primary");
+        assertEquals(1, slow.posts.get());
+        assertEquals(1, fast.posts.get());
+
+        // the cancelled primary was abandoned, not counted as a failure
+        BackendPool.Backend primary = poolOf(slow);
+        assertFalse(primary.isOpen());
+    }
+
+    @Test
+    void noHedgeIsSentOnceThePrimaryHasFailed() throws Exception {
+        StubBackend down = backend("never");
+        StubBackend other = backend("from other");
+        down.status = 500;
+        client("hedge-requests", true, "hedge-min-delay-ms", 200, "backend-failure-threshold", 5);
+
+        assertEquals("", ask("hello"));
+        // well past the hedge delay
+        Thread.sleep(400);
+        assertEquals(1, down.posts.get() + other.posts.get(), "one exchange only");
+    }
+
+    @Test
+    void hedgeFailsOnlyWhenBothAttemptsFail() throws Exception {
+        StubBackend a = backend("never");
+        StubBackend b = backend("never");
+        a.status = 500;
+        b.status = 500;
+        a.delayMillis = 400;
+        b.delayMillis = 400;
+        client("hedge-requests", true, "hedge-min-delay-ms", 100, "backend-failure-threshold", 5);
+
+        assertEquals("", ask("hello"));
+        assertEquals(2, a.posts.get() + b.posts.get());
+    }
+
+    @Test
+    void eventCommentsAreSentSideBySide() throws Exception {
+        StubBackend slow = backend("nice");
+        slow.delayMillis = 300;
+        client("conversation-queue-size", 1, "max-concurrent-requests", 8);
+
+        UUID server = new UUID(0L, 0L);
+        ConversationHistory shared = new ConversationHistory(8);
+        BlockingQueue<String> replies = new ArrayBlockingQueue<>(8);
+        for (int i = 0; i < 6; i++) {
+            AIClient.Admission a = ai.askEvent("join", server, shared, "{0} joined", new String[] { "p" + i },
+                AIClient.Priority.LOW, chunk -> { }, replies::add);
+            assertEquals(AIClient.Admission.ACCEPTED, a, "event " + i);
+        }
+        long until = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (replies.size() < 6) {
+            mainThread.drain();
+            assertTrue(System.nanoTime() < until, "no replies within 10s");
+            Thread.sleep(10);
+        }
+        assertEquals(6, slow.posts.get());
+        assertTrue(replies.stream().allMatch("nice"::equals), replies.toString());
+    }
+
+    @Test
+    void greetingIsNotRateLimitedButChatIs() throws Exception {
+        backend("hi");
+        client("player-request-burst", 2, "player-requests-per-minute", 0.001);
+
+        UUID player = new UUID(3L, 3L);
+        ConversationHistory h = new ConversationHistory(8);
+        assertEquals(AIClient.Admission.ACCEPTED,
+            ai.greet(player, h, "Greet them.", "You are a test.", AIClient.Priority.HIGH, chunk -> { }, reply -> { }));
+        for (int i = 0; i < 2; i++) {
+            assertEquals(AIClient.Admission.ACCEPTED,
+                ai.askWithSystem(player, h, "hello " + i, "You are a test.", AIClient.Priority.HIGH,
+                    chunk -> { }, reply -> { }));
+        }
+        assertEquals(AIClient.Admission.RATE_LIMITED,
+            ai.askWithSystem(player, h, "again", "You are a test.", AIClient.Priority.HIGH, chunk -> { }, reply -> { }));
+        // another player has a bucket of their own
+        assertEquals(AIClient.Admission.ACCEPTED,
+            ai.ask(new UUID(4L, 4L), new ConversationHistory(8), "hello", AIClient.Priority.NORMAL,
+                chunk -> { }, reply -> { }));
+    }
+
+    @Test
+    void streamedReplyShowsUpSentenceBySentence() throws Exception {
+        String first = "The mill by the river grinds our wheat.";
+        String second = "Come back at dawn and bring two buckets of water for the old miller.";
+        StubBackend b = backend(first + " " + second);
+        b.sse = true;
+        b.streamGate = new CountDownLatch(1);
+        client("stream-replies", true);
+
+        UUID player = new UUID(5L, 5L);
+        ConversationHistory h = new ConversationHistory(8);
+        List<String> chunks = new ArrayList<>();
+        BlockingQueue<String> replies = new ArrayBlockingQueue<>(2);
+        assertEquals(AIClient.Admission.ACCEPTED,
+            ai.ask(player, h, "Where is the mill?", AIClient.Priority.NORMAL, chunks::add, replies::add));
+
+        // the stream is held halfway; the first sentence is already in chat
+        long until = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (chunks.isEmpty()) {
+            mainThread.drain();
+            assertTrue(System.nanoTime() < until, "no early chunk within 10s");
+            Thread.sleep(10);
+        }
+        assertEquals(List.of(first), chunks);
+        assertNull(replies.poll(), "not finished yet");
+        assertEquals(1, h.size(), "nothing of the reply in history yet");
+
+        b.streamGate.countDown();
+        String reply;
+        while ((reply = replies.poll(10, TimeUnit.MILLISECONDS)) == null) {
+            mainThread.drain();
+            assertTrue(System.nanoTime() < until, "no reply within 10s");
+        }
+        assertEquals(first + " " + second, reply);
+        assertEquals(List.of(first, second), chunks);
+
+        // one entry for the whole reply, not one per chunk
+        ConversationHistory.Entry[] turns = h.toArray();
+        assertEquals(2, turns.length);
+        assertEquals(ConversationHistory.Role.USER, turns[0].role());
+        assertEquals("Where is the mill?", turns[0].text());
+        assertEquals(ConversationHistory.Role.ASSISTANT, turns[1].role());
+        assertEquals(first + " " + second, turns[1].text());
+    }
+
+    /** The pool entry AIClient keeps for {@code stub}. */
+    private BackendPool.Backend poolOf(StubBackend stub) throws ReflectiveOperationException {
+        var field = AIClient.class.getDeclaredField("pool");
+        field.setAccessible(true);
+        BackendPool pool = (BackendPool) field.get(ai);
+        return pool.backends().stream().filter(b -> b.uri.equals(stub.uri())).findFirst().orElseThrow();
+    }
+}
@@ -0,0 +1,57 @@
+package com.graphitact.chatai;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class AnswerStreamDecoderTest {
+
+    /** Feed {@code raw} in pieces of {@code size} characters and join what comes out. */
+    private static String decode(String raw, int size) {
+        AnswerStreamDecoder d = new AnswerStreamDecoder();
+        StringBuilder out = new StringBuilder();
+        for (int i = 0; i < raw.length(); i += size) {
+            out.append(d.feed(raw.substring(i, Math.min(raw.length(), i + size))));
+        }
+        return out.toString();
+    }
+
+    @Test
+    void answerValueIsUnescapedWhateverTheSplit() {
+        String raw = "{\"answer\": \"Say \\\"hi\\\"\\nto caf\\u00e9 \\\\ \\/ friends\"}";
+        String expected = "Say \"hi\"\nto café \\ / friends";
+        for (int size = 1; size <= raw.length(); size++) {
+            assertEquals(expected, decode(raw, size), "split every " + size);
+        }
+    }
+
+    @Test
+    void escapeSplitAcrossDeltas() {
+        AnswerStreamDecoder d = new AnswerStreamDecoder();
+        StringBuilder out = new StringBuilder();
+        for (String delta : new String[] { "{\"answer\":\"a\\", "nb\\u0", "0e", "9c\\", "\"\"}" }) {
+            out.append(d.feed(delta));
+        }
+        assertEquals("a\nbéc\"", out.toString());
+    }
+
+    @Test
+    void keySplitAcrossDeltasAndOtherKeysFirst() {
+        AnswerStreamDecoder d = new AnswerStreamDecoder();
+        StringBuilder out = new StringBuilder();
+        for (String delta : new String[] { "{\"mood\": \"glad\", \"ans", "wer\"", " :  \"", "Hello", "\"}" }) {
+            out.append(d.feed(delta));
+        }
+        assertEquals("Hello", out.toString());
+    }
+
+    @Test
+    void nothingAfterTheClosingQuote() {
+        assertEquals("done", decode("{\"answer\":\"done\",\"extra\":\"ignored\"}", 3));
+    }
+
+    @Test
+    void plainTextPassesThrough() {
+        assertEquals("Just text, {not json}.", decode("  Just text, {not json}.", 4));
+    }
+}
@@ -0,0 +1,152 @@
+package com.graphitact.chatai;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BackendPoolTest {
+    private static final URI A = URI.create("http://127.0.0.1:1/a");
+    private static final URI B = URI.create("http://127.0.0.1:1/b");
+
+    private BackendPool pool;
+
+    private BackendPool pool(List<URI> uris, int threshold, long cooldownMillis, long probeMillis) {
+        pool = new BackendPool(uris, BackendPool.Routing.LEAST_OUTSTANDING, threshold, cooldownMillis, probeMillis,
+            HttpClient.newHttpClient());
+        return pool;
+    }
+
+    @AfterEach
+    void close() {
+        if (pool != null) pool.close();
+    }
+
+    @Test
+    void leastOutstandingSpreadsLoad() {
+        BackendPool p = pool(List.of(A, B), 3, 60_000, 0);
+        BackendPool.Lease first = p.acquire(null);
+        BackendPool.Lease second = p.acquire(null);
+        assertTrue(first.backend() != second.backend(), "the busy backend is not picked again");
+        p.success(first, 10);
+        assertSame(first.backend(), p.acquire(null).backend());
+    }
+
+    @Test
+    void circuitOpensAfterThresholdFailuresInARow() {
+        BackendPool p = pool(List.of(A, B), 2, 60_000, 0);
+        BackendPool.Backend a = p.backends().get(0);
+        p.failure(p.acquire(null));
+        assertFalse(a.isOpen());
+        // a success in between resets the count
+        p.success(p.acquire(null), 10);
+        p.failure(take(p, a));
+        assertFalse(a.isOpen());
+        p.failure(take(p, a));
+        assertTrue(a.isOpen());
+
+        BackendPool.Backend b = p.backends().get(1);
+        for (int i = 0; i < 5; i++) assertSame(b, p.acquire(null).backend());
+        assertNull(p.acquire(b), "no backend left besides the excluded one");
+    }
+
+    @Test
+    void cooledDownBackendGetsOneTrialRequest() throws InterruptedException {
+        BackendPool p = pool(List.of(A), 1, 50, 0);
+        BackendPool.Backend a = p.backends().get(0);
+        p.failure(p.acquire(null));
+        assertTrue(a.isOpen());
+        assertNull(p.acquire(null), "still cooling down");
+
+        Thread.sleep(80);
+        BackendPool.Lease trial = p.acquire(null);
+        assertSame(a, trial.backend());
+        assertTrue(trial.trial());
+        assertNull(p.acquire(null), "only one trial at a time");
+        p.failure(trial);
+        assertTrue(a.isOpen(), "a failed trial opens the circuit again");
+
+        Thread.sleep(80);
+        p.success(p.acquire(null), 10);
+        assertFalse(a.isOpen());
+        assertFalse(p.acquire(null).trial());
+    }
+
+    @Test
+    void requestFromBeforeTheCircuitOpenedDoesNotEndTheTrial() throws InterruptedException {
+        BackendPool p = pool(List.of(A), 1, 50, 0);
+        BackendPool.Backend a = p.backends().get(0);
+        BackendPool.Lease stale = p.acquire(null);
+        p.failure(p.acquire(null));
+        assertTrue(a.isOpen());
+
+        Thread.sleep(80);
+        BackendPool.Lease trial = p.acquire(null);
+        assertTrue(trial.trial());
+        // the old request gives up while the trial still runs
+        p.abandoned(stale);
+        assertNull(p.acquire(null), "still only one trial");
+        p.failure(trial);
+        assertNull(p.acquire(null), "cooling down again");
+    }
+
+    @Test
+    void probeClosesTheCircuitOfABackendThatAnswers() throws Exception {
+        try (StubBackend up = new StubBackend("pong")) {
+            BackendPool p = pool(List.of(up.uri()), 1, 60_000, 50);
+            BackendPool.Backend b = p.backends().get(0);
+            p.failure(p.acquire(null));
+            assertTrue(b.isOpen());
+            long until = System.currentTimeMillis() + 5_000;
+            while (b.isOpen() && System.currentTimeMillis() < until) Thread.sleep(20);
+            assertFalse(b.isOpen());
+            assertTrue(up.probes.get() > 0);
+            assertEquals(0, up.posts.get());
+        }
+    }
+
+    @Test
+    void probeAnsweredWithAServerErrorKeepsTheCircuitOpen() throws Exception {
+        try (StubBackend down = new StubBackend("never")) {
+            down.probeStatus = 503;
+            BackendPool p = pool(List.of(down.uri()), 1, 60_000, 30);
+            BackendPool.Backend b = p.backends().get(0);
+            p.failure(p.acquire(null));
+            long until = System.currentTimeMillis() + 5_000;
+            while (down.probes.get() < 3 && System.currentTimeMillis() < until) Thread.sleep(20);
+            assertTrue(down.probes.get() >= 3);
+            assertTrue(b.isOpen());
+            assertNull(p.acquire(null), "no trial while a probe keeps failing");
+        }
+    }
+
+    @Test
+    void p95NeedsSixteenSamples() {
+        BackendPool p = pool(List.of(A), 3, 60_000, 0);
+        BackendPool.Backend a = p.backends().get(0);
+        for (int i = 1; i <= 15; i++) p.success(p.acquire(null), i * 10L);
+        assertEquals(-1, a.p95Millis());
+        for (int i = 16; i <= 20; i++) p.success(p.acquire(null), i * 10L);
+        assertEquals(190, a.p95Millis());
+    }
+
+    /** Acquire until {@code b} comes up, handing the others straight back. */
+    private static BackendPool.Lease take(BackendPool p, BackendPool.Backend b) {
+        BackendPool.Lease got = p.acquire(null);
+        if (got != null && got.backend() != b) {
+            BackendPool.Lease again = p.acquire(got.backend());
+            p.abandoned(got);
+            got = again;
+        }
+        assertSame(b, got.backend());
+        return got;
+    }
+}
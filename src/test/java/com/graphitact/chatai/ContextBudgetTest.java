@@ -0,0 +1,79 @@
+package com.graphitact.chatai;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class ContextBudgetTest {
+    /** A turn that costs exactly {@code tokens} as history. */
+    private static ConversationHistory.Entry turn(int tokens, String tag) {
+        String text = tag + "x".repeat((tokens - 4) * 4 - tag.length());
+        ConversationHistory.Entry e = new ConversationHistory.Entry(ConversationHistory.Role.USER, text, 0L);
+        assertEquals(tokens, ContextBudget.estimate(text));
+        return e;
+    }
+
+    private static ConversationHistory.Entry[] turns(int n, int tokens) {
+        ConversationHistory.Entry[] out = new ConversationHistory.Entry[n];
+        for (int i = 0; i < n; i++) out[i] = turn(tokens, "t" + i);
+        return out;
+    }
+
+    @Test
+    void estimateIsFourCharactersPerTokenPlusMarkup() {
+        assertEquals(4, ContextBudget.estimate(""));
+        assertEquals(5, ContextBudget.estimate("a"));
+        assertEquals(5, ContextBudget.estimate("abcd"));
+        assertEquals(6, ContextBudget.estimate("abcde"));
+    }
+
+    @Test
+    void oldestTurnsAreDroppedFirst() {
+        ConversationHistory.Entry[] all = turns(5, 10);
+        // 40 for prompt and history, the prompt takes 10: three turns of 10
+        ConversationHistory.Entry[] kept = new ContextBudget(60).fit(40, all, "x".repeat(24));
+        assertArrayEquals(new ConversationHistory.Entry[] { all[2], all[3], all[4] }, kept);
+    }
+
+    @Test
+    void systemPromptCountsAgainstTheBudget() {
+        ConversationHistory.Entry[] all = turns(5, 10);
+        String system = "x".repeat(24);
+        String prompt = "y".repeat(24);
+        assertEquals(3, new ContextBudget(50).fit(system, all, prompt).length);
+        assertEquals(0, new ContextBudget(20).fit(system, all, prompt).length);
+        // system prompt and message alone are over the budget: no history, but no failure either
+        assertEquals(0, new ContextBudget(5).fit(system, all, prompt).length);
+    }
+
+    @Test
+    void noLimitKeepsEverything() {
+        ConversationHistory.Entry[] all = turns(50, 100);
+        assertSame(all, new ContextBudget(0).fit("system", all, "prompt"));
+        assertEquals(50, new ContextBudget(0).oldestThatFit(10, List.of(all)));
+    }
+
+    @Test
+    void everythingFittingIsReturnedAsIs() {
+        ConversationHistory.Entry[] all = turns(3, 10);
+        assertSame(all, new ContextBudget(1000).fit("system", all, "prompt"));
+    }
+
+    @Test
+    void oldestThatFitCountsFromTheFront() {
+        List<ConversationHistory.Entry> all = new ArrayList<>();
+        for (int i = 0; i < 10; i++) all.add(new ConversationHistory.Entry(ConversationHistory.Role.USER, "x".repeat(30), 0L));
+        // "User: " plus 30 characters is 36, so 13 tokens a line
+        ContextBudget budget = new ContextBudget(1000);
+        assertEquals(3, budget.oldestThatFit(39, all));
+        assertEquals(3, budget.oldestThatFit(50, all));
+        assertEquals(10, budget.oldestThatFit(500, all));
+        assertEquals(1, budget.oldestThatFit(5, all), "a turn too big on its own still goes");
+        assertEquals(0, budget.oldestThatFit(100, List.of()));
+    }
+}
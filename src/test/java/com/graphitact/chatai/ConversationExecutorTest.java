@@ -0,0 +1,152 @@
+package com.graphitact.chatai;
+
+import com.graphitact.chatai.AIClient.Admission;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ConversationExecutorTest {
+    private static final UUID A = new UUID(1L, 1L);
+    private static final UUID B = new UUID(2L, 2L);
+
+    /** A step that records itself and keeps its {@code done} for the test to call. */
+    private static final class Held implements ConversationExecutor.Step {
+        final String name;
+        final List<String> log;
+        Runnable done;
+        boolean deferred;
+
+        Held(String name, List<String> log) {
+            this.name = name;
+            this.log  = log;
+        }
+
+        @Override
+        public Admission run(Runnable done, boolean deferred) {
+            this.done     = done;
+            this.deferred = deferred;
+            log.add("start " + name);
+            return Admission.ACCEPTED;
+        }
+    }
+
+    @Test
+    void stepsOfOneConversationRunOneAfterAnother() {
+        ConversationExecutor ex = new ConversationExecutor(4);
+        List<String> log = new ArrayList<>();
+        Held first = new Held("first", log), second = new Held("second", log), third = new Held("third", log);
+
+        assertEquals(Admission.ACCEPTED, ex.submit(A, first));
+        assertEquals(Admission.ACCEPTED, ex.submit(A, second));
+        assertEquals(Admission.ACCEPTED, ex.submit(A, third));
+        assertEquals(List.of("start first"), log);
+        assertFalse(first.deferred);
+
+        first.done.run();
+        assertEquals(List.of("start first", "start second"), log);
+        assertTrue(second.deferred, "the caller was told ACCEPTED already");
+        second.done.run();
+        third.done.run();
+        assertEquals(List.of("start first", "start second", "start third"), log);
+        assertEquals(0, ex.active(), "an idle conversation keeps no mailbox");
+    }
+
+    @Test
+    void conversationsRunSideBySide() {
+        ConversationExecutor ex = new ConversationExecutor(4);
+        List<String> log = new ArrayList<>();
+        ex.submit(A, new Held("a", log));
+        ex.submit(B, new Held("b", log));
+        assertEquals(List.of("start a", "start b"), log);
+        assertEquals(2, ex.active());
+    }
+
+    @Test
+    void idleConversationReturnsWhatTheStepReturns() {
+        ConversationExecutor ex = new ConversationExecutor(4);
+        assertEquals(Admission.REJECTED, ex.submit(A, (done, deferred) -> {
+            done.run();
+            return Admission.REJECTED;
+        }));
+        assertEquals(0, ex.active());
+    }
+
+    @Test
+    void tooManyWaitingAreRejected() {
+        ConversationExecutor ex = new ConversationExecutor(1);
+        List<String> log = new ArrayList<>();
+        Held running = new Held("running", log);
+        ex.submit(A, running);
+        assertEquals(Admission.ACCEPTED, ex.submit(A, new Held("waiting", log)));
+        assertEquals(Admission.REJECTED, ex.submit(A, new Held("late", log)));
+        // another conversation has a queue of its own
+        assertEquals(Admission.ACCEPTED, ex.submit(B, new Held("other", log)));
+
+        running.done.run();
+        assertEquals(List.of("start running", "start other", "start waiting"), log);
+    }
+
+    @Test
+    void doneTwiceMovesOnOnce() {
+        ConversationExecutor ex = new ConversationExecutor(4);
+        List<String> log = new ArrayList<>();
+        Held first = new Held("first", log), second = new Held("second", log);
+        ex.submit(A, first);
+        ex.submit(A, second);
+        ex.submit(A, new Held("third", log));
+        first.done.run();
+        first.done.run();
+        assertEquals(List.of("start first", "start second"), log);
+    }
+
+    @Test
+    void aStepThatThrowsLetsTheConversationGoOn() {
+        ConversationExecutor ex = new ConversationExecutor(4);
+        assertThrows(IllegalStateException.class, () -> ex.submit(A, (done, deferred) -> {
+            throw new IllegalStateException("boom");
+        }));
+        List<String> log = new ArrayList<>();
+        ex.submit(A, new Held("after", log));
+        assertEquals(List.of("start after"), log);
+    }
+
+    @Test
+    void neverTwoStepsOfOneConversationAtOnce() throws Exception {
+        ConversationExecutor ex = new ConversationExecutor(Integer.MAX_VALUE);
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger overlaps = new AtomicInteger();
+        int steps = 2_000;
+        CountDownLatch finished = new CountDownLatch(steps);
+        try {
+            for (int i = 0; i < steps; i++) {
+                pool.execute(() -> ex.submit(A, (done, deferred) -> {
+                    if (running.incrementAndGet() > 1) overlaps.incrementAndGet();
+                    // finish on another thread, as an HTTP reply would
+                    pool.execute(() -> {
+                        running.decrementAndGet();
+                        finished.countDown();
+                        done.run();
+                    });
+                    return Admission.ACCEPTED;
+                }));
+            }
+            assertTrue(finished.await(10, TimeUnit.SECONDS), "all steps ran");
+        } finally {
+            pool.shutdownNow();
+        }
+        assertEquals(0, overlaps.get());
+    }
+}
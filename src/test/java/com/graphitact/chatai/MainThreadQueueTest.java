@@ -0,0 +1,82 @@
+package com.graphitact.chatai;
+
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.fail;
+
+class MainThreadQueueTest {
+    private final Metrics metrics = new Metrics();
+
+    private MainThreadQueue queue(long budgetMillis) {
+        YamlConfiguration config = new YamlConfiguration();
+        config.set("main-thread-budget-ms", budgetMillis);
+        return new MainThreadQueue(TestPlugin.with(config, null), metrics);
+    }
+
+    /** Current value of one gauge, from the Prometheus text. */
+    private long gauge(String name) {
+        for (String line : metrics.renderPrometheus().split("\n")) {
+            if (line.startsWith(name + " ")) return Long.parseLong(line.substring(name.length() + 1).trim());
+        }
+        return fail("no gauge " + name);
+    }
+
+    private static void busy(long millis) {
+        long until = System.nanoTime() + millis * 1_000_000;
+        while (System.nanoTime() < until) Thread.onSpinWait();
+    }
+
+    @Test
+    void drainingEverythingInTimeCountsNothing() {
+        MainThreadQueue q = queue(25);
+        List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            int n = i;
+            q.post(() -> order.add(n));
+        }
+        q.drain();
+        // posted after the queue ran dry: next tick's work, not a full tick
+        q.post(() -> order.add(5));
+        assertEquals(List.of(0, 1, 2, 3, 4), order);
+        assertEquals(0, gauge("chatai_main_queue_full_ticks_total"));
+        assertEquals(0, gauge("chatai_main_queue_carried_over_total"));
+        assertEquals(5, gauge("chatai_main_queue_run_total"));
+        assertEquals(1, gauge("chatai_main_queue_depth"));
+    }
+
+    @Test
+    void runningOutOfBudgetCountsWhatIsLeft() {
+        MainThreadQueue q = queue(1);
+        List<Integer> order = new ArrayList<>();
+        q.post(() -> {
+            order.add(0);
+            busy(5);
+        });
+        q.post(() -> order.add(1));
+        q.post(() -> order.add(2));
+        q.drain();
+        assertEquals(List.of(0), order);
+        assertEquals(1, gauge("chatai_main_queue_full_ticks_total"));
+        assertEquals(2, gauge("chatai_main_queue_carried_over_total"));
+
+        q.drain();
+        assertEquals(List.of(0, 1, 2), order);
+        assertEquals(1, gauge("chatai_main_queue_full_ticks_total"));
+        assertEquals(2, gauge("chatai_main_queue_carried_over_total"));
+    }
+
+    @Test
+    void aFailingCallbackDoesNotStopTheRest() {
+        MainThreadQueue q = queue(25);
+        List<Integer> order = new ArrayList<>();
+        q.post(() -> { throw new IllegalStateException("boom"); });
+        q.post(() -> order.add(1));
+        q.drain();
+        assertEquals(List.of(1), order);
+    }
+}
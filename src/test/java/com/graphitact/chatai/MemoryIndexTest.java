@@ -0,0 +1,160 @@
+package com.graphitact.chatai;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class MemoryIndexTest {
+    private long clock;
+
+    private ConversationHistory.Entry turn(String text) {
+        return new ConversationHistory.Entry(ConversationHistory.Role.USER, text, ++clock);
+    }
+
+    private static List<String> texts(List<ConversationHistory.Entry> entries) {
+        return entries.stream().map(ConversationHistory.Entry::text).toList();
+    }
+
+    @Test
+    void termsDropStopWordsShortWordsAndPluralS() {
+        assertEquals(List.of("iron", "pickaxe", "quest", "glass", "boss", "42"),
+            MemoryIndex.terms("The irons, a PICKAXE! quests; glass boss 42 x"));
+    }
+
+    @Test
+    void rareTermsCountMoreThanCommonOnes() {
+        MemoryIndex index = new MemoryIndex();
+        index.add(turn("wheat harvest today"));
+        index.add(turn("wheat prices today"));
+        index.add(turn("wheat and the dragon"));
+        index.add(turn("wheat again today"));
+        // "dragon" is in one turn, "today" in three
+        assertEquals(List.of("wheat and the dragon"), texts(index.search("dragon today", 1, Set.of())));
+    }
+
+    @Test
+    void moreOccurrencesAndShorterTurnsRankHigher() {
+        MemoryIndex index = new MemoryIndex();
+        index.add(turn("emerald trade"));
+        index.add(turn("emerald emerald emerald trade"));
+        index.add(turn("emerald trade with a long story about the river, the mill and the old bridge"));
+        index.add(turn("bread"));
+        assertEquals(List.of("emerald emerald emerald trade"), texts(index.search("emerald", 1, Set.of())));
+        // among single mentions the short turn wins
+        MemoryIndex brief = new MemoryIndex();
+        brief.add(turn("emerald trade with a long story about the river, the mill and the old bridge"));
+        brief.add(turn("emerald trade"));
+        brief.add(turn("bread"));
+        assertEquals(List.of("emerald trade"), texts(brief.search("emerald", 1, Set.of())));
+    }
+
+    @Test
+    void bestKComeBackOldestFirst() {
+        MemoryIndex index = new MemoryIndex();
+        index.add(turn("zombie at the gate"));
+        index.add(turn("nice weather"));
+        index.add(turn("zombie zombie zombie everywhere"));
+        index.add(turn("a zombie took my hat, the zombie"));
+        assertEquals(List.of("zombie zombie zombie everywhere", "a zombie took my hat, the zombie"),
+            texts(index.search("zombie", 2, Set.of())));
+        assertEquals(3, index.search("zombie", 10, Set.of()).size(), "turns without the term never come back");
+        assertEquals(List.of(), index.search("creeper", 10, Set.of()));
+        assertEquals(List.of(), index.search("zombie", 0, Set.of()));
+    }
+
+    @Test
+    void excludedTurnsAreLeftOut() {
+        MemoryIndex index = new MemoryIndex();
+        ConversationHistory.Entry recent = turn("the mill is broken");
+        index.add(turn("the mill was built by my father"));
+        index.add(recent);
+        assertEquals(List.of("the mill was built by my father"), texts(index.search("mill", 5, Set.of(recent))));
+    }
+
+    @Test
+    void tieGoesToTheNewerTurn() {
+        MemoryIndex index = new MemoryIndex();
+        index.add(turn("cake day"));
+        index.add(turn("cake day"));
+        List<ConversationHistory.Entry> got = index.search("cake", 1, Set.of());
+        assertEquals(2L, got.get(0).timestamp());
+    }
+
+    @Test
+    void removedTurnsAreForgotten() {
+        MemoryIndex index = new MemoryIndex();
+        ConversationHistory.Entry a = turn("golem in the village");
+        ConversationHistory.Entry b = turn("golem guards the bell");
+        index.add(a);
+        index.add(b);
+        index.remove(a);
+        assertEquals(1, index.size());
+        assertEquals(List.of("golem guards the bell"), texts(index.search("golem village", 5, Set.of())));
+        index.remove(a);
+        assertEquals(1, index.size(), "removing twice is a no-op");
+
+        // identical turns are separate documents; one removal drops one of them
+        ConversationHistory.Entry same = new ConversationHistory.Entry(ConversationHistory.Role.USER, "anvil", 0L);
+        index.add(same);
+        index.add(same);
+        index.remove(same);
+        assertEquals(2, index.size());
+        assertEquals(1, index.search("anvil", 5, Set.of()).size());
+    }
+
+    @Test
+    void ranksLikeTextbookBm25() {
+        String[] words = { "wheat", "iron", "bread", "zombie", "river", "mill", "emerald", "sheep", "wool", "bell" };
+        Random rnd = new Random(11);
+        for (int round = 0; round < 30; round++) {
+            MemoryIndex index = new MemoryIndex();
+            List<ConversationHistory.Entry> all = new ArrayList<>();
+            for (int i = 0; i < 40; i++) {
+                StringBuilder sb = new StringBuilder();
+                int n = 1 + rnd.nextInt(12);
+                for (int w = 0; w < n; w++) sb.append(words[rnd.nextInt(words.length)]).append(' ');
+                ConversationHistory.Entry e = turn(sb.toString().trim());
+                all.add(e);
+                index.add(e);
+            }
+            String query = words[rnd.nextInt(words.length)] + " " + words[rnd.nextInt(words.length)];
+            assertEquals(reference(all, query, 5), index.search(query, 5, Set.of()), "round " + round + ": " + query);
+        }
+    }
+
+    /** BM25 over every turn, written out the long way. */
+    private static List<ConversationHistory.Entry> reference(List<ConversationHistory.Entry> all, String query, int k) {
+        List<List<String>> docs = new ArrayList<>();
+        double total = 0;
+        for (ConversationHistory.Entry e : all) {
+            docs.add(MemoryIndex.terms(e.text()));
+            total += docs.get(docs.size() - 1).size();
+        }
+        double avg = Math.max(1.0, total / all.size());
+        Map<Integer, Double> score = new HashMap<>();
+        for (String term : Set.copyOf(MemoryIndex.terms(query))) {
+            long n = docs.stream().filter(d -> d.contains(term)).count();
+            if (n == 0) continue;
+            double idf = Math.log(1 + (all.size() - n + 0.5) / (n + 0.5));
+            for (int i = 0; i < docs.size(); i++) {
+                long tf = docs.get(i).stream().filter(term::equals).count();
+                if (tf == 0) continue;
+                double s = idf * tf * 2.2 / (tf + 1.2 * (0.25 + 0.75 * docs.get(i).size() / avg));
+                score.merge(i, s, Double::sum);
+            }
+        }
+        List<Integer> ranked = new ArrayList<>(score.keySet());
+        ranked.sort(Comparator.comparing((Integer i) -> -score.get(i)).thenComparing(i -> -i));
+        List<Integer> top = new ArrayList<>(ranked.subList(0, Math.min(k, ranked.size())));
+        top.sort(null);
+        return top.stream().map(all::get).toList();
+    }
+}
@@ -0,0 +1,150 @@
+package com.graphitact.chatai;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/** Folding old villager memory into a summary, against a stub backend. */
+class MemorySummarizerTest {
+    private static final int BUDGET = 600;
+    private static final UUID VILLAGER = new UUID(9L, 9L);
+
+    @TempDir
+    Path dir;
+
+    private StubBackend backend;
+    private AIClient ai;
+    private Tracer tracer;
+    private VillagerStore store;
+    private MainThreadQueue mainThread;
+
+    @AfterEach
+    void close() {
+        if (ai != null) ai.shutdown();
+        if (tracer != null) tracer.close();
+        if (store != null) store.close();
+        if (backend != null) backend.close();
+    }
+
+    private MemorySummarizer summarizer(int foldAfter) throws Exception {
+        backend = new StubBackend("They met often.");
+        YamlConfiguration config = new YamlConfiguration();
+        config.set("proxy-urls", List.of(backend.uri().toString()));
+        config.set("system-prompt", "You are a test.");
+        config.set("trace-sample-rate", 0);
+        config.set("trace-file", "");
+        config.set("backend-probe-seconds", 0);
+        config.set("context-token-budget", BUDGET);
+        var plugin = TestPlugin.with(config, dir.toFile());
+        Metrics metrics = new Metrics();
+        tracer = new Tracer(plugin);
+        mainThread = new MainThreadQueue(plugin, metrics);
+        ai = new AIClient(plugin, metrics, tracer, mainThread);
+        store = new VillagerStore(plugin, dir.toFile());
+        store.open();
+        return new MemorySummarizer(ai, store, ai.budget(), foldAfter, 120);
+    }
+
+    private void talk(int turns) {
+        for (int i = 0; i < turns; i++) {
+            store.append(VILLAGER, new ConversationHistory.Entry(ConversationHistory.Role.USER,
+                "turn " + i + " " + "about the harvest and the weather ".repeat(3), i));
+        }
+    }
+
+    private VillagerStore.Memory memory() throws Exception {
+        return store.preload(VILLAGER, 20).get(5, TimeUnit.SECONDS);
+    }
+
+    /** Run main-thread callbacks here until {@code done} holds. */
+    private void until(String what, Check done) throws Exception {
+        long until = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!done.holds()) {
+            mainThread.drain();
+            assertTrue(System.nanoTime() < until, what + " within 10s");
+            Thread.sleep(10);
+        }
+    }
+
+    private interface Check {
+        boolean holds() throws Exception;
+    }
+
+    /** The estimated prompt tokens of one request body, as ContextBudget counts them. */
+    private static int tokens(String body) {
+        JsonObject req = JsonParser.parseString(body).getAsJsonObject();
+        int n = ContextBudget.estimate(req.get("system").getAsString());
+        for (JsonElement m : req.getAsJsonArray("messages")) {
+            n += ContextBudget.estimate(m.getAsJsonObject().get("content").getAsString());
+        }
+        return n;
+    }
+
+    @Test
+    void longMemoryIsFoldedInBatchesThatFitTheBudget() throws Exception {
+        MemorySummarizer summarizer = summarizer(10);
+        talk(200);
+        VillagerStore.Memory before = memory();
+        assertEquals(180, before.older().size());
+
+        summarizer.maybeSummarize(VILLAGER, before);
+        until("everything folded", () -> memory().older().size() < 10);
+
+        List<String> bodies = new ArrayList<>(backend.bodies);
+        assertTrue(bodies.size() > 1, "more than one batch: " + bodies.size());
+        for (String body : bodies) assertTrue(tokens(body) <= BUDGET, "over budget: " + tokens(body));
+        // each batch builds on the summary of the one before
+        assertTrue(bodies.get(0).contains("Existing summary: (none)"));
+        for (String body : bodies.subList(1, bodies.size())) assertTrue(body.contains("Existing summary: They met often."));
+        // batches follow each other without a gap or an overlap
+        assertTrue(bodies.get(0).contains("turn 0 "));
+        assertTrue(bodies.get(bodies.size() - 1).contains("turn " + (180 - memory().older().size() - 1) + " "));
+
+        VillagerStore.Memory after = memory();
+        assertEquals("They met often.", after.summary());
+        assertEquals(before.recent(), after.recent());
+    }
+
+    @Test
+    void shortMemoryIsLeftAlone() throws Exception {
+        MemorySummarizer summarizer = summarizer(10);
+        talk(29);
+        summarizer.maybeSummarize(VILLAGER, memory());
+        Thread.sleep(200);
+        mainThread.drain();
+        assertEquals(0, backend.posts.get());
+        assertEquals(9, memory().older().size());
+    }
+
+    @Test
+    void aVillagerIsSummarizedOnceAtATime() throws Exception {
+        MemorySummarizer summarizer = summarizer(10);
+        backend.delayMillis = 200;
+        talk(60);
+        VillagerStore.Memory m = memory();
+        summarizer.maybeSummarize(VILLAGER, m);
+        summarizer.maybeSummarize(VILLAGER, m);
+        until("folded", () -> memory().older().size() < 10);
+        // a second job would have sent the first batch again
+        assertEquals(backend.bodies.size(), new HashSet<>(backend.bodies).size());
+        int batches = backend.posts.get();
+        summarizer.maybeSummarize(VILLAGER, memory());
+        Thread.sleep(300);
+        mainThread.drain();
+        assertEquals(batches, backend.posts.get(), "nothing left to fold, and no second job ran");
+    }
+}
@@ -0,0 +1,74 @@
+package com.graphitact.chatai;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class PlaceholderEngineTest {
+    private static final UUID PLAYER = new UUID(1L, 1L);
+
+    private static WorldSnapshot snapshot(long time, boolean storm, int quests) {
+        return new WorldSnapshot(time, storm, 3, Map.of("world", 2, "world_nether", 1),
+            quests == 0 ? Map.of() : Map.of(PLAYER, quests));
+    }
+
+    private static PlaceholderEngine engine() {
+        PlaceholderEngine engine = new PlaceholderEngine(System.currentTimeMillis());
+        engine.register("quest_status", (w, ctx, arg) -> {
+            if (ctx.player() == null) return null;
+            int n = w.openQuests().getOrDefault(ctx.player(), 0);
+            return n == 0 ? "no open quests" : n == 1 ? "1 open quest" : n + " open quests";
+        });
+        return engine;
+    }
+
+    @Test
+    void rendersFromTheLatestPublishedSnapshot() {
+        PlaceholderEngine engine = engine();
+        assertEquals("plain reply", engine.render("plain reply", PlaceholderEngine.Context.NONE));
+
+        engine.refresh(snapshot(13_500L, true, 0));
+        assertEquals("19:30 rain", engine.render("{{current_time}} {{current_weather_state}}",
+            PlaceholderEngine.Context.NONE));
+        assertEquals("3 here, 1 below", engine.render("{{online_players}} here, {{online_players:world_nether}} below",
+            PlaceholderEngine.Context.NONE));
+
+        engine.refresh(snapshot(0L, false, 0));
+        assertEquals("06:00 clear skies", engine.render("{{current_time}} {{current_weather_state}}",
+            PlaceholderEngine.Context.NONE));
+    }
+
+    @Test
+    void rendersOffTheMainThread() throws Exception {
+        PlaceholderEngine engine = engine();
+        engine.refresh(snapshot(13_500L, true, 1));
+        PlaceholderEngine.Context ctx = new PlaceholderEngine.Context(PLAYER, null);
+        String rendered = CompletableFuture.supplyAsync(() -> engine.render("{{quest_status}}, {{current_weather_state}}", ctx))
+            .get(5, TimeUnit.SECONDS);
+        assertEquals("1 open quest, rain", rendered);
+    }
+
+    @Test
+    void questStatusComesFromTheSnapshot() {
+        PlaceholderEngine engine = engine();
+        engine.refresh(snapshot(13_500L, true, 0));
+        PlaceholderEngine.Context ctx = new PlaceholderEngine.Context(PLAYER, "Oakridge");
+        assertEquals("no open quests in Oakridge", engine.render("{{quest_status}} in {{village_name}}", ctx));
+
+        engine.refresh(snapshot(13_500L, true, 2));
+        assertEquals("2 open quests", engine.render("{{quest_status}}", ctx));
+        assertEquals("{{quest_status}}", engine.render("{{quest_status}}", PlaceholderEngine.Context.NONE));
+    }
+
+    @Test
+    void unknownAndUnclosedPlaceholdersAreLeftAlone() {
+        PlaceholderEngine engine = engine();
+        assertEquals("{{nope}} {{ {{village_name", engine.render("{{nope}} {{ {{village_name",
+            new PlaceholderEngine.Context(null, "Oakridge")));
+    }
+}
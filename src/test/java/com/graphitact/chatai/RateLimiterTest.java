@@ -0,0 +1,76 @@
+package com.graphitact.chatai;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RateLimiterTest {
+    private static final UUID ALEX  = new UUID(1L, 1L);
+    private static final UUID STEVE = new UUID(2L, 2L);
+
+    /** How many requests in a row are let through right now. */
+    private static int drain(RateLimiter limiter, UUID id) {
+        int n = 0;
+        while (limiter.tryAcquire(id)) n++;
+        return n;
+    }
+
+    @Test
+    void burstThenNothing() {
+        // one token every 10 minutes: nothing comes back during the test
+        RateLimiter limiter = new RateLimiter(3, 0.1);
+        assertTrue(limiter.tryAcquire(ALEX));
+        assertTrue(limiter.tryAcquire(ALEX));
+        assertTrue(limiter.tryAcquire(ALEX));
+        assertFalse(limiter.tryAcquire(ALEX));
+    }
+
+    @Test
+    void tokensComeBackAtTheSustainedRate() throws InterruptedException {
+        // one token per 100 ms
+        RateLimiter limiter = new RateLimiter(5, 600);
+        assertEquals(5, drain(limiter, ALEX));
+        Thread.sleep(250);
+        assertEquals(2, drain(limiter, ALEX));
+    }
+
+    @Test
+    void refillStopsAtTheBurst() throws InterruptedException {
+        RateLimiter limiter = new RateLimiter(2, 600);
+        assertEquals(2, drain(limiter, ALEX));
+        Thread.sleep(600);
+        assertEquals(2, drain(limiter, ALEX), "an idle player saves up no more than the burst");
+    }
+
+    @Test
+    void playersHaveBucketsOfTheirOwn() {
+        RateLimiter limiter = new RateLimiter(2, 0.1);
+        assertEquals(2, drain(limiter, ALEX));
+        assertEquals(2, drain(limiter, STEVE));
+    }
+
+    @Test
+    void zeroRateTurnsLimitingOff() {
+        RateLimiter limiter = new RateLimiter(1, 0);
+        for (int i = 0; i < 1000; i++) assertTrue(limiter.tryAcquire(ALEX));
+    }
+
+    @Test
+    void burstIsAtLeastOne() {
+        RateLimiter limiter = new RateLimiter(0, 0.1);
+        assertEquals(1, drain(limiter, ALEX));
+    }
+
+    @Test
+    void pruningIdlePlayersKeepsBusyOnesLimited() {
+        RateLimiter limiter = new RateLimiter(2, 0.1);
+        assertEquals(2, drain(limiter, ALEX));
+        // enough players to trigger pruning; their buckets are not full, so they stay too
+        for (int i = 0; i < 1500; i++) limiter.tryAcquire(new UUID(9L, i));
+        assertFalse(limiter.tryAcquire(ALEX), "an empty bucket is never pruned");
+    }
+}
@@ -0,0 +1,102 @@
+package com.graphitact.chatai;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RequestBatcherTest {
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+    private final BlockingQueue<List<RequestBatcher.Pending>> flushed = new LinkedBlockingQueue<>();
+
+    @AfterEach
+    void close() {
+        timer.shutdownNow();
+    }
+
+    private static RequestBatcher.Pending pending(String system, String prompt) {
+        return new RequestBatcher.Pending(null, new ConversationHistory(4), new ConversationHistory.Entry[0],
+            prompt, system, AIClient.Priority.NORMAL, chunk -> { }, reply -> { });
+    }
+
+    private static List<String> prompts(List<RequestBatcher.Pending> batch) {
+        return batch.stream().map(p -> p.prompt).toList();
+    }
+
+    private List<RequestBatcher.Pending> next() throws InterruptedException {
+        List<RequestBatcher.Pending> batch = flushed.poll(5, TimeUnit.SECONDS);
+        assertNotNull(batch, "no batch within 5s");
+        return batch;
+    }
+
+    @Test
+    void windowClosesTheBatch() throws Exception {
+        RequestBatcher batcher = new RequestBatcher(50, 8, timer, flushed::add);
+        long t0 = System.nanoTime();
+        batcher.offer(pending("villager", "a"));
+        batcher.offer(pending("villager", "b"));
+        assertNull(flushed.poll(), "held until the window closes");
+        assertEquals(List.of("a", "b"), prompts(next()));
+        assertTrue(System.nanoTime() - t0 >= TimeUnit.MILLISECONDS.toNanos(50));
+    }
+
+    @Test
+    void fullBatchGoesAtOnceAndIsNotFlushedAgain() throws Exception {
+        RequestBatcher batcher = new RequestBatcher(100, 3, timer, flushed::add);
+        batcher.offer(pending("s", "a"));
+        batcher.offer(pending("s", "b"));
+        batcher.offer(pending("s", "c"));
+        // on the offering thread, before the window
+        assertEquals(List.of("a", "b", "c"), prompts(flushed.remove()));
+
+        // the next one opens a new batch with a window of its own
+        batcher.offer(pending("s", "d"));
+        assertEquals(List.of("d"), prompts(next()));
+        Thread.sleep(150);
+        assertNull(flushed.poll(), "the first batch's timer found nothing to do");
+    }
+
+    @Test
+    void systemPromptsAreBatchedApart() throws Exception {
+        RequestBatcher batcher = new RequestBatcher(50, 8, timer, flushed::add);
+        batcher.offer(pending("farmer", "a"));
+        batcher.offer(pending("smith", "b"));
+        batcher.offer(pending("farmer", "c"));
+        List<RequestBatcher.Pending> first = next();
+        List<RequestBatcher.Pending> second = next();
+        List<RequestBatcher.Pending> farmer = first.get(0).system.equals("farmer") ? first : second;
+        List<RequestBatcher.Pending> smith = farmer == first ? second : first;
+        assertEquals(List.of("a", "c"), prompts(farmer));
+        assertEquals(List.of("b"), prompts(smith));
+    }
+
+    @Test
+    void maxSizeIsAtLeastTwo() {
+        RequestBatcher batcher = new RequestBatcher(10_000, 1, timer, flushed::add);
+        batcher.offer(pending("s", "a"));
+        assertNull(flushed.poll());
+        batcher.offer(pending("s", "b"));
+        assertEquals(List.of("a", "b"), prompts(flushed.remove()));
+    }
+
+    @Test
+    void flushAllHandsOverWhatIsWaiting() throws Exception {
+        RequestBatcher batcher = new RequestBatcher(10_000, 8, timer, flushed::add);
+        batcher.offer(pending("a", "1"));
+        batcher.offer(pending("b", "2"));
+        batcher.flushAll();
+        assertEquals(2, flushed.size());
+        batcher.flushAll();
+        assertEquals(2, flushed.size(), "nothing twice");
+    }
+}
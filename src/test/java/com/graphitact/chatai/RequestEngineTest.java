@@ -0,0 +1,153 @@
+package com.graphitact.chatai;
+
+import com.graphitact.chatai.AIClient.Admission;
+import com.graphitact.chatai.AIClient.Priority;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RequestEngineTest {
+
+    /** Records what happened to it; holds its slot until {@link #finish}. */
+    private static final class Job implements RequestEngine.Job {
+        final String name;
+        final List<String> log;
+        Runnable done;
+        boolean dropped;
+
+        Job(String name, List<String> log) {
+            this.name = name;
+            this.log  = log;
+        }
+
+        @Override
+        public void start(Runnable done) {
+            this.done = done;
+            log.add("start " + name);
+        }
+
+        @Override
+        public void drop() {
+            dropped = true;
+            log.add("drop " + name);
+        }
+
+        void finish() {
+            done.run();
+        }
+    }
+
+    @Test
+    void fullQueueShedsItsLowestEntryForAHigherOne() {
+        List<String> log = new ArrayList<>();
+        RequestEngine engine = new RequestEngine(1, 2, 0);
+        Job running = new Job("running", log);
+        Job normal  = new Job("normal", log);
+        Job low     = new Job("low", log);
+        Job high    = new Job("high", log);
+
+        assertEquals(Admission.ACCEPTED, engine.submit(Priority.HIGH, running));
+        assertEquals(Admission.ACCEPTED, engine.submit(Priority.NORMAL, normal));
+        assertEquals(Admission.ACCEPTED, engine.submit(Priority.LOW, low));
+        assertEquals(2, engine.queued());
+
+        // full: the LOW entry makes room for HIGH
+        assertEquals(Admission.ACCEPTED, engine.submit(Priority.HIGH, high));
+        assertTrue(low.dropped);
+        // nothing below LOW to shed, and NORMAL only sheds strictly lower
+        assertEquals(Admission.REJECTED, engine.submit(Priority.LOW, new Job("low2", log)));
+        assertEquals(Admission.REJECTED, engine.submit(Priority.NORMAL, new Job("normal2", log)));
+
+        // served highest first, each after the one before frees the slot
+        running.finish();
+        high.finish();
+        normal.finish();
+        assertEquals(List.of("start running", "drop low", "start high", "start normal"), log);
+        assertEquals(0, engine.inFlight());
+        assertEquals(0, engine.queued());
+    }
+
+    @Test
+    void fifoWithinOnePriority() {
+        List<String> log = new ArrayList<>();
+        RequestEngine engine = new RequestEngine(1, 8, 0);
+        Job running = new Job("running", log);
+        Job a = new Job("a", log);
+        Job b = new Job("b", log);
+        engine.submit(Priority.NORMAL, running);
+        engine.submit(Priority.NORMAL, a);
+        engine.submit(Priority.NORMAL, b);
+        running.finish();
+        a.finish();
+        assertEquals(List.of("start running", "start a", "start b"), log);
+    }
+
+    @Test
+    void staleLowRequestsAreDroppedAndNewOnesRefused() throws InterruptedException {
+        List<String> log = new ArrayList<>();
+        RequestEngine engine = new RequestEngine(1, 8, 50);
+        Job running = new Job("running", log);
+        Job stale   = new Job("stale", log);
+        Job normal  = new Job("normal", log);
+        engine.submit(Priority.HIGH, running);
+        engine.submit(Priority.LOW, stale);
+        Thread.sleep(80);
+
+        // the queue is slower than ambient-max-wait: ambient requests are refused, others still queue
+        assertEquals(Admission.REJECTED, engine.submit(Priority.LOW, new Job("late", log)));
+        assertEquals(Admission.ACCEPTED, engine.submit(Priority.NORMAL, normal));
+
+        running.finish();
+        assertTrue(stale.dropped);
+        assertEquals(List.of("start running", "drop stale", "start normal"), log);
+        normal.finish();
+        assertEquals(0, engine.inFlight());
+    }
+
+    @Test
+    void freshLowRequestsStillRun() {
+        List<String> log = new ArrayList<>();
+        RequestEngine engine = new RequestEngine(1, 8, 60_000);
+        Job running = new Job("running", log);
+        Job low     = new Job("low", log);
+        engine.submit(Priority.HIGH, running);
+        engine.submit(Priority.LOW, low);
+        running.finish();
+        assertFalse(low.dropped);
+        assertEquals(List.of("start running", "start low"), log);
+    }
+
+    @Test
+    void doneTwiceReleasesOneSlot() {
+        List<String> log = new ArrayList<>();
+        RequestEngine engine = new RequestEngine(1, 8, 0);
+        Job first  = new Job("first", log);
+        Job second = new Job("second", log);
+        Job third  = new Job("third", log);
+        engine.submit(Priority.NORMAL, first);
+        engine.submit(Priority.NORMAL, second);
+        engine.submit(Priority.NORMAL, third);
+        first.finish();
+        first.finish();
+        assertEquals(List.of("start first", "start second"), log);
+        assertEquals(1, engine.inFlight());
+    }
+
+    @Test
+    void closeDropsWhatIsQueuedAndRejectsNewWork() {
+        List<String> log = new ArrayList<>();
+        RequestEngine engine = new RequestEngine(1, 8, 0);
+        Job running = new Job("running", log);
+        Job queued  = new Job("queued", log);
+        engine.submit(Priority.NORMAL, running);
+        engine.submit(Priority.NORMAL, queued);
+        engine.close();
+        assertTrue(queued.dropped);
+        assertEquals(Admission.REJECTED, engine.submit(Priority.HIGH, new Job("late", log)));
+    }
+}
@@ -0,0 +1,113 @@
+package com.graphitact.chatai;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ResponseCacheTest {
+    private static final String SYSTEM = "You are the server.";
+    private static final long FAREWELL = ResponseCache.key(SYSTEM, "Say a fond farewell to {0}.");
+
+    @Test
+    void slotValuesAreCutOutAndFilledBackIn() {
+        ResponseCache cache = new ResponseCache(16, 60_000, 1);
+        cache.put(FAREWELL, "Farewell, Alex! Alex will be missed.", "Alex");
+        assertEquals("Farewell, Steve! Steve will be missed.", cache.pick(FAREWELL, "Steve"));
+    }
+
+    @Test
+    void onlyWholeWordsAreCutOut() {
+        ResponseCache cache = new ResponseCache(16, 60_000, 1);
+        long key = ResponseCache.key(SYSTEM, "{0} was slain by {1}.");
+        cache.put(key, "Al always fought Ally bravely, but Ally won.", "Al", "Ally");
+        assertEquals("Bo always fought Cy bravely, but Cy won.", cache.pick(key, "Bo", "Cy"));
+    }
+
+    @Test
+    void blankSlotsAreLeftIn() {
+        ResponseCache cache = new ResponseCache(16, 60_000, 1);
+        cache.put(FAREWELL, "Goodbye, traveller.", "");
+        assertEquals("Goodbye, traveller.", cache.pick(FAREWELL, "Steve"));
+    }
+
+    @Test
+    void keyDependsOnSystemPromptAndTemplate() {
+        assertEquals(FAREWELL, ResponseCache.key(SYSTEM, "Say a fond farewell to {0}."));
+        assertNotEquals(FAREWELL, ResponseCache.key("Another system.", "Say a fond farewell to {0}."));
+        assertNotEquals(FAREWELL, ResponseCache.key(SYSTEM, "Say a fond welcome to {0}."));
+        // the separator keeps "ab"+"c" apart from "a"+"bc"
+        assertNotEquals(ResponseCache.key("ab", "c"), ResponseCache.key("a", "bc"));
+    }
+
+    @Test
+    void fillSubstitutesNumberedSlots() {
+        assertEquals("Alex was slain by Zombie.", ResponseCache.fill("{0} was slain by {1}.", "Alex", "Zombie"));
+    }
+
+    @Test
+    void entryIsFullWithItsVariantsAndDropsTheOldest() {
+        ResponseCache cache = new ResponseCache(16, 60_000, 2);
+        cache.put(FAREWELL, "first", "Alex");
+        assertFalse(cache.isFull(FAREWELL));
+        cache.put(FAREWELL, "second", "Alex");
+        assertTrue(cache.isFull(FAREWELL));
+        cache.put(FAREWELL, "third", "Alex");
+
+        Set<String> seen = new HashSet<>();
+        for (int i = 0; i < 200; i++) seen.add(cache.pick(FAREWELL, "Steve"));
+        assertEquals(Set.of("second", "third"), seen);
+    }
+
+    @Test
+    void leastRecentlyUsedEntryIsEvicted() {
+        ResponseCache cache = new ResponseCache(2, 60_000, 1);
+        long a = ResponseCache.key(SYSTEM, "a"), b = ResponseCache.key(SYSTEM, "b"), c = ResponseCache.key(SYSTEM, "c");
+        cache.put(a, "A");
+        cache.put(b, "B");
+        // reading a makes b the eldest
+        assertEquals("A", cache.pick(a));
+        cache.put(c, "C");
+        assertEquals(2, cache.size());
+        assertEquals("A", cache.pick(a));
+        assertNull(cache.pick(b));
+        assertEquals("C", cache.pick(c));
+    }
+
+    @Test
+    void expiredVariantsAreDropped() throws InterruptedException {
+        ResponseCache cache = new ResponseCache(16, 50, 2);
+        cache.put(FAREWELL, "old", "Alex");
+        Thread.sleep(80);
+        cache.put(FAREWELL, "new", "Alex");
+        assertFalse(cache.isFull(FAREWELL), "the expired variant no longer counts");
+        assertEquals("new", cache.pick(FAREWELL, "Steve"));
+        Thread.sleep(80);
+        assertNull(cache.pick(FAREWELL, "Steve"));
+        assertEquals(0, cache.size(), "an entry with nothing fresh left is removed");
+    }
+
+    @Test
+    void hitsAndMissesAreCounted() {
+        ResponseCache cache = new ResponseCache(16, 60_000, 1);
+        assertNull(cache.pick(FAREWELL, "Alex"));
+        cache.miss();
+        cache.put(FAREWELL, "Bye Alex", "Alex");
+        cache.pick(FAREWELL, "Steve");
+        assertEquals(1, cache.hits());
+        assertEquals(2, cache.misses());
+    }
+
+    @Test
+    void modeParsesLeniently() {
+        assertEquals(ResponseCache.Mode.BUSY, ResponseCache.Mode.parse(" busy "));
+        assertEquals(ResponseCache.Mode.ALWAYS, ResponseCache.Mode.parse("Always"));
+        assertEquals(ResponseCache.Mode.OFF, ResponseCache.Mode.parse("sometimes"));
+    }
+}
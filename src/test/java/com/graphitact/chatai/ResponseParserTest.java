@@ -0,0 +1,86 @@
+package com.graphitact.chatai;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ResponseParserTest {
+
+    private static String answer(String json) throws IOException {
+        return ResponseParser.answer(new StringReader(json));
+    }
+
+    private static String answerWithUsage(String json, ResponseParser.Usage usage) throws IOException {
+        return ResponseParser.answer(new StringReader(json), usage);
+    }
+
+    @Test
+    void errorWinsInEitherKeyOrder() throws IOException {
+        assertEquals("", answer("{\"error\":{\"message\":\"boom\"},\"answer\":\"hi\"}"));
+        assertEquals("", answer("{\"answer\":\"hi\",\"error\":{\"message\":\"boom\"}}"));
+        assertEquals("", answerWithUsage("{\"answer\":\"hi\",\"error\":\"boom\"}", new ResponseParser.Usage()));
+    }
+
+    @Test
+    void answerBeatsChoicesAndResponseInEitherKeyOrder() throws IOException {
+        String choices = "\"choices\":[{\"text\":\"from text\"}]";
+        String response = "\"response\":\"from response\"";
+        assertEquals("top", answer("{\"answer\":\"top\"," + choices + "," + response + "}"));
+        assertEquals("top", answer("{" + response + "," + choices + ",\"answer\":\"top\"}"));
+        assertEquals("from text", answer("{" + response + "," + choices + "}"));
+        assertEquals("from response", answer("{" + response + "}"));
+    }
+
+    @Test
+    void firstChoiceFieldsKeepTheirPrecedenceInEitherOrder() throws IOException {
+        String data = "\"data\":{\"answer\":\"from data\"}";
+        String message = "\"message\":{\"role\":\"assistant\",\"content\":\"from message\"}";
+        String text = "\"text\":\"from text\"";
+        assertEquals("from data", answer("{\"choices\":[{" + data + "," + message + "," + text + "}]}"));
+        assertEquals("from data", answer("{\"choices\":[{" + text + "," + message + "," + data + "}]}"));
+        assertEquals("from message", answer("{\"choices\":[{" + text + "," + message + "}]}"));
+        assertEquals("from text", answer("{\"choices\":[{" + text + "},{\"text\":\"second\"}]}"));
+    }
+
+    @Test
+    void emptyChoicesFallBackToResponse() throws IOException {
+        assertEquals("late", answer("{\"choices\":[],\"response\":\"late\"}"));
+        assertEquals("", answer("{\"choices\":[]}"));
+    }
+
+    @Test
+    void unknownShapesGiveEmptyText() throws IOException {
+        assertEquals("", answer("{\"id\":\"x\",\"object\":\"chat.completion\"}"));
+        assertEquals("", answer("[\"not\",\"an\",\"object\"]"));
+    }
+
+    @Test
+    void usageIsReadWhereverItComes() throws IOException {
+        ResponseParser.Usage before = new ResponseParser.Usage();
+        assertEquals("hi", answerWithUsage(
+            "{\"usage\":{\"prompt_tokens\":12,\"completion_tokens\":3},\"answer\":\"hi\"}", before));
+        assertEquals(12, before.promptTokens);
+        assertEquals(3, before.completionTokens);
+
+        ResponseParser.Usage after = new ResponseParser.Usage();
+        assertEquals("hi", answerWithUsage(
+            "{\"choices\":[{\"text\":\"hi\"}],\"usage\":{\"prompt_tokens\":7,\"completion_tokens\":1}}", after));
+        assertEquals(7, after.promptTokens);
+        assertEquals(1, after.completionTokens);
+    }
+
+    @Test
+    void batchAnswersGiveWayToAnErrorInEitherOrder() throws IOException {
+        String answers = "\"answers\":[{\"id\":\"a\",\"answer\":\"one\"},{\"id\":\"b\",\"answer\":\"two\"}]";
+        assertEquals(Map.of("a", "one", "b", "two"), ResponseParser.answers(new StringReader("{" + answers + "}")));
+        assertTrue(ResponseParser.answers(new StringReader("{" + answers + ",\"error\":\"boom\"}")).isEmpty());
+        assertTrue(ResponseParser.answers(new StringReader("{\"error\":\"boom\"," + answers + "}")).isEmpty());
+        assertTrue(ResponseParser.answers(new StringReader("{" + answers + ",\"error\":\"boom\"}"),
+            new ResponseParser.Usage()).isEmpty());
+    }
+}
@@ -0,0 +1,129 @@
+package com.graphitact.chatai;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class SseReplySubscriberTest {
+
+    private final List<String> chunks = new ArrayList<>();
+    private final ResponseParser.Usage usage = new ResponseParser.Usage();
+    private int firstBytes;
+
+    private SseReplySubscriber subscriber() {
+        return new SseReplySubscriber(chunks::add, () -> firstBytes++, usage, raw -> {
+            try {
+                return ResponseParser.answer(new StringReader(raw));
+            } catch (IOException ex) {
+                return "";
+            }
+        });
+    }
+
+    /** An OpenAI-style delta event carrying {@code content}. */
+    private static String event(String content) {
+        JsonText t = new JsonText(content);
+        return "data: {\"choices\":[{\"delta\":{\"content\":" + t + "}}]}";
+    }
+
+    /** The model's JSON answer, streamed a few characters per event. */
+    private static List<String> streamed(String answerJson, int size) {
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < answerJson.length(); i += size) {
+            lines.add(event(answerJson.substring(i, Math.min(answerJson.length(), i + size))));
+            lines.add("");
+        }
+        lines.add("data: [DONE]");
+        return lines;
+    }
+
+    @Test
+    void shortSentencesWaitForEnoughText() {
+        SseReplySubscriber sse = subscriber();
+        String json = "{\"answer\":\"Hi. I am a villager of the plains. What do you need?\"}";
+        for (String line : streamed(json, 3)) sse.onNext(line);
+        // "Hi." alone is under MIN_CHUNK; the first sentence end past it flushes both
+        assertEquals(List.of("Hi. I am a villager of the plains."), chunks);
+        sse.onComplete();
+        assertEquals(List.of("Hi. I am a villager of the plains.", "What do you need?"), chunks);
+        assertEquals("Hi. I am a villager of the plains. What do you need?", sse.answer());
+        assertEquals(1, firstBytes);
+    }
+
+    @Test
+    void escapesSplitBetweenEvents() {
+        String json = "{\"answer\":\"She said \\\"caf\\u00e9\\\" twice.\\nThen she left the village quietly.\"}";
+        for (int size = 1; size <= 7; size++) {
+            chunks.clear();
+            SseReplySubscriber sse = subscriber();
+            for (String line : streamed(json, size)) sse.onNext(line);
+            sse.onComplete();
+            assertEquals("She said \"café\" twice.\nThen she left the village quietly.", sse.answer(), "split every " + size);
+            // chunks are the reply cut at sentence ends, nothing lost or repeated
+            assertEquals(sse.answer().replaceAll("\\s+", " "), String.join(" ", chunks).replaceAll("\\s+", " "),
+                "split every " + size);
+        }
+    }
+
+    @Test
+    void plainTextDeltasAreUsedAsIs() {
+        SseReplySubscriber sse = subscriber();
+        for (String token : new String[] { "The mines ", "are to the ", "east. Bring ", "a torch!" }) {
+            sse.onNext(event(token));
+        }
+        sse.onComplete();
+        assertEquals("The mines are to the east. Bring a torch!", sse.answer());
+        assertEquals(List.of("The mines are to the east.", "Bring a torch!"), chunks);
+    }
+
+    @Test
+    void nonStreamedJsonBodyFallsBackToTheParser() {
+        SseReplySubscriber sse = subscriber();
+        sse.onNext("{\"choices\":[{\"message\":");
+        sse.onNext("{\"content\":\"{\\\"answer\\\":\\\"Whole reply.\\\"}\"}}]}");
+        sse.onComplete();
+        assertEquals("Whole reply.", sse.answer());
+        assertEquals(List.of("Whole reply."), chunks);
+    }
+
+    @Test
+    void nonJsonBodyIsNotShown() {
+        SseReplySubscriber sse = subscriber();
+        sse.onNext("<html>Bad gateway</html>");
+        sse.onComplete();
+        assertEquals("", sse.answer());
+        assertEquals(List.of(), chunks);
+    }
+
+    @Test
+    void malformedEventsAndCommentsAreSkipped() {
+        SseReplySubscriber sse = subscriber();
+        sse.onNext(": keep-alive");
+        sse.onNext("event: message");
+        sse.onNext("data: {\"choices\":[{\"delta\":");
+        sse.onNext("data: {\"response\":\"Ollama says hi\"}");
+        sse.onNext("data: {\"choices\":[],\"usage\":{\"prompt_tokens\":12,\"completion_tokens\":5}}");
+        sse.onComplete();
+        assertEquals("Ollama says hi", sse.answer());
+        assertEquals(12, usage.promptTokens);
+        assertEquals(5, usage.completionTokens);
+    }
+
+    /** A JSON string literal. */
+    private record JsonText(String value) {
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder("\"");
+            for (char c : value.toCharArray()) {
+                if (c == '"' || c == '\\') sb.append('\\');
+                sb.append(c);
+            }
+            return sb.append('"').toString();
+        }
+    }
+}
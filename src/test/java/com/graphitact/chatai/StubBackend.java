@@ -0,0 +1,122 @@
+package com.graphitact.chatai;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A proxy endpoint on the JDK's HttpServer for the backend tests: POSTs get
+ * {@code {"answer": …}} after {@link #delayMillis}, or {@link #status} if it
+ * is 500 or above; HEAD probes get {@link #probeStatus}. With {@link #sse}
+ * on, the answer is streamed as OpenAI-style {@code text/event-stream}
+ * deltas instead, a few characters per event; if {@link #streamGate} is set,
+ * the stream stops halfway until it opens. Settings may change while it
+ * runs.
+ */
+final class StubBackend implements AutoCloseable {
+    private final HttpServer server;
+    private final String answer;
+    final AtomicInteger posts = new AtomicInteger();
+    final AtomicInteger probes = new AtomicInteger();
+    // every POST body, in arrival order
+    final Queue<String> bodies = new ConcurrentLinkedQueue<>();
+    volatile int status = 200;
+    volatile int probeStatus = 200;
+    volatile long delayMillis;
+    volatile boolean sse;
+    volatile CountDownLatch streamGate;
+
+    StubBackend(String answer) throws IOException {
+        this.answer = answer;
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/ai", this::handle);
+        server.setExecutor(Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "StubBackend");
+            t.setDaemon(true);
+            return t;
+        }));
+        server.start();
+    }
+
+    URI uri() {
+        return URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/ai");
+    }
+
+    private void handle(HttpExchange ex) throws IOException {
+        try (ex) {
+            byte[] request = ex.getRequestBody().readAllBytes();
+            if (ex.getRequestMethod().equals("HEAD")) {
+                probes.incrementAndGet();
+                ex.sendResponseHeaders(probeStatus, -1);
+                return;
+            }
+            bodies.add(new String(request, StandardCharsets.UTF_8));
+            posts.incrementAndGet();
+            long delay = delayMillis;
+            if (delay > 0) {
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+            int code = status;
+            if (sse && code < 500) {
+                stream(ex);
+                return;
+            }
+            byte[] body = (code >= 500 ? "{\"error\":\"down\"}" : "{\"answer\":\"" + answer + "\"}")
+                .getBytes(StandardCharsets.UTF_8);
+            ex.getResponseHeaders().set("Content-Type", "application/json");
+            ex.sendResponseHeaders(code, body.length);
+            try (OutputStream out = ex.getResponseBody()) {
+                out.write(body);
+            }
+        } catch (IOException ignored) {
+            // the client cancelled a hedged exchange
+        }
+    }
+
+    private void stream(HttpExchange ex) throws IOException {
+        String json = "{\"answer\":\"" + answer + "\"}";
+        ex.getResponseHeaders().set("Content-Type", "text/event-stream");
+        ex.sendResponseHeaders(200, 0);
+        try (OutputStream out = ex.getResponseBody()) {
+            int half = json.length() / 2;
+            for (int i = 0; i < json.length(); i += 4) {
+                String piece = json.substring(i, Math.min(json.length(), i + 4));
+                String event = "data: {\"choices\":[{\"delta\":{\"content\":\""
+                    + piece.replace("\\", "\\\\").replace("\"", "\\\"") + "\"}}]}\n\n";
+                out.write(event.getBytes(StandardCharsets.UTF_8));
+                out.flush();
+                CountDownLatch gate = streamGate;
+                if (gate != null && i <= half && half < i + 4) {
+                    try {
+                        gate.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+            }
+            out.write("data: [DONE]\n\n".getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+}
@@ -0,0 +1,45 @@
+package com.graphitact.chatai;
+
+import org.bukkit.configuration.file.FileConfiguration;
+import org.bukkit.plugin.Plugin;
+
+import java.io.File;
+import java.lang.reflect.Proxy;
+import java.util.logging.Logger;
+
+/**
+ * A Plugin for the tests that need one: its config, a quiet logger and a data
+ * folder, enabled. Any other method returns null, false or 0. Public for the
+ * tests in the quest package.
+ */
+public final class TestPlugin {
+    private static final Logger LOG = Logger.getLogger("ChatAI-test");
+
+    static {
+        LOG.setUseParentHandlers(false);
+    }
+
+    private TestPlugin() {}
+
+    public static Plugin with(FileConfiguration config, File dataDir) {
+        return (Plugin) Proxy.newProxyInstance(TestPlugin.class.getClassLoader(), new Class<?>[] { Plugin.class },
+            (self, method, args) -> switch (method.getName()) {
+                case "getConfig"     -> config;
+                case "getLogger"     -> LOG;
+                case "getDataFolder" -> dataDir;
+                case "getName"       -> "ChatAI";
+                case "isEnabled"     -> true;
+                case "hashCode"      -> System.identityHashCode(self);
+                case "equals"        -> self == args[0];
+                default              -> zero(method.getReturnType());
+            });
+    }
+
+    private static Object zero(Class<?> t) {
+        if (t == boolean.class) return false;
+        if (t == long.class)    return 0L;
+        if (t == int.class)     return 0;
+        if (t == double.class)  return 0.0;
+        return null;
+    }
+}
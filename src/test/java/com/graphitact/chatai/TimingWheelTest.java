@@ -0,0 +1,115 @@
+package com.graphitact.chatai;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class TimingWheelTest {
+    private final TimingWheel wheel = new TimingWheel(Logger.getLogger("ChatAI-test"));
+    private final List<String> fired = new ArrayList<>();
+    private int ticks;
+
+    private void advance(int n) {
+        for (int i = 0; i < n; i++) {
+            ticks++;
+            wheel.tick();
+        }
+    }
+
+    private TimingWheel.Timer timer(String name) {
+        return wheel.newTimer(() -> fired.add(name + "@" + ticks));
+    }
+
+    @Test
+    void deadlinesPastOneTurnWrapAround() {
+        // 256 slots: these land in slots that earlier ticks already pass through
+        timer("a").schedule(300);
+        timer("b").schedule(256);
+        timer("c").schedule(600);
+        timer("d").schedule(44);
+        assertEquals(4, wheel.pending());
+
+        advance(700);
+        assertEquals(List.of("d@44", "b@256", "a@300", "c@600"), fired);
+        assertEquals(0, wheel.pending());
+    }
+
+    @Test
+    void remainingTicksCountsDownAcrossTurns() {
+        TimingWheel.Timer t = timer("t");
+        t.schedule(520);
+        advance(300);
+        assertEquals(220, t.remainingTicks());
+        advance(220);
+        assertEquals(List.of("t@520"), fired);
+        assertEquals(0, t.remainingTicks());
+    }
+
+    @Test
+    void reschedulingMovesTheDeadline() {
+        TimingWheel.Timer t = timer("t");
+        t.schedule(10);
+        advance(5);
+        t.schedule(300);
+        advance(299);
+        assertEquals(List.of(), fired);
+        advance(1);
+        assertEquals(List.of("t@305"), fired);
+        assertEquals(0, wheel.pending());
+    }
+
+    @Test
+    void cancelFromInsideACallbackStopsATimerDueTheSameTick() {
+        TimingWheel.Timer[] second = new TimingWheel.Timer[1];
+        TimingWheel.Timer first = wheel.newTimer(() -> {
+            fired.add("first@" + ticks);
+            second[0].cancel();
+        });
+        second[0] = timer("second");
+        // both due on tick 3; first is armed last, so it runs first and cancels
+        // second after the tick already took second off the wheel
+        second[0].schedule(3);
+        first.schedule(3);
+
+        advance(10);
+        assertEquals(List.of("first@3"), fired);
+        assertEquals(0, wheel.pending());
+    }
+
+    @Test
+    void callbackMayReArmItsOwnAndOtherTimers() {
+        TimingWheel.Timer[] other = new TimingWheel.Timer[1];
+        TimingWheel.Timer[] self = new TimingWheel.Timer[1];
+        self[0] = wheel.newTimer(() -> {
+            fired.add("self@" + ticks);
+            if (ticks < 600) self[0].schedule(256);
+            // pushed back before it could run this tick
+            other[0].schedule(400);
+        });
+        other[0] = timer("other");
+        other[0].schedule(2);
+        self[0].schedule(2);
+
+        advance(1000);
+        assertEquals(List.of("self@2", "self@258", "self@514", "self@770"), fired);
+        assertEquals(1, wheel.pending());
+        advance(400);
+        assertEquals(List.of("self@2", "self@258", "self@514", "self@770", "other@1170"), fired);
+    }
+
+    @Test
+    void aFailingActionDoesNotStopTheOthers() {
+        Logger quiet = Logger.getLogger("ChatAI-test-wheel");
+        quiet.setUseParentHandlers(false);
+        TimingWheel w = new TimingWheel(quiet);
+        List<String> ran = new ArrayList<>();
+        w.newTimer(() -> { throw new IllegalStateException("boom"); }).schedule(1);
+        w.newTimer(() -> ran.add("ok")).schedule(1);
+        w.tick();
+        assertEquals(List.of("ok"), ran);
+    }
+}
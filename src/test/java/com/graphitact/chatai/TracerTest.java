@@ -0,0 +1,69 @@
+package com.graphitact.chatai;
+
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TracerTest {
+    private static final UUID PLAYER = new UUID(5L, 5L);
+
+    @TempDir
+    Path dir;
+
+    private Tracer tracer(double sampleRate) {
+        YamlConfiguration config = new YamlConfiguration();
+        config.set("trace-sample-rate", sampleRate);
+        return new Tracer(TestPlugin.with(config, dir.toFile()));
+    }
+
+    private static Tracer.Trace traced(Tracer tracer, String prompt) {
+        Tracer.Trace t = tracer.begin(AIClient.Priority.NORMAL, "chat", List.of(PLAYER), prompt,
+            "{\"messages\":[]}".getBytes(StandardCharsets.UTF_8));
+        tracer.end(t, "reply to " + prompt, null);
+        return t;
+    }
+
+    @Test
+    void dumpWritesTheTracesAndNamesTheFile() throws Exception {
+        Tracer tracer = tracer(0);
+        traced(tracer, "first");
+        traced(tracer, "second");
+        String name = tracer.dump("Alex", tracer.recent(PLAYER, 10));
+        assertNotNull(name);
+        tracer.close();
+        List<String> lines = Files.readAllLines(dir.resolve(name));
+        assertEquals(2, lines.size());
+        assertTrue(lines.get(0).contains("reply to second"), lines.get(0));
+    }
+
+    @Test
+    void dumpTheTraceThreadCannotTakeReportsNoFile() throws Exception {
+        Tracer tracer = tracer(0);
+        traced(tracer, "first");
+        List<Tracer.Trace> recent = tracer.recent(PLAYER, 10);
+        tracer.close();
+        assertNull(tracer.dump("Alex", recent));
+        try (var files = Files.list(dir)) {
+            assertEquals(0, files.filter(f -> f.getFileName().toString().startsWith("trace-Alex")).count());
+        }
+    }
+
+    @Test
+    void tracesTheThreadCannotTakeAreCountedAsDropped() {
+        Tracer tracer = tracer(1.0);
+        tracer.close();
+        traced(tracer, "late");
+        assertEquals(1, tracer.dropped());
+    }
+}
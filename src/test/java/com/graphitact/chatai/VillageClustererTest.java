@@ -0,0 +1,127 @@
+package com.graphitact.chatai;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class VillageClustererTest {
+
+    private static final double RADIUS = 50.0;
+    private static final UUID OVERWORLD = new UUID(0, 1);
+    private static final UUID NETHER = new UUID(0, 2);
+
+    /** The all-pairs BFS the clusterer replaced, over the same snapshot. */
+    private static List<List<UUID>> bfs(List<VillageClusterer.Point> all, double radius) {
+        List<List<UUID>> villages = new ArrayList<>();
+        Set<UUID> visited = new HashSet<>();
+        for (VillageClusterer.Point v : all) {
+            if (visited.contains(v.id())) continue;
+            List<UUID> cluster = new ArrayList<>();
+            Deque<VillageClusterer.Point> queue = new ArrayDeque<>();
+            queue.add(v);
+            visited.add(v.id());
+            while (!queue.isEmpty()) {
+                VillageClusterer.Point cur = queue.remove();
+                cluster.add(cur.id());
+                for (VillageClusterer.Point o : all) {
+                    if (visited.contains(o.id())) continue;
+                    if (!o.world().equals(cur.world())) continue;
+                    double dx = cur.x() - o.x(), dy = cur.y() - o.y(), dz = cur.z() - o.z();
+                    if (dx * dx + dy * dy + dz * dz <= radius * radius) {
+                        visited.add(o.id());
+                        queue.add(o);
+                    }
+                }
+            }
+            villages.add(cluster);
+        }
+        return villages;
+    }
+
+    /** Villages as sets, since the BFS lists members in visiting order. */
+    private static Set<Set<UUID>> asSets(List<List<UUID>> villages) {
+        Set<Set<UUID>> out = new HashSet<>();
+        for (List<UUID> v : villages) out.add(new HashSet<>(v));
+        return out;
+    }
+
+    private static VillageClusterer.Point at(UUID world, double x, double y, double z) {
+        return new VillageClusterer.Point(UUID.randomUUID(), world, x, y, z);
+    }
+
+    @Test
+    void chainAcrossCellBordersIsOneVillage() {
+        // each step crosses a cell border (multiples of the radius), including into negatives
+        List<VillageClusterer.Point> points = List.of(
+            at(OVERWORLD, -60, 64, 0),
+            at(OVERWORLD, -10, 64, 0),
+            at(OVERWORLD, 40, 64, 0),
+            at(OVERWORLD, 90, 64, 0),
+            at(OVERWORLD, 90, 64, 49.9));
+        assertEquals(1, VillageClusterer.cluster(points, RADIUS).size());
+        assertEquals(asSets(bfs(points, RADIUS)), asSets(VillageClusterer.cluster(points, RADIUS)));
+    }
+
+    @Test
+    void exactlyTheRadiusApartIsLinked() {
+        List<VillageClusterer.Point> points = List.of(
+            at(OVERWORLD, 49, 0, 0),
+            at(OVERWORLD, 99, 0, 0),
+            at(OVERWORLD, 149.0001, 0, 0));
+        List<List<UUID>> villages = VillageClusterer.cluster(points, RADIUS);
+        assertEquals(2, villages.size());
+        assertEquals(List.of(points.get(0).id(), points.get(1).id()), villages.get(0));
+        assertEquals(List.of(points.get(2).id()), villages.get(1));
+    }
+
+    @Test
+    void sameCoordinatesInOtherWorldsStayApart() {
+        List<VillageClusterer.Point> points = List.of(
+            at(OVERWORLD, 10, 64, 10),
+            at(NETHER, 10, 64, 10),
+            at(OVERWORLD, 20, 64, 10),
+            at(NETHER, 20, 64, 10));
+        List<List<UUID>> villages = VillageClusterer.cluster(points, RADIUS);
+        assertEquals(2, villages.size());
+        assertEquals(List.of(points.get(0).id(), points.get(2).id()), villages.get(0));
+        assertEquals(List.of(points.get(1).id(), points.get(3).id()), villages.get(1));
+    }
+
+    @Test
+    void matchesTheOldBfsOnRandomWorlds() {
+        Random rng = new Random(42);
+        for (int round = 0; round < 50; round++) {
+            List<VillageClusterer.Point> points = new ArrayList<>();
+            int n = 1 + rng.nextInt(300);
+            for (int i = 0; i < n; i++) {
+                // a few hundred blocks around the origin, so villages form and merge across borders
+                points.add(at(rng.nextBoolean() ? OVERWORLD : NETHER,
+                    rng.nextDouble() * 600 - 300,
+                    rng.nextDouble() * 100 - 20,
+                    rng.nextDouble() * 600 - 300));
+            }
+            assertEquals(asSets(bfs(points, RADIUS)), asSets(VillageClusterer.cluster(points, RADIUS)),
+                "round " + round);
+        }
+    }
+
+    @Test
+    void villagesKeepTheOrderOfTheSnapshot() {
+        List<VillageClusterer.Point> points = List.of(
+            at(OVERWORLD, 1000, 64, 0),
+            at(OVERWORLD, 0, 64, 0),
+            at(OVERWORLD, 1010, 64, 0));
+        List<List<UUID>> villages = VillageClusterer.cluster(points, RADIUS);
+        assertEquals(List.of(points.get(0).id(), points.get(2).id()), villages.get(0));
+        assertEquals(List.of(points.get(1).id()), villages.get(1));
+    }
+}
@@ -0,0 +1,177 @@
+package com.graphitact.chatai;
+
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class VillagerStoreTest {
+    @TempDir
+    Path dir;
+
+    private final List<VillagerStore> open = new ArrayList<>();
+
+    @AfterEach
+    void close() {
+        open.forEach(VillagerStore::close);
+    }
+
+    private VillagerStore store() {
+        YamlConfiguration config = new YamlConfiguration();
+        VillagerStore store = new VillagerStore(TestPlugin.with(config, dir.toFile()), dir.toFile());
+        store.open();
+        open.add(store);
+        return store;
+    }
+
+    private static VillagerStore.Memory memory(VillagerStore store, UUID vid, int recent) throws Exception {
+        return store.preload(vid, recent).get(5, TimeUnit.SECONDS);
+    }
+
+    private static ConversationHistory.Entry turn(String text, long ts) {
+        return new ConversationHistory.Entry(ConversationHistory.Role.USER, text, ts);
+    }
+
+    private static void awaitReady(VillagerStore store) throws InterruptedException {
+        long until = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!store.isReady()) {
+            assertTrue(System.nanoTime() < until, "store not ready within 5s");
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    void preloadReadsEverythingAConversationStartsFrom() throws Exception {
+        VillagerStore store = store();
+        UUID vid = new UUID(1L, 1L);
+        store.setBaseName(vid, "Bob");
+        store.setVillage(vid, new VillagerStore.Village("v1", "Oakvale", true));
+        for (int i = 0; i < 5; i++) store.append(vid, turn("turn " + i, i));
+
+        // queued writes come first, so the preload sees all of them
+        VillagerStore.Memory m = memory(store, vid, 2);
+        assertEquals(new VillagerStore.Profile("Bob", "v1", "Oakvale", true), m.profile());
+        assertEquals(List.of(turn("turn 3", 3), turn("turn 4", 4)), m.recent());
+        assertEquals(List.of(turn("turn 0", 0), turn("turn 1", 1), turn("turn 2", 2)), m.older());
+        assertEquals("", m.summary());
+
+        store.summarize(vid, "They talked a lot.", turn("turn 2", 2));
+        m = memory(store, vid, 2);
+        assertEquals("They talked a lot.", m.summary());
+        assertEquals(List.of(), m.older());
+    }
+
+    @Test
+    void unknownVillagerHasAnEmptyMemory() throws Exception {
+        VillagerStore.Memory m = memory(store(), new UUID(2L, 2L), 20);
+        assertEquals(VillagerStore.Profile.NONE, m.profile());
+        assertEquals(List.of(), m.recent());
+    }
+
+    @Test
+    void villageAssignmentsLoadNoShard() throws Exception {
+        VillagerStore store = store();
+        awaitReady(store);
+        List<UUID> ids = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            UUID vid = UUID.randomUUID();
+            ids.add(vid);
+            assertTrue(store.setVillage(vid, new VillagerStore.Village("v" + i % 7, "Village " + i % 7, i % 4 == 0)));
+        }
+        assertFalse(store.setVillage(ids.get(0), new VillagerStore.Village("v0", "Village 0", true)), "unchanged");
+        store.saveVillages();
+        assertEquals(new VillagerStore.Village("v3", "Village 3", false), store.village(ids.get(10)));
+        assertNull(store.village(new UUID(3L, 3L)));
+
+        // the write happens in the background; closing waits for it
+        store.close();
+        open.remove(store);
+        assertEquals(0, store.shardLoads());
+        try (var files = Files.list(dir.resolve("villagers"))) {
+            assertEquals(List.of("villages.yml"), files.map(f -> f.getFileName().toString()).toList());
+        }
+
+        VillagerStore again = store();
+        for (int i = 0; i < ids.size(); i++) {
+            assertEquals(new VillagerStore.Village("v" + i % 7, "Village " + i % 7, i % 4 == 0), again.village(ids.get(i)));
+        }
+    }
+
+    @Test
+    void namesAndTurnsSurviveARestart() throws Exception {
+        VillagerStore store = store();
+        UUID vid = new UUID(4L, 4L);
+        store.setBaseName(vid, "Ann");
+        store.append(vid, turn("hello", 1));
+        store.setVillage(vid, new VillagerStore.Village("v9", "Pinecrest", false));
+        store.saveVillages();
+        store.close();
+        open.remove(store);
+
+        VillagerStore.Memory m = memory(store(), vid, 20);
+        assertEquals(new VillagerStore.Profile("Ann", "v9", "Pinecrest", false), m.profile());
+        // snapshots keep turns as lines, without their time
+        assertEquals(List.of("hello"), m.recent().stream().map(ConversationHistory.Entry::text).toList());
+    }
+
+    @Test
+    void villagesKeptInShardsAreMovedOutOnce() throws Exception {
+        UUID a = new UUID(5L, 5L), b = new UUID(6L, 6L);
+        Path shards = Files.createDirectories(dir.resolve("villagers"));
+        Files.writeString(shards.resolve("0a.yml"),
+            a + ":\n  name: Bob\n  village:\n    id: old\n    name: Oldtown\n    questGiver: true\n"
+          + b + ":\n  name: Eve\n  village:\n    id: old\n    name: Oldtown\n    questGiver: false\n");
+        // the journal is newer than the snapshot
+        Files.writeString(shards.resolve("0a.journal"),
+            "{\"v\":\"" + b + "\",\"profile\":{\"name\":\"Eve\",\"village\":\"new\",\"villageName\":\"Newtown\",\"questGiver\":true}}\n");
+
+        VillagerStore store = store();
+        awaitReady(store);
+        assertEquals(new VillagerStore.Village("old", "Oldtown", true), store.village(a));
+        assertEquals(new VillagerStore.Village("new", "Newtown", true), store.village(b));
+        assertTrue(Files.exists(shards.resolve("villages.yml")));
+        assertEquals(0, store.shardLoads(), "read without loading the shards");
+    }
+
+    @Test
+    void recallReadsTheShardInTheBackground() throws Exception {
+        VillagerStore store = store();
+        UUID vid = new UUID(7L, 7L);
+        store.append(vid, turn("the wolves took two sheep last winter", 1));
+        store.append(vid, turn("we traded bread for emeralds", 2));
+        store.close();
+        open.remove(store);
+
+        VillagerStore again = store();
+        var found = again.recall(vid, "what about the wolves", 2, Set.of());
+        assertEquals(List.of(turn("the wolves took two sheep last winter", 0)), found.get(5, TimeUnit.SECONDS));
+        // the shard is loaded now, so the answer is there straight away
+        assertTrue(again.recall(vid, "emeralds", 2, Set.of()).isDone());
+    }
+
+    @Test
+    void writesAfterCloseAreDropped() {
+        VillagerStore store = store();
+        store.close();
+        open.remove(store);
+        UUID vid = new UUID(8L, 8L);
+        store.append(vid, turn("late reply", 1));
+        store.setBaseName(vid, "Late");
+        store.summarize(vid, "late", turn("late reply", 1));
+        store.saveVillages();
+        assertTrue(store.recall(vid, "late", 2, Set.of()).isDone());
+    }
+}
@@ -0,0 +1,172 @@
+package com.graphitact.chatai.quest;
+
+import com.graphitact.chatai.TestPlugin;
+import com.graphitact.chatai.quest.QuestSystem.Quest;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MissionStoreTest {
+    private static final UUID PLAYER = new UUID(1L, 1L);
+    private static final UUID OTHER  = new UUID(2L, 2L);
+
+    @TempDir
+    Path dir;
+
+    private MissionStore store(long flushMillis, int compactAfterLines) {
+        YamlConfiguration config = new YamlConfiguration();
+        config.set("missions-flush-ms", flushMillis);
+        config.set("missions-compact-after-lines", compactAfterLines);
+        config.set("missions-compact-minutes", 0);
+        return new MissionStore(TestPlugin.with(config, dir.toFile()));
+    }
+
+    private static Quest quest(UUID player, String id, int amount) {
+        Quest q = new Quest();
+        q.id = id;
+        q.type = Quest.Type.KILL;
+        q.target = "ZOMBIE";
+        q.amount = amount;
+        q.player = player;
+        q.giver = new UUID(9L, 9L);
+        q.requiresTurnIn = true;
+        return q;
+    }
+
+    private List<String> awaitLog(int lines) throws InterruptedException {
+        Path log = dir.resolve("missions.log");
+        long until = System.nanoTime() + 5_000_000_000L;
+        while (true) {
+            try {
+                List<String> got = Files.readAllLines(log);
+                if (got.size() >= lines) return got;
+            } catch (java.io.IOException ignored) {
+                // not written yet
+            }
+            assertTrue(System.nanoTime() < until, "log has no " + lines + " lines within 5s");
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    void aBurstOnOneQuestIsOneLine() throws Exception {
+        MissionStore store = store(300, 5000);
+        store.load();
+        Quest q = quest(PLAYER, "q1", 20);
+        store.put(q);
+        for (int i = 0; i < 19; i++) {
+            q.amount--;
+            store.progress(q);
+        }
+        List<String> lines = awaitLog(1);
+        Thread.sleep(400);
+        assertEquals(1, Files.readAllLines(dir.resolve("missions.log")).size(), "coalesced into the PUT");
+        assertTrue(lines.get(0).contains("\"op\":\"PUT\""), lines.get(0));
+        assertTrue(lines.get(0).contains("\"amount\":1"), lines.get(0));
+
+        q.amount = 0;
+        q.readyToTurnIn = true;
+        store.progress(q);
+        lines = awaitLog(2);
+        assertTrue(lines.get(1).contains("\"op\":\"PROGRESS\""), lines.get(1));
+        assertTrue(lines.get(1).contains("\"ready\":true"), lines.get(1));
+        store.close();
+    }
+
+    @Test
+    void logIsReplayedOverTheSnapshotAfterACrash() throws Exception {
+        Files.writeString(dir.resolve("missions.json"),
+            "{\"" + PLAYER + "\":[{\"id\":\"q1\",\"type\":\"KILL\",\"target\":\"ZOMBIE\",\"amount\":10,"
+          + "\"player\":\"" + PLAYER + "\",\"requiresTurnIn\":false,\"readyToTurnIn\":false},"
+          + "{\"id\":\"gone\",\"type\":\"FETCH\",\"target\":\"APPLE\",\"amount\":3,"
+          + "\"player\":\"" + PLAYER + "\",\"requiresTurnIn\":false,\"readyToTurnIn\":false}]}",
+            StandardCharsets.UTF_8);
+        Files.writeString(dir.resolve("missions.log"), String.join("\n",
+            "{\"op\":\"PROGRESS\",\"p\":\"" + PLAYER + "\",\"id\":\"q1\",\"n\":4,\"ready\":false}",
+            "{\"op\":\"DELETE\",\"p\":\"" + PLAYER + "\",\"id\":\"gone\"}",
+            "{\"op\":\"PUT\",\"p\":\"" + OTHER + "\",\"id\":\"q2\",\"q\":{\"id\":\"q2\",\"type\":\"FETCH\","
+                + "\"target\":\"BREAD\",\"amount\":2,\"player\":\"" + OTHER + "\",\"requiresTurnIn\":true,\"readyToTurnIn\":false}}",
+            "{\"op\":\"PROGRESS\",\"p\":\"" + OTHER + "\",\"id\":\"q2\",\"n\":0,\"ready\":true}",
+            // the crash tore the last write
+            "{\"op\":\"PROGRESS\",\"p\":\"" + OTHER + "\",\"id\":\"q2\",\"n\""),
+            StandardCharsets.UTF_8);
+
+        MissionStore store = store(0, 5000);
+        Map<UUID, List<Quest>> quests = store.load();
+        store.close();
+
+        assertEquals(1, quests.get(PLAYER).size());
+        Quest q1 = quests.get(PLAYER).get(0);
+        assertEquals("q1", q1.id);
+        assertEquals(4, q1.amount);
+        Quest q2 = quests.get(OTHER).get(0);
+        assertEquals("BREAD", q2.target);
+        assertEquals(0, q2.amount);
+        assertTrue(q2.readyToTurnIn);
+        assertTrue(q2.requiresTurnIn);
+    }
+
+    @Test
+    void compactionRenamesTheSnapshotIntoPlaceAndStartsANewLog() throws Exception {
+        MissionStore store = store(0, 3);
+        store.load();
+        store.put(quest(PLAYER, "a", 5));
+        store.put(quest(PLAYER, "b", 6));
+        Quest c = quest(OTHER, "c", 7);
+        store.put(c);
+        long until = System.nanoTime() + 5_000_000_000L;
+        while (!Files.exists(dir.resolve("missions.json"))) {
+            assertTrue(System.nanoTime() < until, "no snapshot within 5s");
+            Thread.sleep(10);
+        }
+        store.remove(c);
+        store.close();
+
+        assertFalse(Files.exists(dir.resolve("missions.json.tmp")));
+        assertFalse(Files.exists(dir.resolve("missions.log")), "folded into the snapshot on close");
+        Map<UUID, List<Quest>> quests = store(0, 3).load();
+        assertEquals(List.of("a", "b"), quests.get(PLAYER).stream().map(q -> q.id).toList());
+        assertNull(quests.get(OTHER));
+    }
+
+    @Test
+    void changesRacingCloseNeverThrow() throws Exception {
+        // the window is small, so close many stores under several writers
+        for (int round = 0; round < 50; round++) {
+            MissionStore store = store(0, 5000);
+            store.load();
+            AtomicReference<Throwable> failed = new AtomicReference<>();
+            List<Thread> writers = new ArrayList<>();
+            for (int w = 0; w < 4; w++) {
+                Quest q = quest(new UUID(3L, w), "q", 1_000_000);
+                Thread t = new Thread(() -> {
+                    try {
+                        store.put(q);
+                        for (int i = 0; i < 20_000; i++) store.progress(q);
+                    } catch (Throwable ex) {
+                        failed.set(ex);
+                    }
+                });
+                writers.add(t);
+                t.start();
+            }
+            store.close();
+            for (Thread t : writers) t.join();
+            assertNull(failed.get(), "round " + round);
+        }
+    }
+}